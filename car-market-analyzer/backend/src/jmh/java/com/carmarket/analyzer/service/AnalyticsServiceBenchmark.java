@@ -0,0 +1,122 @@
+package com.carmarket.analyzer.service;
+
+import com.carmarket.analyzer.model.Car;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+// Aggregation paths of AnalyticsService over the in-memory market data. Price analysis runs
+// its database queries against canned rows (the per-year, per-location and price bucket
+// results of the generated data), so the uncached benchmark measures the fan-out to the
+// analytics pool, the median from the quantile sketch and merging the parts.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AnalyticsServiceBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    private int cars;
+
+    private AnalyticsService analyticsService;
+    private PriceAnalysisCache priceAnalysisCache;
+    private String make;
+    private String model;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<Car> data = BenchmarkSupport.generateCars(cars);
+        analyticsService = new AnalyticsService();
+        MarketSnapshot snapshot = BenchmarkSupport.marketSnapshot(data);
+        BenchmarkSupport.inject(analyticsService, "marketSnapshot", snapshot);
+        BenchmarkSupport.inject(analyticsService, "marketAggregates", BenchmarkSupport.marketAggregates(snapshot));
+        BenchmarkSupport.inject(analyticsService, "priceQuantiles", BenchmarkSupport.priceQuantiles(snapshot));
+        BenchmarkSupport.inject(analyticsService, "analyticsExecutor", BenchmarkSupport.analyticsExecutor(4));
+        priceAnalysisCache = new PriceAnalysisCache(200_000);
+        BenchmarkSupport.inject(analyticsService, "priceAnalysisCache", priceAnalysisCache);
+
+        // Most common make/model, as the analysis page would usually ask for
+        Map.Entry<String, Long> top = data.stream()
+                .collect(Collectors.groupingBy(car -> car.getMake() + "\u0000" + car.getModel(), Collectors.counting()))
+                .entrySet().stream()
+                .max(Map.Entry.comparingByValue())
+                .orElseThrow();
+        String[] parts = top.getKey().split("\u0000");
+        make = parts[0];
+        model = parts[1];
+
+        // What the database would answer for that make/model
+        List<Car> matching = data.stream()
+                .filter(car -> car.getMake().equals(make) && car.getModel().equals(model))
+                .collect(Collectors.toList());
+        List<Object[]> byYear = new ArrayList<>();
+        matching.stream().collect(Collectors.groupingBy(Car::getYear)).forEach((year, group) -> byYear.add(
+                new Object[]{year, (long) group.size(), group.stream().mapToDouble(Car::getPrice).average().orElse(0)}));
+        List<Object[]> byLocation = new ArrayList<>();
+        matching.stream().collect(Collectors.groupingBy(Car::getLocation)).forEach((location, group) -> byLocation.add(
+                new Object[]{location, group.stream().mapToDouble(Car::getPrice).average().orElse(0)}));
+        Object[] buckets = new Object[5];
+        for (int i = 0; i < buckets.length; i++) {
+            int bucket = i;
+            buckets[i] = matching.stream()
+                    .filter(car -> (car.getPrice() < 100000 ? (int) (car.getPrice() / 25000) : 4) == bucket)
+                    .count();
+        }
+        BenchmarkSupport.inject(analyticsService, "jdbcTemplate", BenchmarkSupport.cannedJdbcTemplate(Map.of(
+                AnalyticsService.PRICE_BY_YEAR_SQL,
+                new BenchmarkSupport.CannedRows(List.of("year", "cars", "average"), byYear),
+                AnalyticsService.PRICE_BY_LOCATION_SQL,
+                new BenchmarkSupport.CannedRows(List.of("location", "average"), byLocation),
+                AnalyticsService.PRICE_BUCKETS_SQL,
+                new BenchmarkSupport.CannedRows(List.of(), List.<Object[]>of(buckets)))));
+
+        // Cached from now on, for priceAnalysisCached
+        Map<String, Object> analysis = analyticsService.getPriceAnalysis(make, model);
+        if (analysis.containsKey("partial")) {
+            throw new IllegalStateException("Price analysis is missing " + analysis.get("missing"));
+        }
+    }
+
+    @Benchmark
+    public Map<String, Object> marketOverview() {
+        return analyticsService.getMarketOverview();
+    }
+
+    @Benchmark
+    public Map<String, Object> marketInsights() {
+        return analyticsService.getMarketInsights();
+    }
+
+    @Benchmark
+    public Map<String, Object> priceAnalysisCached() {
+        return analyticsService.getPriceAnalysis(make, model);
+    }
+
+    // Every call misses the cache and runs the whole analysis
+    @Benchmark
+    public Map<String, Object> priceAnalysisUncached() {
+        priceAnalysisCache.onCarsReloaded();
+        return analyticsService.getPriceAnalysis(make, model);
+    }
+
+    @Benchmark
+    public Map<String, Object> percentiles() {
+        return analyticsService.getPricePercentiles(make, model, null);
+    }
+
+    @Benchmark
+    public Map<String, Object> priceHistogram() {
+        return analyticsService.getPriceHistogram(null, 20, "linear", null, null, null);
+    }
+
+    @Benchmark
+    public Map<String, Object> priceHistogramByMake() {
+        return analyticsService.getPriceHistogram(null, 20, "log", null, null, "make");
+    }
+}
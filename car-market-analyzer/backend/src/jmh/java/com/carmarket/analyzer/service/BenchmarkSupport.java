@@ -0,0 +1,162 @@
+package com.carmarket.analyzer.service;
+
+import com.carmarket.analyzer.model.Car;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+// Wires services by hand for the benchmarks, without a Spring context or a database.
+// Listings come from MarketDataGenerator with a fixed seed, so every run sees the same data.
+final class BenchmarkSupport {
+
+    static final long SEED = 42L;
+    static final int CURRENT_YEAR = 2024;
+    private static final LocalDateTime CREATED_AT = LocalDateTime.of(2024, 1, 1, 0, 0);
+
+    private BenchmarkSupport() {
+    }
+
+    static List<Car> generateCars(int count) {
+        MarketDataGenerator generator = new MarketDataGenerator(SEED, CURRENT_YEAR);
+        List<Car> cars = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Car car = generator.nextCar();
+            car.setId((long) i + 1);
+            car.setCreatedAt(CREATED_AT.plusMinutes(i));
+            cars.add(car);
+        }
+        return cars;
+    }
+
+    static MarketSnapshot marketSnapshot(List<Car> cars) {
+        MarketSnapshot snapshot = new MarketSnapshot();
+        snapshot.loadFrom(cars.stream().map(CarState::of).collect(Collectors.toList()));
+        return snapshot;
+    }
+
+    static MarketAggregates marketAggregates(MarketSnapshot snapshot) {
+        MarketAggregates aggregates = new MarketAggregates();
+        inject(aggregates, "marketSnapshot", snapshot);
+        inject(aggregates, "carWriteGate", new CarWriteGate());
+        return aggregates;
+    }
+
+    static PriceQuantiles priceQuantiles(MarketSnapshot snapshot) {
+        PriceQuantiles quantiles = new PriceQuantiles();
+        inject(quantiles, "marketSnapshot", snapshot);
+        inject(quantiles, "rebuildIntervalMillis", 1000L);
+        // Daemon build thread; it lives as long as the benchmark fork
+        quantiles.start();
+        return quantiles;
+    }
+
+    static AnalyticsExecutor analyticsExecutor(int parallelism) {
+        AnalyticsExecutor executor = new AnalyticsExecutor();
+        inject(executor, "parallelism", parallelism);
+        inject(executor, "queueCapacity", 200);
+        inject(executor, "timeoutMillis", 5000L);
+        executor.start();
+        return executor;
+    }
+
+    // A JdbcTemplate that answers query(sql, RowCallbackHandler, args) and
+    // queryForObject(sql, RowMapper, args) with canned rows per statement, without a database
+    static JdbcTemplate cannedJdbcTemplate(Map<String, CannedRows> answers) {
+        return new JdbcTemplate() {
+            @Override
+            public void query(String sql, RowCallbackHandler handler, Object... args) {
+                ResultSet rs = answer(sql).resultSet();
+                try {
+                    while (rs.next()) {
+                        handler.processRow(rs);
+                    }
+                } catch (SQLException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+
+            @Override
+            public <T> T queryForObject(String sql, RowMapper<T> rowMapper, Object... args) {
+                ResultSet rs = answer(sql).resultSet();
+                try {
+                    rs.next();
+                    return rowMapper.mapRow(rs, 0);
+                } catch (SQLException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+
+            private CannedRows answer(String sql) {
+                CannedRows rows = answers.get(sql);
+                if (rows == null) {
+                    throw new IllegalStateException("No canned rows for " + sql);
+                }
+                return rows;
+            }
+        };
+    }
+
+    // Result rows of one statement; values are read by column label or 1-based index
+    static final class CannedRows {
+        private final List<String> columns;
+        private final List<Object[]> rows;
+
+        CannedRows(List<String> columns, List<Object[]> rows) {
+            this.columns = columns;
+            this.rows = rows;
+        }
+
+        // A forward-only cursor supporting next, wasNull and the getters the analytics use
+        ResultSet resultSet() {
+            int[] row = {-1};
+            return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+                    (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "next":
+                                return ++row[0] < rows.size();
+                            case "wasNull":
+                                return false;
+                            case "close":
+                                return null;
+                            default:
+                                break;
+                        }
+                        int column = args[0] instanceof Integer ? (Integer) args[0] - 1 : columns.indexOf(args[0]);
+                        Object value = rows.get(row[0])[column];
+                        switch (method.getName()) {
+                            case "getInt":
+                                return ((Number) value).intValue();
+                            case "getLong":
+                                return ((Number) value).longValue();
+                            case "getDouble":
+                                return ((Number) value).doubleValue();
+                            case "getString":
+                                return (String) value;
+                            default:
+                                throw new UnsupportedOperationException(method.getName() + Arrays.toString(args));
+                        }
+                    });
+        }
+    }
+
+    static void inject(Object target, String fieldName, Object value) {
+        try {
+            Field field = target.getClass().getDeclaredField(fieldName);
+            field.setAccessible(true);
+            field.set(target, value);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot set " + fieldName + " on " + target.getClass().getSimpleName(), e);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.carmarket.analyzer.service;
+
+import com.carmarket.analyzer.dto.CarResponse;
+import com.carmarket.analyzer.dto.CarSummary;
+import com.carmarket.analyzer.model.Car;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+// Car to CarResponse mapping and JSON serialization of CarResponse and CarSummary lists
+// (what list endpoints return). The ObjectMapper is configured like the application's.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CarResponseBenchmark {
+
+    @Param({"50", "1000", "100000"})
+    private int cars;
+
+    private CarService carService;
+    private List<Car> entities;
+    private List<CarResponse> responses;
+    private List<CarSummary> summaries;
+    private ObjectWriter writer;
+    private ObjectWriter summaryWriter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        carService = new CarService();
+        entities = BenchmarkSupport.generateCars(cars);
+        responses = entities.stream().map(carService::convertToResponse).collect(Collectors.toList());
+        summaries = entities.stream()
+                .map(car -> new CarSummary(car.getId(), car.getMake(), car.getModel(), car.getYear(),
+                        car.getLocation(), car.getPrice(), car.getEngineSpecs(), car.getFuelType(),
+                        car.getTransmission(), car.getMileage(), car.getSafetyRating()))
+                .collect(Collectors.toList());
+        ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json()
+                .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .build();
+        writer = objectMapper.writerFor(new TypeReference<List<CarResponse>>() {});
+        summaryWriter = objectMapper.writerFor(new TypeReference<List<CarSummary>>() {});
+    }
+
+    @Benchmark
+    public List<CarResponse> convertToResponse() {
+        return entities.stream().map(carService::convertToResponse).collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public byte[] serializeResponses() throws JsonProcessingException {
+        return writer.writeValueAsBytes(responses);
+    }
+
+    @Benchmark
+    public byte[] serializeSummaries() throws JsonProcessingException {
+        return summaryWriter.writeValueAsBytes(summaries);
+    }
+
+    @Benchmark
+    public byte[] convertAndSerialize() throws JsonProcessingException {
+        return writer.writeValueAsBytes(entities.stream().map(carService::convertToResponse).collect(Collectors.toList()));
+    }
+}
@@ -0,0 +1,57 @@
+package com.carmarket.analyzer.service;
+
+import com.carmarket.analyzer.model.User;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+// Cost of authenticating one request: a BCrypt password check, as HTTP Basic did on every
+// request, against verifying a signed access token.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenServiceBenchmark {
+
+    private static final String PASSWORD = "password123";
+
+    private BCryptPasswordEncoder passwordEncoder;
+    private String passwordHash;
+    private TokenService tokenService;
+    private String accessToken;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // The application's encoder: BCrypt with the default strength
+        passwordEncoder = new BCryptPasswordEncoder();
+        passwordHash = passwordEncoder.encode(PASSWORD);
+
+        tokenService = new TokenService();
+        BenchmarkSupport.inject(tokenService, "objectMapper", new ObjectMapper());
+        BenchmarkSupport.inject(tokenService, "secret", "benchmark-secret-of-at-least-32-bytes");
+        BenchmarkSupport.inject(tokenService, "accessTokenMinutes", 15L);
+        BenchmarkSupport.inject(tokenService, "refreshTokenDays", 14L);
+        tokenService.init();
+        accessToken = tokenService.issue(1L, "john_doe", User.ROLE_USER).getAccessToken();
+    }
+
+    @Benchmark
+    public boolean bcryptMatches() {
+        return passwordEncoder.matches(PASSWORD, passwordHash);
+    }
+
+    @Benchmark
+    public Optional<TokenService.Claims> verifyAccessToken() {
+        return tokenService.verify(accessToken, TokenService.ACCESS);
+    }
+
+    @Benchmark
+    public TokenService.TokenPair issueTokens() {
+        return tokenService.issue(1L, "john_doe", User.ROLE_USER);
+    }
+}
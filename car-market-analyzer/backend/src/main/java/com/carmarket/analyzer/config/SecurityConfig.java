@@ -1,17 +1,27 @@
 package com.carmarket.analyzer.config;
 
+import com.carmarket.analyzer.service.TokenService;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.annotation.web.configuration.WebSecurityConfigurerAdapter;
+import org.springframework.security.config.http.SessionCreationPolicy;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.security.web.authentication.HttpStatusEntryPoint;
+import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
 
 @Configuration
 @EnableWebSecurity
 public class SecurityConfig extends WebSecurityConfigurerAdapter {
     
+    @Autowired
+    private TokenService tokenService;
+    
     @Bean
     public PasswordEncoder passwordEncoder() {
         return new BCryptPasswordEncoder();
@@ -19,12 +29,24 @@ public class SecurityConfig extends WebSecurityConfigurerAdapter {
     
     @Override
     protected void configure(HttpSecurity http) throws Exception {
+        // Stateless: requests authenticate with bearer tokens from /api/users/login, so
+        // passwords are only hashed at login and no session is kept
         http
             .csrf().disable()
-            .authorizeRequests()
-                .antMatchers("/api/**").permitAll() // Allowing all API endpoints for now
-                .anyRequest().authenticated()
+            .sessionManagement().sessionCreationPolicy(SessionCreationPolicy.STATELESS)
             .and()
-            .httpBasic();
+            .addFilterBefore(new TokenAuthenticationFilter(tokenService), UsernamePasswordAuthenticationFilter.class)
+            .exceptionHandling().authenticationEntryPoint(new HttpStatusEntryPoint(HttpStatus.UNAUTHORIZED))
+            .and()
+            .authorizeRequests()
+                .antMatchers("/api/admin/**").hasRole("ADMIN")
+                .antMatchers(HttpMethod.GET, "/api/users").hasRole("ADMIN")
+                .antMatchers("/api/users/register", "/api/users/login", "/api/users/token/refresh",
+                        "/api/users/logout", "/api/users/check-username/**", "/api/users/check-email/**").permitAll()
+                // Everything else under /api/users is about one user; UserController only lets
+                // a user reach their own account
+                .antMatchers("/api/users/**").authenticated()
+                .antMatchers("/api/**").permitAll()
+                .anyRequest().authenticated();
     }
 }
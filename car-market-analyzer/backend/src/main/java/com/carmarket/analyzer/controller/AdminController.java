@@ -0,0 +1,165 @@
+package com.carmarket.analyzer.controller;
+
+import com.carmarket.analyzer.service.ImportJob;
+import com.carmarket.analyzer.service.ListingImportService;
+import com.carmarket.analyzer.service.PriceAnalysisCache;
+import com.carmarket.analyzer.service.PriceHistoryPartitionService;
+import com.carmarket.analyzer.service.PriceRollupService;
+import com.carmarket.analyzer.service.SyntheticDataService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+@RestController
+@RequestMapping("/api/admin")
+@CrossOrigin(origins = "*")
+public class AdminController {
+    
+    @Autowired
+    private ListingImportService listingImportService;
+    
+    @Autowired
+    private SyntheticDataService syntheticDataService;
+    
+    @Autowired
+    private PriceAnalysisCache priceAnalysisCache;
+    
+    @Autowired
+    private PriceRollupService priceRollupService;
+    
+    @Autowired
+    private PriceHistoryPartitionService priceHistoryPartitionService;
+    
+    // Start importing a CSV or NDJSON listing file from the import directory
+    @PostMapping("/imports")
+    public ResponseEntity<Map<String, Object>> startImport(@RequestBody Map<String, String> request) {
+        try {
+            String file = request.get("file");
+            if (file == null) {
+                return ResponseEntity.badRequest().build();
+            }
+            String format = request.get("format");
+            ImportJob job = listingImportService.startImport(file,
+                    format != null ? ListingImportService.Format.valueOf(format.toUpperCase(Locale.ROOT)) : null);
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(job.toStatus());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+    
+    // Progress of all imports since startup
+    @GetMapping("/imports")
+    public ResponseEntity<List<Map<String, Object>>> getImports() {
+        try {
+            List<Map<String, Object>> jobs = listingImportService.getJobs().stream()
+                    .map(ImportJob::toStatus)
+                    .collect(Collectors.toList());
+            return ResponseEntity.ok(jobs);
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+    
+    // Progress of one import
+    @GetMapping("/imports/{id}")
+    public ResponseEntity<Map<String, Object>> getImport(@PathVariable String id) {
+        try {
+            return listingImportService.getJob(id)
+                    .map(job -> ResponseEntity.ok(job.toStatus()))
+                    .orElse(ResponseEntity.notFound().build());
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+    
+    // Generate synthetic listings (and price history) for load testing, into the
+    // database or into a CSV file in the import directory
+    @PostMapping("/generate")
+    public ResponseEntity<Map<String, Object>> startGeneration(@RequestBody Map<String, String> request) {
+        try {
+            SyntheticDataService.Target target = SyntheticDataService.Target.valueOf(
+                    request.getOrDefault("target", "DATABASE").toUpperCase(Locale.ROOT));
+            long cars = Long.parseLong(request.getOrDefault("cars", "100000"));
+            // Left unset for the defaults; a file target rejects them
+            Integer pricePoints = request.containsKey("pricePoints") ? Integer.valueOf(request.get("pricePoints")) : null;
+            Integer historyDays = request.containsKey("historyDays") ? Integer.valueOf(request.get("historyDays")) : null;
+            long seed = Long.parseLong(request.getOrDefault("seed", "42"));
+            String id = syntheticDataService.start(target, cars, pricePoints, historyDays, seed, request.get("file"));
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(syntheticDataService.getRun(id).orElseThrow());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+    
+    // Progress of a generation run
+    @GetMapping("/generate/{id}")
+    public ResponseEntity<Map<String, Object>> getGeneration(@PathVariable String id) {
+        try {
+            return syntheticDataService.getRun(id)
+                    .map(ResponseEntity::ok)
+                    .orElse(ResponseEntity.notFound().build());
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+    
+    // Hit, miss and eviction statistics of the in-memory caches
+    @GetMapping("/caches")
+    public ResponseEntity<Map<String, Object>> getCacheStatistics() {
+        try {
+            return ResponseEntity.ok(Map.of("priceAnalysis", priceAnalysisCache.statistics()));
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+    
+    // Roll up price history committed since the last run now, instead of waiting for the schedule
+    @PostMapping("/rollups")
+    public ResponseEntity<Map<String, Object>> runRollup() {
+        try {
+            return ResponseEntity.ok(priceRollupService.rollup());
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+    
+    // Result of the last price history rollup
+    @GetMapping("/rollups")
+    public ResponseEntity<Map<String, Object>> getRollup() {
+        try {
+            return ResponseEntity.ok(priceRollupService.getLastRun());
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+    
+    // Create upcoming price_history partitions and archive expired ones now
+    @PostMapping("/partitions")
+    public ResponseEntity<Map<String, Object>> maintainPartitions() {
+        try {
+            return ResponseEntity.ok(priceHistoryPartitionService.maintain());
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+    
+    // Result of the last price_history partition maintenance
+    @GetMapping("/partitions")
+    public ResponseEntity<Map<String, Object>> getPartitionMaintenance() {
+        try {
+            return ResponseEntity.ok(priceHistoryPartitionService.getLastRun());
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+}
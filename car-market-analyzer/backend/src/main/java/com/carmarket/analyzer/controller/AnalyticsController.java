@@ -1,10 +1,19 @@
 package com.carmarket.analyzer.controller;
 
+import com.carmarket.analyzer.dto.CarSearchRequest;
 import com.carmarket.analyzer.service.AnalyticsService;
+import com.carmarket.analyzer.service.DataVersion;
+import com.carmarket.analyzer.service.MarketSnapshot;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
+import java.time.Duration;
+import java.util.List;
 import java.util.Map;
 
 @RestController
@@ -15,12 +24,30 @@ public class AnalyticsController {
     @Autowired
     private AnalyticsService analyticsService;
     
+    @Autowired
+    private DataVersion dataVersion;
+    
+    // How long clients may reuse market-wide and make/model responses before revalidating
+    @Value("${carmarket.http.market-max-age-seconds:30}")
+    private long marketMaxAge;
+    
+    @Value("${carmarket.http.model-max-age-seconds:60}")
+    private long modelMaxAge;
+    
+    // Market-wide responses are tagged with the market version, make/model ones with the
+    // make version. A matching If-None-Match is answered with 304 before anything is computed.
+    // Price trends are not tagged: their windows are relative to the current time.
+    
     // Get market overview
     @GetMapping("/overview")
-    public ResponseEntity<Map<String, Object>> getMarketOverview() {
+    public ResponseEntity<Map<String, Object>> getMarketOverview(WebRequest request) {
         try {
+            String etag = dataVersion.marketTag();
+            if (request.checkNotModified(etag)) {
+                return notModified(etag, marketMaxAge);
+            }
             Map<String, Object> overview = analyticsService.getMarketOverview();
-            return ResponseEntity.ok(overview);
+            return versioned(etag, marketMaxAge).body(overview);
         } catch (Exception e) {
             return ResponseEntity.internalServerError().build();
         }
@@ -30,10 +57,42 @@ public class AnalyticsController {
     @GetMapping("/price-analysis/make/{make}/model/{model}")
     public ResponseEntity<Map<String, Object>> getPriceAnalysis(
             @PathVariable String make, 
-            @PathVariable String model) {
+            @PathVariable String model, 
+            WebRequest request) {
         try {
+            String etag = dataVersion.makeTag(make);
+            if (request.checkNotModified(etag)) {
+                return notModified(etag, modelMaxAge);
+            }
             Map<String, Object> analysis = analyticsService.getPriceAnalysis(make, model);
-            return ResponseEntity.ok(analysis);
+            if (analysis.containsKey("partial")) {
+                // Incomplete; the next request should compute it again
+                return ResponseEntity.ok().cacheControl(CacheControl.noStore()).body(analysis);
+            }
+            return versioned(etag, modelMaxAge).body(analysis);
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+    
+    // Get price percentiles (p10-p90 and IQR) for specific make/model, optionally one model year
+    @GetMapping("/percentiles/make/{make}/model/{model}")
+    public ResponseEntity<Map<String, Object>> getPricePercentiles(
+            @PathVariable String make, 
+            @PathVariable String model, 
+            @RequestParam(required = false) Integer year, 
+            WebRequest request) {
+        try {
+            String etag = dataVersion.makeTag(make);
+            if (request.checkNotModified(etag)) {
+                return notModified(etag, modelMaxAge);
+            }
+            Map<String, Object> percentiles = analyticsService.getPricePercentiles(make, model, year);
+            if (percentiles.containsKey("stale")) {
+                // Would be tagged with a version the sketch does not reflect yet
+                return ResponseEntity.ok().cacheControl(CacheControl.noStore()).body(percentiles);
+            }
+            return versioned(etag, modelMaxAge).body(percentiles);
         } catch (Exception e) {
             return ResponseEntity.internalServerError().build();
         }
@@ -43,10 +102,54 @@ public class AnalyticsController {
     @GetMapping("/price-trends/{carId}")
     public ResponseEntity<Map<String, Object>> getPriceTrends(
             @PathVariable Long carId, 
-            @RequestParam(defaultValue = "30") int days) {
+            @RequestParam(defaultValue = "30") int days, 
+            @RequestParam(required = false) Integer maxPoints) {
         try {
-            Map<String, Object> trends = analyticsService.getPriceTrends(carId, days);
+            Map<String, Object> trends = analyticsService.getPriceTrends(carId, days, maxPoints);
             return ResponseEntity.ok(trends);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+    
+    // Get price trends for all listings of a make/model, from the daily or weekly rollups
+    @GetMapping("/price-trends/make/{make}/model/{model}")
+    public ResponseEntity<Map<String, Object>> getModelPriceTrends(
+            @PathVariable String make, 
+            @PathVariable String model, 
+            @RequestParam(defaultValue = "365") int days, 
+            @RequestParam(required = false) Integer maxPoints) {
+        try {
+            Map<String, Object> trends = analyticsService.getModelPriceTrends(make, model, days, maxPoints);
+            return ResponseEntity.ok(trends);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+    
+    // Get price histogram for the whole market, optionally grouped by make, year or location
+    @GetMapping("/price-histogram")
+    public ResponseEntity<Map<String, Object>> getPriceHistogram(
+            @RequestParam(required = false) List<Double> edges, 
+            @RequestParam(required = false) Integer buckets, 
+            @RequestParam(defaultValue = "linear") String scale, 
+            @RequestParam(required = false) Double min, 
+            @RequestParam(required = false) Double max, 
+            @RequestParam(required = false) String groupBy, 
+            WebRequest request) {
+        try {
+            String etag = dataVersion.marketTag();
+            if (request.checkNotModified(etag)) {
+                return notModified(etag, marketMaxAge);
+            }
+            Map<String, Object> histogram = analyticsService.getPriceHistogram(edges, buckets, scale, min, max, groupBy);
+            return versioned(etag, marketMaxAge).body(histogram);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
         } catch (Exception e) {
             return ResponseEntity.internalServerError().build();
         }
@@ -54,45 +157,84 @@ public class AnalyticsController {
     
     // Get market insights
     @GetMapping("/insights")
-    public ResponseEntity<Map<String, Object>> getMarketInsights() {
+    public ResponseEntity<Map<String, Object>> getMarketInsights(WebRequest request) {
         try {
+            String etag = dataVersion.marketTag();
+            if (request.checkNotModified(etag)) {
+                return notModified(etag, marketMaxAge);
+            }
             Map<String, Object> insights = analyticsService.getMarketInsights();
-            return ResponseEntity.ok(insights);
+            return versioned(etag, marketMaxAge).body(insights);
         } catch (Exception e) {
             return ResponseEntity.internalServerError().build();
         }
     }
     
-    // Get popular makes
+    // Get the most common makes (limit), optionally among cars matching search filters as query parameters
     @GetMapping("/popular-makes")
-    public ResponseEntity<Map<String, Object>> getPopularMakes() {
+    public ResponseEntity<Map<String, Object>> getPopularMakes(
+            @RequestParam(defaultValue = "" + AnalyticsService.DEFAULT_TOP_LIMIT) int limit, 
+            CarSearchRequest filter, 
+            WebRequest request) {
         try {
-            Map<String, Object> overview = analyticsService.getMarketOverview();
-            return ResponseEntity.ok(Map.of("topMakes", overview.get("topMakes")));
+            String etag = dataVersion.marketTag();
+            if (request.checkNotModified(etag)) {
+                return notModified(etag, marketMaxAge);
+            }
+            List<Map.Entry<String, Long>> top = analyticsService.getTopValues(MarketSnapshot.Dimension.MAKE, limit, filter);
+            return versioned(etag, marketMaxAge).body(Map.of("topMakes", top));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
         } catch (Exception e) {
             return ResponseEntity.internalServerError().build();
         }
     }
     
-    // Get popular locations
+    // Get the most common locations (limit), optionally among cars matching search filters
     @GetMapping("/popular-locations")
-    public ResponseEntity<Map<String, Object>> getPopularLocations() {
+    public ResponseEntity<Map<String, Object>> getPopularLocations(
+            @RequestParam(defaultValue = "" + AnalyticsService.DEFAULT_TOP_LIMIT) int limit, 
+            CarSearchRequest filter, 
+            WebRequest request) {
         try {
-            Map<String, Object> overview = analyticsService.getMarketOverview();
-            return ResponseEntity.ok(Map.of("topLocations", overview.get("topLocations")));
+            String etag = dataVersion.marketTag();
+            if (request.checkNotModified(etag)) {
+                return notModified(etag, marketMaxAge);
+            }
+            List<Map.Entry<String, Long>> top = analyticsService.getTopValues(MarketSnapshot.Dimension.LOCATION, limit, filter);
+            return versioned(etag, marketMaxAge).body(Map.of("topLocations", top));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
         } catch (Exception e) {
             return ResponseEntity.internalServerError().build();
         }
     }
     
-    // Get price range statistics
+    // Get the price range, optionally among cars matching search filters
     @GetMapping("/price-range")
-    public ResponseEntity<Map<String, Object>> getPriceRange() {
+    public ResponseEntity<Map<String, Object>> getPriceRange(CarSearchRequest filter, WebRequest request) {
         try {
-            Map<String, Object> overview = analyticsService.getMarketOverview();
-            return ResponseEntity.ok(Map.of("priceRange", overview.get("priceRange")));
+            String etag = dataVersion.marketTag();
+            if (request.checkNotModified(etag)) {
+                return notModified(etag, marketMaxAge);
+            }
+            Map<String, Object> priceRange = analyticsService.getPriceRange(filter);
+            return versioned(etag, marketMaxAge).body(Map.of("priceRange", priceRange));
         } catch (Exception e) {
             return ResponseEntity.internalServerError().build();
         }
     }
+    
+    private static ResponseEntity.BodyBuilder versioned(String etag, long maxAgeSeconds) {
+        return ResponseEntity.ok().eTag(etag).cacheControl(cacheControl(maxAgeSeconds));
+    }
+    
+    private static <T> ResponseEntity<T> notModified(String etag, long maxAgeSeconds) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(cacheControl(maxAgeSeconds)).build();
+    }
+    
+    // max-age=0 still lets clients keep the response, but they revalidate it every time
+    private static CacheControl cacheControl(long maxAgeSeconds) {
+        return maxAgeSeconds > 0 ? CacheControl.maxAge(Duration.ofSeconds(maxAgeSeconds)) : CacheControl.noCache();
+    }
 }
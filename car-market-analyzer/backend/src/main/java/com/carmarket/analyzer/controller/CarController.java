@@ -1,40 +1,108 @@
 package com.carmarket.analyzer.controller;
 
+import com.carmarket.analyzer.dto.BulkPriceUpdateResponse;
+import com.carmarket.analyzer.dto.CarPage;
 import com.carmarket.analyzer.dto.CarResponse;
 import com.carmarket.analyzer.dto.CarSearchRequest;
+import com.carmarket.analyzer.dto.CarSummary;
+import com.carmarket.analyzer.dto.PriceUpdateRequest;
 import com.carmarket.analyzer.model.Car;
+import com.carmarket.analyzer.service.AutocompleteIndex;
+import com.carmarket.analyzer.service.BulkPriceUpdateService;
 import com.carmarket.analyzer.service.CarService;
+import com.carmarket.analyzer.service.DataVersion;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.RuntimeJsonMappingException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.time.Duration;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/api/cars")
 @CrossOrigin(origins = "*")
 public class CarController {
     
+    private static final String NDJSON = "application/x-ndjson";
+    
     @Autowired
     private CarService carService;
     
+    @Autowired
+    private BulkPriceUpdateService bulkPriceUpdateService;
+    
+    @Autowired
+    private ObjectMapper objectMapper;
+    
+    @Autowired
+    private AutocompleteIndex autocompleteIndex;
+    
+    @Autowired
+    private DataVersion dataVersion;
+    
+    // 0: clients revalidate every time, and get a 304 while the car is unchanged
+    @Value("${carmarket.http.car-max-age-seconds:0}")
+    private long carMaxAge;
+    
     // Search cars by criteria
     @PostMapping("/search")
-    public ResponseEntity<List<CarResponse>> searchCars(@RequestBody CarSearchRequest request) {
+    public ResponseEntity<List<CarSummary>> searchCars(@RequestBody CarSearchRequest request) {
         try {
-            List<CarResponse> cars = carService.searchCars(request);
+            List<CarSummary> cars = carService.searchCars(request);
             return ResponseEntity.ok(cars);
         } catch (Exception e) {
             return ResponseEntity.badRequest().build();
         }
     }
     
-    // Get all cars
+    // Get cars one page at a time; pass the returned nextCursor as "after" for the next page
     @GetMapping
-    public ResponseEntity<List<CarResponse>> getAllCars() {
+    public ResponseEntity<CarPage> getCarsPage(
+            @RequestParam(required = false) Long after,
+            @RequestParam(defaultValue = "" + CarService.DEFAULT_PAGE_SIZE) int size) {
         try {
-            List<CarResponse> cars = carService.getAllCars();
-            return ResponseEntity.ok(cars);
+            CarPage page = carService.getCarsPage(after, size);
+            return ResponseEntity.ok(page);
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+    
+    // Stream all cars as newline-delimited JSON (Accept: application/x-ndjson)
+    @GetMapping(produces = NDJSON)
+    public ResponseEntity<StreamingResponseBody> streamAllCars() {
+        StreamingResponseBody body = carService::streamAllCars;
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(NDJSON))
+                .body(body);
+    }
+    
+    // Suggest makes, models or locations for what has been typed; in memory, no database access
+    @GetMapping("/autocomplete")
+    public ResponseEntity<List<AutocompleteIndex.Suggestion>> autocomplete(
+            @RequestParam String field, 
+            @RequestParam(defaultValue = "") String q, 
+            @RequestParam(required = false) String make, 
+            @RequestParam(defaultValue = "" + AutocompleteIndex.DEFAULT_LIMIT) int limit) {
+        try {
+            AutocompleteIndex.Field target = AutocompleteIndex.Field.valueOf(field.toUpperCase(Locale.ROOT));
+            List<AutocompleteIndex.Suggestion> suggestions = autocompleteIndex.suggest(target, q, make, limit);
+            return ResponseEntity.ok(suggestions);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
         } catch (Exception e) {
             return ResponseEntity.internalServerError().build();
         }
@@ -42,10 +110,15 @@ public class CarController {
     
     // Get car by ID
     @GetMapping("/{id}")
-    public ResponseEntity<CarResponse> getCarById(@PathVariable Long id) {
+    public ResponseEntity<CarResponse> getCarById(@PathVariable Long id, WebRequest request) {
         try {
+            String etag = dataVersion.carTag(id);
+            if (request.checkNotModified(etag)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag)
+                        .cacheControl(carCacheControl()).build();
+            }
             CarResponse car = carService.getCarById(id);
-            return ResponseEntity.ok(car);
+            return ResponseEntity.ok().eTag(etag).cacheControl(carCacheControl()).body(car);
         } catch (RuntimeException e) {
             return ResponseEntity.notFound().build();
         } catch (Exception e) {
@@ -53,11 +126,28 @@ public class CarController {
         }
     }
     
+    // Get the car with its price trend and similar listings in one response
+    @GetMapping("/{id}/details")
+    public ResponseEntity<Map<String, Object>> getCarDetails(
+            @PathVariable Long id, 
+            @RequestParam(defaultValue = "" + CarService.DEFAULT_RELATED_CARS) int related) {
+        try {
+            Map<String, Object> details = carService.getCarDetails(id, related);
+            return ResponseEntity.ok(details);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (IllegalStateException e) {
+            return ResponseEntity.internalServerError().build();
+        } catch (RuntimeException e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+    
     // Get cars by make
     @GetMapping("/make/{make}")
-    public ResponseEntity<List<CarResponse>> getCarsByMake(@PathVariable String make) {
+    public ResponseEntity<List<CarSummary>> getCarsByMake(@PathVariable String make) {
         try {
-            List<CarResponse> cars = carService.getCarsByMake(make);
+            List<CarSummary> cars = carService.getCarsByMake(make);
             return ResponseEntity.ok(cars);
         } catch (Exception e) {
             return ResponseEntity.internalServerError().build();
@@ -66,11 +156,11 @@ public class CarController {
     
     // Get cars by make and model
     @GetMapping("/make/{make}/model/{model}")
-    public ResponseEntity<List<CarResponse>> getCarsByMakeAndModel(
+    public ResponseEntity<List<CarSummary>> getCarsByMakeAndModel(
             @PathVariable String make, 
             @PathVariable String model) {
         try {
-            List<CarResponse> cars = carService.getCarsByMakeAndModel(make, model);
+            List<CarSummary> cars = carService.getCarsByMakeAndModel(make, model);
             return ResponseEntity.ok(cars);
         } catch (Exception e) {
             return ResponseEntity.internalServerError().build();
@@ -79,9 +169,9 @@ public class CarController {
     
     // Get cars by location
     @GetMapping("/location/{location}")
-    public ResponseEntity<List<CarResponse>> getCarsByLocation(@PathVariable String location) {
+    public ResponseEntity<List<CarSummary>> getCarsByLocation(@PathVariable String location) {
         try {
-            List<CarResponse> cars = carService.getCarsByLocation(location);
+            List<CarSummary> cars = carService.getCarsByLocation(location);
             return ResponseEntity.ok(cars);
         } catch (Exception e) {
             return ResponseEntity.internalServerError().build();
@@ -114,6 +204,22 @@ public class CarController {
         }
     }
     
+    // Apply many price changes at once. Body is a JSON array or newline-delimited JSON
+    // of {carId, price, recordedAt}; it is read incrementally and applied in chunks.
+    @PostMapping(value = "/prices/bulk", consumes = {MediaType.APPLICATION_JSON_VALUE, NDJSON})
+    public ResponseEntity<BulkPriceUpdateResponse> bulkUpdatePrices(HttpServletRequest request) {
+        try (MappingIterator<PriceUpdateRequest> updates = objectMapper
+                .readerFor(PriceUpdateRequest.class)
+                .readValues(request.getInputStream())) {
+            BulkPriceUpdateResponse response = bulkPriceUpdateService.applyAll(updates);
+            return ResponseEntity.ok(response);
+        } catch (IOException | RuntimeJsonMappingException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+    
     // Get price analysis for make/model
     @GetMapping("/analysis/make/{make}/model/{model}")
     public ResponseEntity<Double> getAveragePrice(
@@ -153,4 +259,8 @@ public class CarController {
             return ResponseEntity.internalServerError().build();
         }
     }
+    
+    private CacheControl carCacheControl() {
+        return carMaxAge > 0 ? CacheControl.maxAge(Duration.ofSeconds(carMaxAge)) : CacheControl.noCache();
+    }
 }
@@ -0,0 +1,45 @@
+package com.carmarket.analyzer.controller;
+
+import com.carmarket.analyzer.service.PriceEventBroadcaster;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.List;
+import java.util.Locale;
+
+@RestController
+@RequestMapping("/api/events")
+@CrossOrigin(origins = "*")
+public class EventController {
+    
+    @Autowired
+    private PriceEventBroadcaster priceEventBroadcaster;
+    
+    // Server-Sent Events stream of price changes and new listings for some cars (car=1&car=2),
+    // a make or make/model, and/or market summaries (market=true)
+    @GetMapping(produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> subscribe(
+            @RequestParam(required = false) List<Long> car,
+            @RequestParam(required = false) String make,
+            @RequestParam(required = false) String model,
+            @RequestParam(defaultValue = "false") boolean market,
+            @RequestParam(defaultValue = "drop_oldest") String policy,
+            @RequestParam(required = false) Integer buffer) {
+        try {
+            PriceEventBroadcaster.Policy bufferPolicy =
+                    PriceEventBroadcaster.Policy.valueOf(policy.toUpperCase(Locale.ROOT));
+            SseEmitter emitter = priceEventBroadcaster.subscribe(car, make, model, market, bufferPolicy, buffer);
+            return ResponseEntity.ok(emitter);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+}
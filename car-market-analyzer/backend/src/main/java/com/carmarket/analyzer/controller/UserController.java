@@ -1,13 +1,22 @@
 package com.carmarket.analyzer.controller;
 
+import com.carmarket.analyzer.dto.CarSearchRequest;
+import com.carmarket.analyzer.dto.SavedSearchResponse;
 import com.carmarket.analyzer.model.User;
+import com.carmarket.analyzer.service.FavoriteSearchService;
+import com.carmarket.analyzer.service.SavedSearchMatcher;
+import com.carmarket.analyzer.service.TokenService;
 import com.carmarket.analyzer.service.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 @RestController
 @RequestMapping("/api/users")
@@ -17,6 +26,15 @@ public class UserController {
     @Autowired
     private UserService userService;
     
+    @Autowired
+    private FavoriteSearchService favoriteSearchService;
+    
+    @Autowired
+    private SavedSearchMatcher savedSearchMatcher;
+    
+    @Autowired
+    private TokenService tokenService;
+    
     // User registration
     @PostMapping("/register")
     public ResponseEntity<User> registerUser(@RequestBody Map<String, String> request) {
@@ -40,7 +58,7 @@ public class UserController {
         }
     }
     
-    // User authentication
+    // User authentication; returns an access token for "Authorization: Bearer" and a refresh token
     @PostMapping("/login")
     public ResponseEntity<Map<String, Object>> loginUser(@RequestBody Map<String, String> request) {
         try {
@@ -51,17 +69,20 @@ public class UserController {
                 return ResponseEntity.badRequest().build();
             }
             
-            boolean isAuthenticated = userService.authenticateUser(username, password);
+            Optional<User> authenticated = userService.authenticate(username, password);
             
-            if (isAuthenticated) {
-                User user = userService.getUserByUsername(username).orElse(null);
-                if (user != null) {
-                    user.setPassword(null); // Don't return password
-                    return ResponseEntity.ok(Map.of(
-                            "authenticated", true,
-                            "user", user
-                    ));
-                }
+            if (authenticated.isPresent()) {
+                User user = authenticated.get();
+                TokenService.TokenPair tokens = tokenService.issue(user.getId(), user.getUsername(), user.getRole());
+                user.setPassword(null); // Don't return password
+                Map<String, Object> response = new LinkedHashMap<>();
+                response.put("authenticated", true);
+                response.put("user", user);
+                response.put("accessToken", tokens.getAccessToken());
+                response.put("refreshToken", tokens.getRefreshToken());
+                response.put("tokenType", tokens.getTokenType());
+                response.put("expiresIn", tokens.getExpiresIn());
+                return ResponseEntity.ok(response);
             }
             
             return ResponseEntity.ok(Map.of("authenticated", false));
@@ -70,11 +91,70 @@ public class UserController {
         }
     }
     
+    // Exchange a refresh token (usable once) for a new access and refresh token
+    @PostMapping("/token/refresh")
+    public ResponseEntity<TokenService.TokenPair> refreshToken(@RequestBody Map<String, String> request) {
+        try {
+            String refreshToken = request.get("refreshToken");
+            
+            if (refreshToken == null) {
+                return ResponseEntity.badRequest().build();
+            }
+            
+            Optional<TokenService.Claims> claims = tokenService.redeem(refreshToken);
+            if (claims.isEmpty()) {
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+            }
+            // Issued with the user's current name and role
+            User user = userService.getUserById(claims.get().getUserId());
+            return ResponseEntity.ok(tokenService.issue(user.getId(), user.getUsername(), user.getRole()));
+        } catch (RuntimeException e) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+    
+    // Revoke the refresh token in the body and the access token the request carries
+    @PostMapping("/logout")
+    public ResponseEntity<Void> logoutUser(
+            @AuthenticationPrincipal TokenService.Claims current,
+            @RequestBody(required = false) Map<String, String> request) {
+        try {
+            if (current != null) {
+                tokenService.revoke(current);
+            }
+            if (request != null) {
+                tokenService.verify(request.get("refreshToken"), TokenService.REFRESH).ifPresent(tokenService::revoke);
+            }
+            return ResponseEntity.ok().build();
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+    
+    // The user the access token belongs to
+    @GetMapping("/me")
+    public ResponseEntity<User> getCurrentUser(@AuthenticationPrincipal TokenService.Claims current) {
+        try {
+            User user = userService.getUserById(current.getUserId());
+            user.setPassword(null); // Don't return password
+            return ResponseEntity.ok(user);
+        } catch (RuntimeException e) {
+            return ResponseEntity.notFound().build();
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+    
     // Get user by ID
     @GetMapping("/{id}")
-    public ResponseEntity<User> getUserById(@PathVariable Long id) {
+    public ResponseEntity<User> getUserById(
+            @AuthenticationPrincipal TokenService.Claims current,
+            @PathVariable Long id) {
+        if (!isSelf(current, id)) return forbidden();
         try {
-            User user = userService.getUserById(id);
+            User user = userService.getUserById(current.getUserId());
             user.setPassword(null); // Don't return password
             return ResponseEntity.ok(user);
         } catch (RuntimeException e) {
@@ -84,7 +164,7 @@ public class UserController {
         }
     }
     
-    // Get all users
+    // Get all users (admins only)
     @GetMapping
     public ResponseEntity<List<User>> getAllUsers() {
         try {
@@ -99,8 +179,10 @@ public class UserController {
     // Update user information
     @PutMapping("/{id}")
     public ResponseEntity<User> updateUser(
+            @AuthenticationPrincipal TokenService.Claims current,
             @PathVariable Long id, 
             @RequestBody Map<String, String> request) {
+        if (!isSelf(current, id)) return forbidden();
         try {
             String username = request.get("username");
             String email = request.get("email");
@@ -109,7 +191,7 @@ public class UserController {
                 return ResponseEntity.badRequest().build();
             }
             
-            User updatedUser = userService.updateUser(id, username, email);
+            User updatedUser = userService.updateUser(current.getUserId(), username, email);
             updatedUser.setPassword(null); // Don't return password
             return ResponseEntity.ok(updatedUser);
         } catch (RuntimeException e) {
@@ -122,8 +204,10 @@ public class UserController {
     // Update user password
     @PutMapping("/{id}/password")
     public ResponseEntity<User> updatePassword(
+            @AuthenticationPrincipal TokenService.Claims current,
             @PathVariable Long id, 
             @RequestBody Map<String, String> request) {
+        if (!isSelf(current, id)) return forbidden();
         try {
             String newPassword = request.get("newPassword");
             
@@ -131,7 +215,8 @@ public class UserController {
                 return ResponseEntity.badRequest().build();
             }
             
-            User updatedUser = userService.updatePassword(id, newPassword);
+            User updatedUser = userService.updatePassword(current.getUserId(), newPassword);
+            tokenService.revokeUser(current.getUserId()); // Tokens issued with the old password stop working
             updatedUser.setPassword(null); // Don't return password
             return ResponseEntity.ok(updatedUser);
         } catch (RuntimeException e) {
@@ -143,9 +228,13 @@ public class UserController {
     
     // Delete user
     @DeleteMapping("/{id}")
-    public ResponseEntity<Void> deleteUser(@PathVariable Long id) {
+    public ResponseEntity<Void> deleteUser(
+            @AuthenticationPrincipal TokenService.Claims current,
+            @PathVariable Long id) {
+        if (!isSelf(current, id)) return forbidden();
         try {
-            userService.deleteUser(id);
+            userService.deleteUser(current.getUserId());
+            tokenService.revokeUser(current.getUserId());
             return ResponseEntity.ok().build();
         } catch (RuntimeException e) {
             return ResponseEntity.notFound().build();
@@ -175,4 +264,107 @@ public class UserController {
             return ResponseEntity.internalServerError().build();
         }
     }
+    
+    // Save a search; new and changed cars matching it are queued under /{id}/matches
+    @PostMapping("/{id}/searches")
+    public ResponseEntity<SavedSearchResponse> saveSearch(
+            @AuthenticationPrincipal TokenService.Claims current,
+            @PathVariable Long id,
+            @RequestBody CarSearchRequest criteria) {
+        if (!isSelf(current, id)) return forbidden();
+        try {
+            return ResponseEntity.ok(favoriteSearchService.saveSearch(current.getUserId(), criteria));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (RuntimeException e) {
+            return ResponseEntity.notFound().build();
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+    
+    // Get a user's saved searches
+    @GetMapping("/{id}/searches")
+    public ResponseEntity<List<SavedSearchResponse>> getSearches(
+            @AuthenticationPrincipal TokenService.Claims current,
+            @PathVariable Long id) {
+        if (!isSelf(current, id)) return forbidden();
+        try {
+            return ResponseEntity.ok(favoriteSearchService.getSearches(current.getUserId()));
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+    
+    // Run a saved search: everything on the first run, then only cars new or repriced since the last run
+    @PostMapping("/{id}/searches/{searchId}/run")
+    public ResponseEntity<Map<String, Object>> runSearch(
+            @AuthenticationPrincipal TokenService.Claims current,
+            @PathVariable Long id,
+            @PathVariable Long searchId) {
+        if (!isSelf(current, id)) return forbidden();
+        try {
+            return ResponseEntity.ok(favoriteSearchService.runSearch(current.getUserId(), searchId));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.internalServerError().build();
+        } catch (RuntimeException e) {
+            return ResponseEntity.notFound().build();
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+    
+    // Delete a saved search
+    @DeleteMapping("/{id}/searches/{searchId}")
+    public ResponseEntity<Void> deleteSearch(
+            @AuthenticationPrincipal TokenService.Claims current,
+            @PathVariable Long id,
+            @PathVariable Long searchId) {
+        if (!isSelf(current, id)) return forbidden();
+        try {
+            favoriteSearchService.deleteSearch(current.getUserId(), searchId);
+            return ResponseEntity.ok().build();
+        } catch (RuntimeException e) {
+            return ResponseEntity.notFound().build();
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+    
+    // Cars that started matching the user's saved searches, oldest first
+    @GetMapping("/{id}/matches")
+    public ResponseEntity<List<SavedSearchMatcher.Match>> getMatches(
+            @AuthenticationPrincipal TokenService.Claims current,
+            @PathVariable Long id) {
+        if (!isSelf(current, id)) return forbidden();
+        try {
+            return ResponseEntity.ok(savedSearchMatcher.pendingMatches(current.getUserId()));
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+    
+    // Acknowledge matches up to and including a sequence number
+    @DeleteMapping("/{id}/matches")
+    public ResponseEntity<Map<String, Integer>> acknowledgeMatches(
+            @AuthenticationPrincipal TokenService.Claims current,
+            @PathVariable Long id,
+            @RequestParam long upTo) {
+        if (!isSelf(current, id)) return forbidden();
+        try {
+            int acknowledged = savedSearchMatcher.acknowledge(current.getUserId(), upTo);
+            return ResponseEntity.ok(Map.of("acknowledged", acknowledged));
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+    
+    // Endpoints under /{id} act on the caller's own account, whatever id the path names
+    private static boolean isSelf(TokenService.Claims current, Long id) {
+        return current != null && id != null && current.getUserId() == id;
+    }
+    
+    private static <T> ResponseEntity<T> forbidden() {
+        return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+    }
 }
@@ -0,0 +1,129 @@
+package com.carmarket.analyzer.dto;
+
+import java.util.List;
+
+public class BulkPriceUpdateResponse {
+    private int processed;
+    private int updated;
+    private int notFound;
+    private int invalid;
+    private long elapsedMillis;
+    private double itemsPerSecond;
+    private List<ItemResult> items;
+
+    // Outcome of one price update, in input order
+    public static class ItemResult {
+        public enum Status { UPDATED, NOT_FOUND, INVALID }
+
+        private Long carId;
+        private Double price;
+        private Status status;
+
+        public ItemResult() {}
+
+        public ItemResult(Long carId, Double price, Status status) {
+            this.carId = carId;
+            this.price = price;
+            this.status = status;
+        }
+
+        public Long getCarId() {
+            return carId;
+        }
+
+        public void setCarId(Long carId) {
+            this.carId = carId;
+        }
+
+        public Double getPrice() {
+            return price;
+        }
+
+        public void setPrice(Double price) {
+            this.price = price;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public void setStatus(Status status) {
+            this.status = status;
+        }
+    }
+
+    // Default constructor
+    public BulkPriceUpdateResponse() {}
+
+    // Constructor with fields
+    public BulkPriceUpdateResponse(List<ItemResult> items, long elapsedMillis) {
+        this.items = items;
+        this.processed = items.size();
+        for (ItemResult item : items) {
+            switch (item.getStatus()) {
+                case UPDATED: updated++; break;
+                case NOT_FOUND: notFound++; break;
+                default: invalid++; break;
+            }
+        }
+        this.elapsedMillis = elapsedMillis;
+        this.itemsPerSecond = elapsedMillis > 0 ? processed * 1000.0 / elapsedMillis : processed;
+    }
+
+    // Getters and Setters
+    public int getProcessed() {
+        return processed;
+    }
+
+    public void setProcessed(int processed) {
+        this.processed = processed;
+    }
+
+    public int getUpdated() {
+        return updated;
+    }
+
+    public void setUpdated(int updated) {
+        this.updated = updated;
+    }
+
+    public int getNotFound() {
+        return notFound;
+    }
+
+    public void setNotFound(int notFound) {
+        this.notFound = notFound;
+    }
+
+    public int getInvalid() {
+        return invalid;
+    }
+
+    public void setInvalid(int invalid) {
+        this.invalid = invalid;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public void setElapsedMillis(long elapsedMillis) {
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public double getItemsPerSecond() {
+        return itemsPerSecond;
+    }
+
+    public void setItemsPerSecond(double itemsPerSecond) {
+        this.itemsPerSecond = itemsPerSecond;
+    }
+
+    public List<ItemResult> getItems() {
+        return items;
+    }
+
+    public void setItems(List<ItemResult> items) {
+        this.items = items;
+    }
+}
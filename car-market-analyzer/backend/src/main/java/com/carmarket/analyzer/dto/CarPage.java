@@ -0,0 +1,52 @@
+package com.carmarket.analyzer.dto;
+
+import java.util.List;
+
+public class CarPage {
+    private List<CarSummary> items;
+    private Long nextCursor; // id to pass as "after" for the next page; null on the last page
+    private int size;
+
+    // Default constructor
+    public CarPage() {}
+
+    // Constructor with fields
+    public CarPage(List<CarSummary> items, Long nextCursor) {
+        this.items = items;
+        this.nextCursor = nextCursor;
+        this.size = items.size();
+    }
+
+    // Getters and Setters
+    public List<CarSummary> getItems() {
+        return items;
+    }
+
+    public void setItems(List<CarSummary> items) {
+        this.items = items;
+    }
+
+    public Long getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(Long nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public void setSize(int size) {
+        this.size = size;
+    }
+
+    @Override
+    public String toString() {
+        return "CarPage{" +
+                "size=" + size +
+                ", nextCursor=" + nextCursor +
+                '}';
+    }
+}
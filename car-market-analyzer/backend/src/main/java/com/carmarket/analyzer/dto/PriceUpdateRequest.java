@@ -0,0 +1,53 @@
+package com.carmarket.analyzer.dto;
+
+import java.time.LocalDateTime;
+
+public class PriceUpdateRequest {
+    private Long carId;
+    private Double price;
+    private LocalDateTime recordedAt; // optional, defaults to the time of ingestion
+
+    // Default constructor
+    public PriceUpdateRequest() {}
+
+    // Constructor with fields
+    public PriceUpdateRequest(Long carId, Double price, LocalDateTime recordedAt) {
+        this.carId = carId;
+        this.price = price;
+        this.recordedAt = recordedAt;
+    }
+
+    // Getters and Setters
+    public Long getCarId() {
+        return carId;
+    }
+
+    public void setCarId(Long carId) {
+        this.carId = carId;
+    }
+
+    public Double getPrice() {
+        return price;
+    }
+
+    public void setPrice(Double price) {
+        this.price = price;
+    }
+
+    public LocalDateTime getRecordedAt() {
+        return recordedAt;
+    }
+
+    public void setRecordedAt(LocalDateTime recordedAt) {
+        this.recordedAt = recordedAt;
+    }
+
+    @Override
+    public String toString() {
+        return "PriceUpdateRequest{" +
+                "carId=" + carId +
+                ", price=" + price +
+                ", recordedAt=" + recordedAt +
+                '}';
+    }
+}
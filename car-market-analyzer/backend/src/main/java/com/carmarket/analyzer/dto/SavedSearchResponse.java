@@ -0,0 +1,44 @@
+package com.carmarket.analyzer.dto;
+
+import java.time.LocalDateTime;
+
+public class SavedSearchResponse {
+    private Long id;
+    private CarSearchRequest criteria;
+    private LocalDateTime createdAt;
+
+    // Default constructor
+    public SavedSearchResponse() {}
+
+    // Constructor with fields
+    public SavedSearchResponse(Long id, CarSearchRequest criteria, LocalDateTime createdAt) {
+        this.id = id;
+        this.criteria = criteria;
+        this.createdAt = createdAt;
+    }
+
+    // Getters and Setters
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public CarSearchRequest getCriteria() {
+        return criteria;
+    }
+
+    public void setCriteria(CarSearchRequest criteria) {
+        this.criteria = criteria;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(LocalDateTime createdAt) {
+        this.createdAt = createdAt;
+    }
+}
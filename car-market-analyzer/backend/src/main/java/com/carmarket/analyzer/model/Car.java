@@ -4,7 +4,12 @@ import javax.persistence.*;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "cars")
+@Table(name = "cars", indexes = {
+        @Index(name = "idx_cars_make_model_year", columnList = "make, model, year"),
+        @Index(name = "idx_cars_location", columnList = "location"),
+        @Index(name = "idx_cars_price", columnList = "price"),
+        @Index(name = "idx_cars_fuel_type_transmission", columnList = "fuel_type, transmission")
+})
 public class Car {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -1,5 +1,7 @@
 package com.carmarket.analyzer.model;
 
+import org.hibernate.annotations.ColumnTransformer;
+
 import javax.persistence.*;
 import java.time.LocalDateTime;
 
@@ -14,11 +16,27 @@ public class FavoriteSearch {
     @JoinColumn(name = "user_id", nullable = false)
     private User user;
     
-    @Column(name = "search_criteria", columnDefinition = "TEXT")
-    private String searchCriteria; // JSON string of search parameters
+    // JSON string of search parameters, stored as JSONB so searches can be looked up by criteria
+    @Column(name = "search_criteria", columnDefinition = "jsonb")
+    @ColumnTransformer(write = "?::jsonb")
+    private String searchCriteria;
     
     @Column(name = "created_at")
     private LocalDateTime createdAt;
+    
+    // High-water mark of the last run: price_history rows from transactions below it were seen
+    @Column(name = "last_txid")
+    private Long lastTxid;
+    
+    @Column(name = "last_run_at")
+    private LocalDateTime lastRunAt;
+    
+    // Matching cars as of the last run, and when it was last counted in full
+    @Column(name = "result_count")
+    private Long resultCount;
+    
+    @Column(name = "counted_at")
+    private LocalDateTime countedAt;
 
     // Default constructor
     public FavoriteSearch() {
@@ -65,6 +83,38 @@ public class FavoriteSearch {
         this.createdAt = createdAt;
     }
 
+    public Long getLastTxid() {
+        return lastTxid;
+    }
+
+    public void setLastTxid(Long lastTxid) {
+        this.lastTxid = lastTxid;
+    }
+
+    public LocalDateTime getLastRunAt() {
+        return lastRunAt;
+    }
+
+    public void setLastRunAt(LocalDateTime lastRunAt) {
+        this.lastRunAt = lastRunAt;
+    }
+
+    public Long getResultCount() {
+        return resultCount;
+    }
+
+    public void setResultCount(Long resultCount) {
+        this.resultCount = resultCount;
+    }
+
+    public LocalDateTime getCountedAt() {
+        return countedAt;
+    }
+
+    public void setCountedAt(LocalDateTime countedAt) {
+        this.countedAt = countedAt;
+    }
+
     @Override
     public String toString() {
         return "FavoriteSearch{" +
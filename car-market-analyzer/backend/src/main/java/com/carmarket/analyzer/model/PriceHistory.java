@@ -4,20 +4,30 @@ import javax.persistence.*;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "price_history")
+@Table(name = "price_history", indexes = {
+        @Index(name = "idx_price_history_car_recorded_at", columnList = "car_id, recorded_at")
+})
 public class PriceHistory {
+    // Pooled sequence allocation (one nextval per 50 rows) so inserts can be JDBC batched;
+    // price_history_id_seq must increment by the same amount (schema.sql, or
+    // migrations/price_history_bigint_ids.sql for older databases)
+    public static final int ID_ALLOCATION_SIZE = 50;
+
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "price_history_seq")
+    @SequenceGenerator(name = "price_history_seq", sequenceName = "price_history_id_seq",
+            allocationSize = ID_ALLOCATION_SIZE)
     private Long id;
     
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "car_id", nullable = false)
     private Car car;
     
     @Column(nullable = false)
     private double price;
     
-    @Column(name = "recorded_at")
+    // Partition key of price_history
+    @Column(name = "recorded_at", nullable = false)
     private LocalDateTime recordedAt;
 
     // Default constructor
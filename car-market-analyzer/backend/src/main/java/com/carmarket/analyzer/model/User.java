@@ -6,6 +6,10 @@ import java.time.LocalDateTime;
 @Entity
 @Table(name = "users")
 public class User {
+    // Roles; ADMIN may use /api/admin and list all users, and is only granted in the database
+    public static final String ROLE_USER = "USER";
+    public static final String ROLE_ADMIN = "ADMIN";
+
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
@@ -22,6 +26,10 @@ public class User {
     @Column(name = "created_at")
     private LocalDateTime createdAt;
 
+    // The default lets ddl-auto add the column to a table that already has users
+    @Column(nullable = false, columnDefinition = "VARCHAR(20) DEFAULT 'USER'")
+    private String role = ROLE_USER;
+
     // Default constructor
     public User() {
         this.createdAt = LocalDateTime.now();
@@ -76,12 +84,21 @@ public class User {
         this.createdAt = createdAt;
     }
 
+    public String getRole() {
+        return role;
+    }
+
+    public void setRole(String role) {
+        this.role = role;
+    }
+
     @Override
     public String toString() {
         return "User{" +
                 "id=" + id +
                 ", username='" + username + '\'' +
                 ", email='" + email + '\'' +
+                ", role='" + role + '\'' +
                 ", createdAt=" + createdAt +
                 '}';
     }
@@ -1,15 +1,27 @@
 package com.carmarket.analyzer.repository;
 
+import com.carmarket.analyzer.dto.CarSummary;
 import com.carmarket.analyzer.model.Car;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Lock;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import javax.persistence.LockModeType;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
-public interface CarRepository extends JpaRepository<Car, Long> {
+public interface CarRepository extends JpaRepository<Car, Long>, JpaSpecificationExecutor<Car>, CarSummaryQueries {
+    
+    // Constructor expression for the listing queries below: rows go straight into
+    // CarSummary without creating managed entities
+    String SELECT_SUMMARY = "SELECT new com.carmarket.analyzer.dto.CarSummary(c.id, c.make, c.model, c.year, " +
+            "c.location, c.price, c.engineSpecs, c.fuelType, c.transmission, c.mileage, c.safetyRating) FROM Car c ";
     
     // Basic search methods
     List<Car> findByMake(String make);
@@ -17,6 +29,11 @@ public interface CarRepository extends JpaRepository<Car, Long> {
     List<Car> findByMakeAndModelAndYear(String make, String model, int year);
     List<Car> findByLocation(String location);
     
+    // Locks the car for the rest of the transaction, so concurrent writes to it take turns
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT c FROM Car c WHERE c.id = :id")
+    Optional<Car> findByIdForUpdate(@Param("id") Long id);
+    
     // Price range queries
     List<Car> findByPriceBetween(double minPrice, double maxPrice);
     List<Car> findByMakeAndPriceBetween(String make, double minPrice, double maxPrice);
@@ -33,32 +50,25 @@ public interface CarRepository extends JpaRepository<Car, Long> {
     List<Car> findByMileageLessThan(double maxMileage);
     List<Car> findByMileageBetween(double minMileage, double maxMileage);
     
-    // Complex search query
-    @Query("SELECT c FROM Car c WHERE " +
-           "(:make IS NULL OR c.make = :make) AND " +
-           "(:model IS NULL OR c.model = :model) AND " +
-           "(:yearFrom IS NULL OR c.year >= :yearFrom) AND " +
-           "(:yearTo IS NULL OR c.year <= :yearTo) AND " +
-           "(:location IS NULL OR c.location = :location) AND " +
-           "(:priceFrom IS NULL OR c.price >= :priceFrom) AND " +
-           "(:priceTo IS NULL OR c.price <= :priceTo) AND " +
-           "(:fuelType IS NULL OR c.fuelType = :fuelType) AND " +
-           "(:transmission IS NULL OR c.transmission = :transmission) AND " +
-           "(:mileageFrom IS NULL OR c.mileage >= :mileageFrom) AND " +
-           "(:mileageTo IS NULL OR c.mileage <= :mileageTo)")
-    List<Car> findCarsByCriteria(
-            @Param("make") String make,
-            @Param("model") String model,
-            @Param("yearFrom") Integer yearFrom,
-            @Param("yearTo") Integer yearTo,
-            @Param("location") String location,
-            @Param("priceFrom") Double priceFrom,
-            @Param("priceTo") Double priceTo,
-            @Param("fuelType") String fuelType,
-            @Param("transmission") String transmission,
-            @Param("mileageFrom") Double mileageFrom,
-            @Param("mileageTo") Double mileageTo
-    );
+    // Listing queries
+    @Transactional(readOnly = true)
+    @Query(SELECT_SUMMARY + "WHERE c.make = :make")
+    List<CarSummary> findSummariesByMake(@Param("make") String make);
+    
+    @Transactional(readOnly = true)
+    @Query(SELECT_SUMMARY + "WHERE c.make = :make AND c.model = :model")
+    List<CarSummary> findSummariesByMakeAndModel(@Param("make") String make, @Param("model") String model);
+    
+    @Transactional(readOnly = true)
+    @Query(SELECT_SUMMARY + "WHERE c.location = :location")
+    List<CarSummary> findSummariesByLocation(@Param("location") String location);
+    
+    // Keyset pagination over summaries; the pageable only limits the page size
+    @Transactional(readOnly = true)
+    @Query(SELECT_SUMMARY + "WHERE c.id > :id ORDER BY c.id")
+    List<CarSummary> findSummariesAfter(@Param("id") Long id, Pageable pageable);
+    
+    // Complex search queries go through findSummaries (or findAll) with CarSpecifications.matching
     
     // Statistics queries
     @Query("SELECT AVG(c.price) FROM Car c WHERE c.make = :make AND c.model = :model")
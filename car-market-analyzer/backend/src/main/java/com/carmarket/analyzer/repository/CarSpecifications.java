@@ -0,0 +1,44 @@
+package com.carmarket.analyzer.repository;
+
+import com.carmarket.analyzer.dto.CarSearchRequest;
+import com.carmarket.analyzer.model.Car;
+import org.springframework.data.jpa.domain.Specification;
+
+// Builds car search predicates that contain only the filters a request actually sets.
+// Each distinct combination of filters becomes its own SQL statement, so the planner
+// can pick the matching index instead of one generic "(? IS NULL OR ...)" plan.
+public final class CarSpecifications {
+
+    private CarSpecifications() {
+    }
+
+    public static Specification<Car> matching(CarSearchRequest request) {
+        return Specification.where(equalTo("make", request.getMake()))
+                .and(equalTo("model", request.getModel()))
+                .and(atLeast("year", request.getYearFrom()))
+                .and(atMost("year", request.getYearTo()))
+                .and(equalTo("location", request.getLocation()))
+                .and(atLeast("price", request.getPriceFrom()))
+                .and(atMost("price", request.getPriceTo()))
+                .and(equalTo("fuelType", request.getFuelType()))
+                .and(equalTo("transmission", request.getTransmission()))
+                .and(atLeast("mileage", request.getMileageFrom()))
+                .and(atMost("mileage", request.getMileageTo()));
+    }
+
+    // Blank strings are treated as "not set", as the search form sends them for empty fields
+    private static Specification<Car> equalTo(String attribute, String value) {
+        if (value == null || value.isBlank()) return null;
+        return (root, query, cb) -> cb.equal(root.get(attribute), value);
+    }
+
+    private static <T extends Comparable<? super T>> Specification<Car> atLeast(String attribute, T value) {
+        if (value == null) return null;
+        return (root, query, cb) -> cb.greaterThanOrEqualTo(root.get(attribute), value);
+    }
+
+    private static <T extends Comparable<? super T>> Specification<Car> atMost(String attribute, T value) {
+        if (value == null) return null;
+        return (root, query, cb) -> cb.lessThanOrEqualTo(root.get(attribute), value);
+    }
+}
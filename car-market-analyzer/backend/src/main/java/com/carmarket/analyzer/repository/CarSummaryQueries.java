@@ -0,0 +1,14 @@
+package com.carmarket.analyzer.repository;
+
+import com.carmarket.analyzer.dto.CarSummary;
+import com.carmarket.analyzer.model.Car;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.List;
+
+// Summary queries that need the Criteria API; CarRepository picks up the implementation
+public interface CarSummaryQueries {
+
+    // Cars matching a specification (see CarSpecifications), selected straight into CarSummary
+    List<CarSummary> findSummaries(Specification<Car> specification);
+}
@@ -0,0 +1,39 @@
+package com.carmarket.analyzer.repository;
+
+import com.carmarket.analyzer.dto.CarSummary;
+import com.carmarket.analyzer.model.Car;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import java.util.List;
+
+// Uses a constructor expression, so Hibernate creates no managed entities and keeps no
+// dirty-checking snapshots for the results
+class CarSummaryQueriesImpl implements CarSummaryQueries {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<CarSummary> findSummaries(Specification<Car> specification) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<CarSummary> query = cb.createQuery(CarSummary.class);
+        Root<Car> car = query.from(Car.class);
+        query.select(cb.construct(CarSummary.class,
+                car.get("id"), car.get("make"), car.get("model"), car.get("year"), car.get("location"),
+                car.get("price"), car.get("engineSpecs"), car.get("fuelType"), car.get("transmission"),
+                car.get("mileage"), car.get("safetyRating")));
+        Predicate predicate = specification != null ? specification.toPredicate(car, query, cb) : null;
+        if (predicate != null) {
+            query.where(predicate);
+        }
+        return entityManager.createQuery(query).getResultList();
+    }
+}
@@ -0,0 +1,35 @@
+package com.carmarket.analyzer.repository;
+
+import com.carmarket.analyzer.model.FavoriteSearch;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import javax.persistence.LockModeType;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface FavoriteSearchRepository extends JpaRepository<FavoriteSearch, Long> {
+    
+    List<FavoriteSearch> findByUserIdOrderByCreatedAtDesc(Long userId);
+    Optional<FavoriteSearch> findByIdAndUserId(Long id, Long userId);
+    
+    // Id, user id and criteria JSON of every saved search, without loading the users
+    @Query("SELECT f.id, f.user.id, f.searchCriteria FROM FavoriteSearch f")
+    List<Object[]> findAllCriteria();
+    
+    // A user's searches with exactly these criteria (JSON): containment both ways, the first
+    // side served by the GIN index on search_criteria
+    @Query(value = "SELECT * FROM favorite_searches WHERE user_id = :userId " +
+            "AND search_criteria @> CAST(:criteria AS jsonb) AND search_criteria <@ CAST(:criteria AS jsonb)",
+            nativeQuery = true)
+    List<FavoriteSearch> findByUserIdAndCriteria(@Param("userId") Long userId, @Param("criteria") String criteria);
+    
+    // Locks the search for the rest of the transaction, so concurrent runs of it take turns
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT f FROM FavoriteSearch f WHERE f.id = :id AND f.user.id = :userId")
+    Optional<FavoriteSearch> findByIdAndUserIdForUpdate(@Param("id") Long id, @Param("userId") Long userId);
+}
@@ -0,0 +1,119 @@
+package com.carmarket.analyzer.service;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs the independent sub-queries of one analytics request concurrently and waits for
+// them up to a per-request deadline. Parts that fail or miss the deadline are reported
+// missing instead of failing the request. Each running part holds a database connection,
+// so there are at most half as many threads as pooled connections, leaving the rest
+// for request threads. When the queue is full, parts run on the calling thread.
+@Component
+public class AnalyticsExecutor {
+
+    private static final Logger log = LoggerFactory.getLogger(AnalyticsExecutor.class);
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Value("${carmarket.analytics.parallelism:8}")
+    private int parallelism;
+
+    @Value("${carmarket.analytics.queue-capacity:200}")
+    private int queueCapacity;
+
+    @Value("${carmarket.analytics.timeout-ms:5000}")
+    private long timeoutMillis;
+
+    private ThreadPoolExecutor executor;
+
+    @PostConstruct
+    public void start() {
+        int threads = parallelism;
+        if (dataSource instanceof HikariDataSource) {
+            threads = Math.min(threads, ((HikariDataSource) dataSource).getMaximumPoolSize() / 2);
+        }
+        threads = Math.max(1, threads);
+        AtomicInteger count = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "analytics-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    // Run every part concurrently; waits until all are done or the deadline has passed
+    public FanOut fanOut(Map<String, Callable<?>> parts) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        Map<String, Future<?>> futures = new LinkedHashMap<>();
+        parts.forEach((name, part) -> futures.put(name, executor.submit(part)));
+
+        Map<String, Object> results = new LinkedHashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (Map.Entry<String, Future<?>> entry : futures.entrySet()) {
+            try {
+                long remaining = deadline - System.nanoTime();
+                results.put(entry.getKey(), entry.getValue().get(Math.max(0, remaining), TimeUnit.NANOSECONDS));
+            } catch (TimeoutException e) {
+                entry.getValue().cancel(true);
+                missing.add(entry.getKey());
+            } catch (ExecutionException e) {
+                log.warn("Analytics part {} failed", entry.getKey(), e.getCause());
+                missing.add(entry.getKey());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                futures.values().forEach(future -> future.cancel(true));
+                throw new IllegalStateException("Interrupted while waiting for analytics", e);
+            }
+        }
+        return new FanOut(results, missing);
+    }
+
+    // Results of a fan-out by part name; parts that failed or timed out are listed as missing
+    public static final class FanOut {
+        private final Map<String, Object> results;
+        private final List<String> missing;
+
+        FanOut(Map<String, Object> results, List<String> missing) {
+            this.results = results;
+            this.missing = missing;
+        }
+
+        @SuppressWarnings("unchecked")
+        public <T> T get(String part) {
+            return (T) results.get(part);
+        }
+
+        public boolean has(String part) {
+            return results.containsKey(part);
+        }
+
+        public List<String> getMissing() {
+            return missing;
+        }
+
+        public boolean isComplete() {
+            return missing.isEmpty();
+        }
+    }
+}
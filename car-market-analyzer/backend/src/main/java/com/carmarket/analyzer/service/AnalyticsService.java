@@ -1,173 +1,429 @@
 package com.carmarket.analyzer.service;
 
-import com.carmarket.analyzer.model.Car;
-import com.carmarket.analyzer.model.PriceHistory;
-import com.carmarket.analyzer.repository.CarRepository;
-import com.carmarket.analyzer.repository.PriceHistoryRepository;
+import com.carmarket.analyzer.dto.CarSearchRequest;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.stereotype.Service;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.Callable;
 
 @Service
 public class AnalyticsService {
     
+    private static final int DEFAULT_HISTOGRAM_BUCKETS = 20;
+    private static final int MAX_HISTOGRAM_BUCKETS = 1000;
+    
+    public static final int DEFAULT_TOP_LIMIT = 5;
+    public static final int MAX_TOP_LIMIT = 100;
+    
+    // One car's price series since a start date, with its standard deviation and the average up
+    // to now computed as window aggregates over the same rows
+    private static final String TRENDS_SQL =
+            "SELECT recorded_at, price, " +
+            "COALESCE(stddev_samp(price) OVER (), 0) AS volatility, " +
+            "COALESCE(avg(price) FILTER (WHERE recorded_at <= ?) OVER (), 0) AS average_price " +
+            "FROM price_history WHERE car_id = ? AND recorded_at >= ? ORDER BY recorded_at";
+    
+    // Sub-queries of the make/model price analysis, all served by idx_cars_make_model_year
+    // (package-private for the benchmarks, which answer them with canned rows)
+    static final String PRICE_BY_YEAR_SQL =
+            "SELECT year, count(*) AS cars, avg(price) AS average FROM cars WHERE make = ? AND model = ? GROUP BY year";
+    static final String PRICE_BY_LOCATION_SQL =
+            "SELECT location, avg(price) AS average FROM cars WHERE make = ? AND model = ? GROUP BY location";
+    static final String PRICE_BUCKETS_SQL =
+            "SELECT count(*) FILTER (WHERE price < 25000), " +
+            "count(*) FILTER (WHERE price >= 25000 AND price < 50000), " +
+            "count(*) FILTER (WHERE price >= 50000 AND price < 75000), " +
+            "count(*) FILTER (WHERE price >= 75000 AND price < 100000), " +
+            "count(*) FILTER (WHERE price >= 100000) " +
+            "FROM cars WHERE make = ? AND model = ?";
+    
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    
+    @Autowired
+    private AnalyticsExecutor analyticsExecutor;
+    
+    @Autowired
+    private PriceRollupService priceRollupService;
+    
+    @Autowired
+    private MarketAggregates marketAggregates;
+    
     @Autowired
-    private CarRepository carRepository;
+    private MarketSnapshot marketSnapshot;
     
     @Autowired
-    private PriceHistoryRepository priceHistoryRepository;
+    private PriceAnalysisCache priceAnalysisCache;
     
-    // Get market overview statistics
+    @Autowired
+    private PriceQuantiles priceQuantiles;
+    
+    // Get market overview statistics, read from the live aggregates
     public Map<String, Object> getMarketOverview() {
         Map<String, Object> overview = new HashMap<>();
         
-        // Total cars in market
-        long totalCars = carRepository.count();
-        overview.put("totalCars", totalCars);
-        
-        // Average price across all cars
-        List<Car> allCars = carRepository.findAll();
-        double avgPrice = allCars.stream()
-                .mapToDouble(Car::getPrice)
-                .average()
-                .orElse(0.0);
-        overview.put("averagePrice", avgPrice);
-        
-        // Price range
-        double minPrice = allCars.stream()
-                .mapToDouble(Car::getPrice)
-                .min()
-                .orElse(0.0);
-        double maxPrice = allCars.stream()
-                .mapToDouble(Car::getPrice)
-                .max()
-                .orElse(0.0);
-        overview.put("priceRange", Map.of("min", minPrice, "max", maxPrice));
+        // Total cars, average price and price range
+        MarketAggregates.PriceStats priceStats = marketAggregates.overall();
+        overview.put("totalCars", priceStats.getCount());
+        overview.put("averagePrice", priceStats.getAverage());
+        overview.put("priceRange", Map.of("min", priceStats.getMin(), "max", priceStats.getMax()));
         
         // Popular makes
-        Map<String, Long> makeCounts = allCars.stream()
-                .collect(Collectors.groupingBy(Car::getMake, Collectors.counting()));
-        List<Map.Entry<String, Long>> topMakes = makeCounts.entrySet().stream()
-                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
-                .limit(5)
-                .collect(Collectors.toList());
-        overview.put("topMakes", topMakes);
+        overview.put("topMakes", marketAggregates.topBy(MarketSnapshot.Dimension.MAKE, DEFAULT_TOP_LIMIT));
         
         // Popular locations
-        Map<String, Long> locationCounts = allCars.stream()
-                .collect(Collectors.groupingBy(Car::getLocation, Collectors.counting()));
-        List<Map.Entry<String, Long>> topLocations = locationCounts.entrySet().stream()
-                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
-                .limit(5)
-                .collect(Collectors.toList());
-        overview.put("topLocations", topLocations);
+        overview.put("topLocations", marketAggregates.topBy(MarketSnapshot.Dimension.LOCATION, DEFAULT_TOP_LIMIT));
         
         return overview;
     }
     
-    // Get price analysis for a specific make/model
-    public Map<String, Object> getPriceAnalysis(String make, String model) {
-        Map<String, Object> analysis = new HashMap<>();
+    // Most common makes or locations, optionally among listings matching a filter. Unfiltered
+    // counts come from the live aggregates; filtered ones from one GROUP BY ... LIMIT query.
+    public List<Map.Entry<String, Long>> getTopValues(MarketSnapshot.Dimension dimension, int limit,
+                                                      CarSearchRequest filter) {
+        if (limit < 1 || limit > MAX_TOP_LIMIT) {
+            throw new IllegalArgumentException("limit must be between 1 and " + MAX_TOP_LIMIT);
+        }
+        String column = dimension == MarketSnapshot.Dimension.MAKE ? "make"
+                : dimension == MarketSnapshot.Dimension.LOCATION ? "location" : null;
+        if (column == null) {
+            throw new IllegalArgumentException("No top values for " + dimension);
+        }
         
-        // Basic statistics
-        double avgPrice = carRepository.getAveragePriceByMakeAndModel(make, model);
-        long count = carRepository.getCountByMakeAndModel(make, model);
+        CarFilter where = new CarFilter(filter);
+        if (where.isEmpty()) {
+            return marketAggregates.topBy(dimension, limit);
+        }
+        where.args.add(limit);
+        return jdbcTemplate.query("SELECT " + column + " AS value, count(*) AS cars FROM cars WHERE " +
+                        column + " IS NOT NULL" + where.sql + " GROUP BY " + column +
+                        " ORDER BY cars DESC, " + column + " LIMIT ?",
+                (rs, rowNum) -> new AbstractMap.SimpleImmutableEntry<>(rs.getString("value"), rs.getLong("cars")),
+                where.args.toArray());
+    }
+    
+    // Lowest and highest price, optionally among listings matching a filter. With no filter or
+    // a single make, location, fuel type or transmission this is read from the live aggregates;
+    // otherwise it is one MIN/MAX query.
+    public Map<String, Object> getPriceRange(CarSearchRequest filter) {
+        CarFilter where = new CarFilter(filter);
+        MarketAggregates.PriceStats stats;
+        if (where.isEmpty()) {
+            stats = marketAggregates.overall();
+        } else if (where.aggregated != null) {
+            stats = marketAggregates.statsOf(where.aggregated, where.aggregatedValue);
+        } else {
+            stats = jdbcTemplate.queryForObject("SELECT count(*), COALESCE(min(price), 0), COALESCE(max(price), 0) " +
+                            "FROM cars WHERE TRUE" + where.sql,
+                    (rs, rowNum) -> new MarketAggregates.PriceStats(rs.getLong(1), 0.0, rs.getDouble(2), rs.getDouble(3)),
+                    where.args.toArray());
+        }
+        Map<String, Object> range = new LinkedHashMap<>();
+        range.put("min", stats.getMin());
+        range.put("max", stats.getMax());
+        range.put("count", stats.getCount());
+        return range;
+    }
+    
+    // Get price analysis for a specific make/model, served from the cache while no car of
+    // that make/model has been written
+    public Map<String, Object> getPriceAnalysis(String make, String model) {
+        return priceAnalysisCache.get(make, model, () -> computePriceAnalysis(make, model));
+    }
+    
+    // Independent parts run concurrently: per-year and per-location GROUP BY queries, the
+    // price bucket counts and the median from the quantile sketch. A part that misses the
+    // deadline is left out and listed under "missing"
+    private Map<String, Object> computePriceAnalysis(String make, String model) {
+        Map<String, Callable<?>> parts = new LinkedHashMap<>();
+        parts.put("priceByYear", () -> {
+            // Totals are summed from the per-year groups
+            Map<Integer, Double> priceByYear = new HashMap<>();
+            long[] count = new long[1];
+            double[] sum = new double[1];
+            jdbcTemplate.query(PRICE_BY_YEAR_SQL, (RowCallbackHandler) rs -> {
+                priceByYear.put(rs.getInt("year"), rs.getDouble("average"));
+                count[0] += rs.getLong("cars");
+                sum[0] += rs.getDouble("average") * rs.getLong("cars");
+            }, make, model);
+            Map<String, Object> statistics = new HashMap<>();
+            statistics.put("averagePrice", count[0] > 0 ? sum[0] / count[0] : 0.0);
+            statistics.put("totalCount", count[0]);
+            statistics.put("priceByYear", priceByYear);
+            return statistics;
+        });
+        parts.put("priceByLocation", () -> {
+            Map<String, Double> priceByLocation = new HashMap<>();
+            jdbcTemplate.query(PRICE_BY_LOCATION_SQL, (RowCallbackHandler) rs -> {
+                if (rs.getString("location") != null) {
+                    priceByLocation.put(rs.getString("location"), rs.getDouble("average"));
+                }
+            }, make, model);
+            return priceByLocation;
+        });
+        parts.put("priceDistribution", () -> jdbcTemplate.queryForObject(PRICE_BUCKETS_SQL, (rs, rowNum) ->
+                new long[]{rs.getLong(1), rs.getLong(2), rs.getLong(3), rs.getLong(4), rs.getLong(5)},
+                make, model));
+        parts.put("medianPrice", () -> priceQuantiles.percentiles(make, model, null));
+        AnalyticsExecutor.FanOut results = analyticsExecutor.fanOut(parts);
         
+        Map<String, Object> analysis = new HashMap<>();
         analysis.put("make", make);
         analysis.put("model", model);
-        analysis.put("averagePrice", avgPrice);
-        analysis.put("totalCount", count);
-        
-        // Price by year
-        List<Car> cars = carRepository.findByMakeAndModel(make, model);
-        Map<Integer, Double> priceByYear = cars.stream()
-                .collect(Collectors.groupingBy(
-                        Car::getYear,
-                        Collectors.averagingDouble(Car::getPrice)
-                ));
-        analysis.put("priceByYear", priceByYear);
         
-        // Price by location
-        Map<String, Double> priceByLocation = cars.stream()
-                .collect(Collectors.groupingBy(
-                        Car::getLocation,
-                        Collectors.averagingDouble(Car::getPrice)
-                ));
-        analysis.put("priceByLocation", priceByLocation);
+        // Basic statistics and price by year
+        if (results.has("priceByYear")) {
+            analysis.putAll(results.<Map<String, Object>>get("priceByYear"));
+        }
         
-        // Price distribution
-        List<Double> prices = cars.stream()
-                .map(Car::getPrice)
-                .sorted()
-                .collect(Collectors.toList());
+        // Price by location
+        if (results.has("priceByLocation")) {
+            analysis.put("priceByLocation", results.get("priceByLocation"));
+        }
         
-        if (!prices.isEmpty()) {
-            analysis.put("medianPrice", getMedian(prices));
-            analysis.put("priceDistribution", getPriceDistribution(prices));
+        // Price distribution; the median comes from the quantile sketch instead of sorting
+        if (results.has("priceDistribution")) {
+            long[] buckets = results.get("priceDistribution");
+            if (Arrays.stream(buckets).sum() > 0) {
+                analysis.put("priceDistribution", priceDistribution(buckets));
+            }
+        }
+        List<String> missing = new ArrayList<>(results.getMissing());
+        if (results.has("medianPrice")) {
+            PriceQuantiles.Percentiles percentiles = results.get("medianPrice");
+            if (!percentiles.isCurrent()) {
+                // The sketch still waits for its rebuild; a stale median must not be cached
+                missing.add("medianPrice");
+            } else if (percentiles.getCount() > 0) {
+                analysis.put("medianPrice", percentiles.getP50());
+            }
         }
         
+        if (!missing.isEmpty()) {
+            analysis.put("partial", true);
+            analysis.put("missing", missing);
+        }
         return analysis;
     }
     
-    // Get price trends for a specific car
-    public Map<String, Object> getPriceTrends(Long carId, int days) {
-        Map<String, Object> trends = new HashMap<>();
+    // Get price percentiles for a make/model, or one model year of it, from the quantile sketches
+    public Map<String, Object> getPricePercentiles(String make, String model, Integer year) {
+        PriceQuantiles.Percentiles percentiles = priceQuantiles.percentiles(make, model, year);
+        
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("make", make);
+        result.put("model", model);
+        if (year != null) {
+            result.put("year", year);
+        }
+        result.put("count", percentiles.getCount());
+        if (!percentiles.isCurrent()) {
+            // From the last build of the sketch; its rebuild is pending
+            result.put("stale", true);
+        }
+        if (percentiles.getCount() > 0) {
+            result.put("p10", percentiles.getP10());
+            result.put("p25", percentiles.getP25());
+            result.put("p50", percentiles.getP50());
+            result.put("p75", percentiles.getP75());
+            result.put("p90", percentiles.getP90());
+            result.put("iqr", percentiles.getIqr());
+        }
+        return result;
+    }
+    
+    // Get price trends for a specific car. Short windows read raw price_history with one query
+    // (no Car join) that returns the series and its statistics together; longer windows read
+    // the coarsest rollup that fits, one point per day or week. With maxPoints set, longer
+    // series are downsampled (largest triangle three buckets) to that many points; the change
+    // percentage and statistics always cover the full series.
+    public Map<String, Object> getPriceTrends(Long carId, int days, Integer maxPoints) {
+        if (maxPoints != null && maxPoints < 3) {
+            throw new IllegalArgumentException("maxPoints must be at least 3");
+        }
+        
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime startDate = now.minus(days, ChronoUnit.DAYS);
+        PriceRollupService.Resolution resolution = priceRollupService.resolutionFor(days);
+        TrendSeries series = new TrendSeries();
+        if (resolution == PriceRollupService.Resolution.RAW) {
+            jdbcTemplate.query(TRENDS_SQL, series, Timestamp.valueOf(now), carId, Timestamp.valueOf(startDate));
+        } else {
+            series.addBuckets(priceRollupService.carBuckets(carId, resolution, startDate), false);
+        }
+        return trends(series, resolution, maxPoints);
+    }
+    
+    // Get price trends for all listings of a make/model, from the daily or weekly rollups. Each
+    // point is the mean of the prices recorded in its bucket: the open and close of a model
+    // bucket are just the first and last price change of whichever cars changed then.
+    public Map<String, Object> getModelPriceTrends(String make, String model, int days, Integer maxPoints) {
+        if (maxPoints != null && maxPoints < 3) {
+            throw new IllegalArgumentException("maxPoints must be at least 3");
+        }
         
         LocalDateTime startDate = LocalDateTime.now().minus(days, ChronoUnit.DAYS);
-        List<PriceHistory> priceHistory = priceHistoryRepository.getPriceTrends(carId, startDate);
+        PriceRollupService.Resolution resolution = priceRollupService.resolutionFor(days);
+        if (resolution == PriceRollupService.Resolution.RAW) {
+            resolution = PriceRollupService.Resolution.DAY;
+        }
+        TrendSeries series = new TrendSeries();
+        series.addBuckets(priceRollupService.modelBuckets(make, model, resolution, startDate), true);
+        
+        Map<String, Object> trends = trends(series, resolution, maxPoints);
+        trends.put("make", make);
+        trends.put("model", model);
+        return trends;
+    }
+    
+    private Map<String, Object> trends(TrendSeries series, PriceRollupService.Resolution resolution, Integer maxPoints) {
+        Map<String, Object> trends = new HashMap<>();
+        trends.put("resolution", resolution.name().toLowerCase(Locale.ROOT));
         
-        if (!priceHistory.isEmpty()) {
+        if (series.size > 0) {
             // Price change over time
-            List<Map<String, Object>> trendData = priceHistory.stream()
-                    .map(ph -> {
-                        Map<String, Object> data = new HashMap<>();
-                        data.put("date", ph.getRecordedAt());
-                        data.put("price", ph.getPrice());
-                        return data;
-                    })
-                    .collect(Collectors.toList());
+            int[] kept = TrendDownsampler.lttb(series.times, series.prices, series.size,
+                    maxPoints != null ? maxPoints : series.size);
+            List<Map<String, Object>> trendData = new ArrayList<>(kept.length);
+            for (int index : kept) {
+                Map<String, Object> data = new HashMap<>();
+                data.put("date", series.recordedAt[index]);
+                data.put("price", series.prices[index]);
+                trendData.add(data);
+            }
             trends.put("trendData", trendData);
+            trends.put("totalPoints", series.size);
             
             // Price change percentage
-            double firstPrice = priceHistory.get(0).getPrice();
-            double lastPrice = priceHistory.get(priceHistory.size() - 1).getPrice();
+            double firstPrice = series.firstPrice;
+            double lastPrice = series.prices[series.size - 1];
             double changePercent = ((lastPrice - firstPrice) / firstPrice) * 100;
             trends.put("priceChangePercent", changePercent);
             
             // Volatility
-            double volatility = priceHistoryRepository.getPriceVolatility(carId, startDate);
-            trends.put("volatility", volatility);
+            trends.put("volatility", series.volatility);
             
             // Average price over period
-            double avgPrice = priceHistoryRepository.getAveragePriceOverPeriod(carId, startDate, LocalDateTime.now());
-            trends.put("averagePrice", avgPrice);
+            trends.put("averagePrice", series.averagePrice);
             
-            // Latest price
-            List<PriceHistory> latestPriceHistory = priceHistoryRepository.getLatestPriceHistory(carId);
-            if (!latestPriceHistory.isEmpty()) {
-                trends.put("latestPrice", latestPriceHistory.get(0).getPrice());
-            }
+            // Latest price: the series is ascending and reaches the newest record
+            trends.put("latestPrice", lastPrice);
         }
         
         return trends;
     }
     
-    // Get market insights
+    // Rows of TRENDS_SQL, or rollup buckets (one point per bucket, at its close or its mean),
+    // collected into primitive arrays
+    private static final class TrendSeries implements RowCallbackHandler {
+        private int size;
+        private double[] times = new double[64];
+        private double[] prices = new double[64];
+        private LocalDateTime[] recordedAt = new LocalDateTime[64];
+        private double firstPrice;
+        private double volatility;
+        private double averagePrice;
+        
+        @Override
+        public void processRow(ResultSet rs) throws SQLException {
+            Timestamp timestamp = rs.getTimestamp("recorded_at");
+            double price = rs.getDouble("price");
+            if (size == 0) {
+                // Window aggregates are the same on every row
+                firstPrice = price;
+                volatility = rs.getDouble("volatility");
+                averagePrice = rs.getDouble("average_price");
+            }
+            add(timestamp.toLocalDateTime(), timestamp.getTime(), price);
+        }
+        
+        // mean plots each bucket's mean price (first point included) instead of its open and close
+        void addBuckets(List<PriceRollupService.Bucket> buckets, boolean mean) {
+            long count = 0;
+            double sum = 0;
+            double sumOfSquares = 0;
+            for (PriceRollupService.Bucket bucket : buckets) {
+                double bucketMean = bucket.getSum() / bucket.getCount();
+                if (size == 0) {
+                    firstPrice = mean ? bucketMean : bucket.getOpen();
+                }
+                add(bucket.getStart(), Timestamp.valueOf(bucket.getStart()).getTime(), mean ? bucketMean : bucket.getClose());
+                count += bucket.getCount();
+                sum += bucket.getSum();
+                sumOfSquares += bucket.getSumOfSquares();
+            }
+            if (count > 0) {
+                averagePrice = sum / count;
+            }
+            if (count > 1) {
+                // Sample standard deviation, as stddev_samp over the raw rows
+                volatility = Math.sqrt(Math.max(0, (sumOfSquares - sum * sum / count) / (count - 1)));
+            }
+        }
+        
+        private void add(LocalDateTime at, double time, double price) {
+            if (size == times.length) {
+                times = Arrays.copyOf(times, size * 2);
+                prices = Arrays.copyOf(prices, size * 2);
+                recordedAt = Arrays.copyOf(recordedAt, size * 2);
+            }
+            times[size] = time;
+            prices[size] = price;
+            recordedAt[size] = at;
+            size++;
+        }
+    }
+    
+    // Get a price histogram for the whole market, optionally one per make, year or location.
+    // Buckets are either the given edges or a number of linear or logarithmic buckets; counts
+    // come from one pass over the in-memory price column.
+    public Map<String, Object> getPriceHistogram(List<Double> edges, Integer buckets, String scale,
+                                                 Double min, Double max, String groupBy) {
+        Map<String, Object> histogram = new LinkedHashMap<>();
+        double[] bucketEdges = histogramEdges(edges, buckets, scale, min, max);
+        histogram.put("edges", bucketEdges);
+        
+        if (groupBy == null || groupBy.isBlank()) {
+            histogram.putAll(histogramCounts(marketSnapshot.priceHistogram(bucketEdges)));
+            return histogram;
+        }
+        
+        Map<Object, Map<String, Object>> groups = new LinkedHashMap<>();
+        switch (groupBy.toLowerCase(Locale.ROOT)) {
+            case "make":
+                new TreeMap<>(marketSnapshot.priceHistogramBy(MarketSnapshot.Dimension.MAKE, bucketEdges))
+                        .forEach((make, slots) -> groups.put(make, histogramCounts(slots)));
+                break;
+            case "location":
+                new TreeMap<>(marketSnapshot.priceHistogramBy(MarketSnapshot.Dimension.LOCATION, bucketEdges))
+                        .forEach((location, slots) -> groups.put(location, histogramCounts(slots)));
+                break;
+            case "year":
+                marketSnapshot.priceHistogramByYear(bucketEdges)
+                        .forEach((year, slots) -> groups.put(year, histogramCounts(slots)));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown groupBy: " + groupBy);
+        }
+        histogram.put("groupBy", groupBy.toLowerCase(Locale.ROOT));
+        histogram.put("groups", groups);
+        return histogram;
+    }
+    
+    // Get market insights, read from the live aggregates
     public Map<String, Object> getMarketInsights() {
         Map<String, Object> insights = new HashMap<>();
         
-        List<Car> allCars = carRepository.findAll();
-        
         // Price trends by make
-        Map<String, Double> avgPriceByMake = allCars.stream()
-                .collect(Collectors.groupingBy(
-                        Car::getMake,
-                        Collectors.averagingDouble(Car::getPrice)
-                ));
+        Map<String, Double> avgPriceByMake = marketAggregates.averagePriceBy(MarketSnapshot.Dimension.MAKE);
         
         // Find makes with highest and lowest average prices
         Map.Entry<String, Double> mostExpensiveMake = avgPriceByMake.entrySet().stream()
@@ -181,55 +437,85 @@ public class AnalyticsService {
         insights.put("leastExpensiveMake", leastExpensiveMake);
         
         // Fuel type distribution
-        Map<String, Long> fuelTypeDistribution = allCars.stream()
-                .collect(Collectors.groupingBy(Car::getFuelType, Collectors.counting()));
-        insights.put("fuelTypeDistribution", fuelTypeDistribution);
+        insights.put("fuelTypeDistribution", marketAggregates.countBy(MarketSnapshot.Dimension.FUEL_TYPE));
         
         // Transmission distribution
-        Map<String, Long> transmissionDistribution = allCars.stream()
-                .collect(Collectors.groupingBy(Car::getTransmission, Collectors.counting()));
-        insights.put("transmissionDistribution", transmissionDistribution);
+        insights.put("transmissionDistribution", marketAggregates.countBy(MarketSnapshot.Dimension.TRANSMISSION));
         
         // Safety rating analysis
-        double avgSafetyRating = allCars.stream()
-                .mapToDouble(Car::getSafetyRating)
-                .average()
-                .orElse(0.0);
-        insights.put("averageSafetyRating", avgSafetyRating);
+        insights.put("averageSafetyRating", marketAggregates.averageSafetyRating());
         
         return insights;
     }
     
-    // Helper method to calculate median
-    private double getMedian(List<Double> values) {
-        if (values.isEmpty()) return 0.0;
+    // Percentage of listings in each 25k price bucket, from the bucket counts
+    private static Map<String, Double> priceDistribution(long[] counts) {
+        double total = Arrays.stream(counts).sum();
+        Map<String, Double> distribution = new HashMap<>();
+        distribution.put("under25k", counts[0] * 100.0 / total);
+        distribution.put("25k-50k", counts[1] * 100.0 / total);
+        distribution.put("50k-75k", counts[2] * 100.0 / total);
+        distribution.put("75k-100k", counts[3] * 100.0 / total);
+        distribution.put("over100k", counts[4] * 100.0 / total);
+        return distribution;
+    }
+    
+    // Bucket edges for a histogram: the given edges, or a number of linear or logarithmic
+    // buckets between min and max (defaulting to the market's price range)
+    private double[] histogramEdges(List<Double> edges, Integer buckets, String scale, Double min, Double max) {
+        if (edges != null && !edges.isEmpty()) {
+            if (edges.size() < 2 || edges.size() > MAX_HISTOGRAM_BUCKETS + 1) {
+                throw new IllegalArgumentException("Between 2 and " + (MAX_HISTOGRAM_BUCKETS + 1) + " edges are required");
+            }
+            double[] result = new double[edges.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = edges.get(i);
+                if (Double.isNaN(result[i]) || (i > 0 && result[i] <= result[i - 1])) {
+                    throw new IllegalArgumentException("Edges must be increasing numbers");
+                }
+            }
+            return result;
+        }
         
-        Collections.sort(values);
-        int size = values.size();
+        int count = buckets != null ? buckets : DEFAULT_HISTOGRAM_BUCKETS;
+        if (count < 1 || count > MAX_HISTOGRAM_BUCKETS) {
+            throw new IllegalArgumentException("Bucket count must be between 1 and " + MAX_HISTOGRAM_BUCKETS);
+        }
+        MarketAggregates.PriceStats overall = marketAggregates.overall();
+        double from = min != null ? min : overall.getMin();
+        double to = max != null ? max : overall.getMax();
+        if (to <= from) {
+            to = from + 1;
+        }
         
-        if (size % 2 == 0) {
-            return (values.get(size / 2 - 1) + values.get(size / 2)) / 2.0;
+        double[] result = new double[count + 1];
+        if ("log".equalsIgnoreCase(scale)) {
+            if (from <= 0) {
+                throw new IllegalArgumentException("Logarithmic buckets need a positive minimum");
+            }
+            double logFrom = Math.log(from);
+            double step = (Math.log(to) - logFrom) / count;
+            for (int i = 0; i < count; i++) {
+                result[i] = Math.exp(logFrom + i * step);
+            }
+        } else if (scale == null || "linear".equalsIgnoreCase(scale)) {
+            double step = (to - from) / count;
+            for (int i = 0; i < count; i++) {
+                result[i] = from + i * step;
+            }
         } else {
-            return values.get(size / 2);
+            throw new IllegalArgumentException("Unknown scale: " + scale);
         }
+        result[0] = from;
+        result[count] = to;
+        return result;
     }
     
-    // Helper method to get price distribution
-    private Map<String, Double> getPriceDistribution(List<Double> prices) {
-        if (prices.isEmpty()) return new HashMap<>();
-        
-        double min = prices.get(0);
-        double max = prices.get(prices.size() - 1);
-        double range = max - min;
-        
-        // Create price buckets
-        Map<String, Double> distribution = new HashMap<>();
-        distribution.put("under25k", prices.stream().filter(p -> p < 25000).count() * 100.0 / prices.size());
-        distribution.put("25k-50k", prices.stream().filter(p -> p >= 25000 && p < 50000).count() * 100.0 / prices.size());
-        distribution.put("50k-75k", prices.stream().filter(p -> p >= 50000 && p < 75000).count() * 100.0 / prices.size());
-        distribution.put("75k-100k", prices.stream().filter(p -> p >= 75000 && p < 100000).count() * 100.0 / prices.size());
-        distribution.put("over100k", prices.stream().filter(p -> p >= 100000).count() * 100.0 / prices.size());
-        
-        return distribution;
+    private static Map<String, Object> histogramCounts(long[] slots) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("counts", Arrays.copyOfRange(slots, 1, slots.length - 1));
+        result.put("below", slots[0]);
+        result.put("above", slots[slots.length - 1]);
+        return result;
     }
 }
@@ -0,0 +1,284 @@
+package com.carmarket.analyzer.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Typeahead over the distinct makes, models and locations, held in memory and kept current
+// by car writes. A query first matches values having a word that starts with it, from a
+// sorted map of word starts (a prefix trie in map form); if that leaves room, values
+// sharing enough trigrams with the query follow, so "camery" still finds "Camry". Matches
+// are ranked by their number of listings. Values are compared lowercased, with anything
+// but letters, digits and spaces dropped.
+@Service
+public class AutocompleteIndex implements CarChangeListener {
+
+    public static final int DEFAULT_LIMIT = 10;
+    public static final int MAX_LIMIT = 50;
+
+    // Least trigram similarity (shared / all distinct trigrams) for a fuzzy match, as pg_trgm
+    private static final double MIN_SIMILARITY = 0.3;
+
+    public enum Field { MAKE, MODEL, LOCATION }
+
+    @Autowired
+    private MarketSnapshot marketSnapshot;
+
+    @Autowired
+    private CarWriteGate carWriteGate;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile boolean loaded;
+    private final EnumMap<Field, Values> fields = new EnumMap<>(Field.class);
+
+    public AutocompleteIndex() {
+        for (Field field : Field.values()) {
+            fields.put(field, new Values());
+        }
+    }
+
+    @Override
+    public void onCarChanged(CarState previous, CarState current) {
+        // Not loaded yet: the pending seed will include this write
+        if (!loaded) return;
+        if (previous != null && Objects.equals(previous.getMake(), current.getMake())
+                && Objects.equals(previous.getModel(), current.getModel())
+                && Objects.equals(previous.getLocation(), current.getLocation())) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            if (previous != null) {
+                apply(previous, -1);
+            }
+            apply(current, 1);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void onCarsReloaded() {
+        loaded = false;
+    }
+
+    // Up to limit suggestions for what has been typed so far; an empty query lists the most
+    // common values. make, when set, restricts model suggestions to that make.
+    public List<Suggestion> suggest(Field field, String query, String make, int limit) {
+        if (limit < 1 || limit > MAX_LIMIT) {
+            throw new IllegalArgumentException("limit must be between 1 and " + MAX_LIMIT);
+        }
+        ensureLoaded();
+        String scope = field == Field.MODEL && make != null && !make.isBlank() ? make : null;
+        lock.readLock().lock();
+        try {
+            return fields.get(field).suggest(normalize(query), scope, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void apply(CarState car, int delta) {
+        fields.get(Field.MAKE).add(car.getMake(), null, delta);
+        fields.get(Field.MODEL).add(car.getModel(), car.getMake(), delta);
+        fields.get(Field.LOCATION).add(car.getLocation(), null, delta);
+    }
+
+    private void ensureLoaded() {
+        if (loaded) return;
+        carWriteGate.exclusive(() -> {
+            if (loaded) return;
+            lock.writeLock().lock();
+            try {
+                fields.values().forEach(Values::clear);
+                marketSnapshot.forEachRow(car -> apply(car, 1));
+                loaded = true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    static String normalize(String value) {
+        if (value == null) return "";
+        StringBuilder normalized = new StringBuilder(value.length());
+        boolean space = false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = Character.toLowerCase(value.charAt(i));
+            if (Character.isLetterOrDigit(c)) {
+                if (space && normalized.length() > 0) {
+                    normalized.append(' ');
+                }
+                normalized.append(c);
+                space = false;
+            } else if (Character.isWhitespace(c) || c == '-' || c == '/') {
+                space = true;
+            }
+        }
+        return normalized.toString();
+    }
+
+    // Trigrams of each word, padded as pg_trgm does ("  ca", " cam", ..., "ry ")
+    static Set<String> trigrams(String normalized) {
+        Set<String> trigrams = new HashSet<>();
+        for (String word : normalized.split(" ")) {
+            if (word.isEmpty()) continue;
+            String padded = "  " + word + " ";
+            for (int i = 0; i + 3 <= padded.length(); i++) {
+                trigrams.add(padded.substring(i, i + 3));
+            }
+        }
+        return trigrams;
+    }
+
+    // Distinct values of one field with their listing counts; guarded by the index lock
+    private static final class Values {
+        private final Map<String, Entry> byValue = new HashMap<>();
+        // Normalized value from each word start -> values; "new york" and "york" for New York
+        private final TreeMap<String, Set<Entry>> wordStarts = new TreeMap<>();
+        private final Map<String, Set<Entry>> byTrigram = new HashMap<>();
+
+        void add(String value, String make, int delta) {
+            if (value == null || value.isBlank()) return;
+            Entry entry = byValue.get(value);
+            if (entry == null) {
+                if (delta < 0) return;
+                entry = new Entry(value);
+                byValue.put(value, entry);
+                for (String key : entry.wordStarts()) {
+                    wordStarts.computeIfAbsent(key, k -> new HashSet<>()).add(entry);
+                }
+                for (String trigram : entry.trigrams) {
+                    byTrigram.computeIfAbsent(trigram, t -> new HashSet<>()).add(entry);
+                }
+            }
+            entry.count += delta;
+            if (make != null) {
+                entry.countByMake.merge(make, (long) delta, Long::sum);
+                entry.countByMake.remove(make, 0L);
+            }
+            if (entry.count <= 0) {
+                byValue.remove(value);
+                for (String key : entry.wordStarts()) {
+                    removeFrom(wordStarts, key, entry);
+                }
+                for (String trigram : entry.trigrams) {
+                    removeFrom(byTrigram, trigram, entry);
+                }
+            }
+        }
+
+        List<Suggestion> suggest(String query, String make, int limit) {
+            List<Suggestion> suggestions = new ArrayList<>(limit);
+            Set<Entry> prefixMatches = new HashSet<>();
+            Collection<Set<Entry>> candidates = query.isEmpty()
+                    ? Collections.singleton(new HashSet<>(byValue.values()))
+                    : wordStarts.subMap(query, true, query + Character.MAX_VALUE, true).values();
+            candidates.forEach(prefixMatches::addAll);
+            prefixMatches.stream()
+                    .filter(entry -> entry.countFor(make) > 0)
+                    .sorted(Comparator.comparingLong((Entry entry) -> entry.countFor(make)).reversed()
+                            .thenComparing(entry -> entry.value))
+                    .limit(limit)
+                    .forEach(entry -> suggestions.add(new Suggestion(entry.value, entry.countFor(make), "prefix")));
+            if (suggestions.size() >= limit || query.isEmpty()) {
+                return suggestions;
+            }
+
+            // Fill up with values sharing enough trigrams with the query
+            Set<String> queryTrigrams = trigrams(query);
+            Map<Entry, Integer> shared = new HashMap<>();
+            for (String trigram : queryTrigrams) {
+                for (Entry entry : byTrigram.getOrDefault(trigram, Collections.emptySet())) {
+                    shared.merge(entry, 1, Integer::sum);
+                }
+            }
+            List<Map.Entry<Entry, Double>> fuzzy = new ArrayList<>();
+            shared.forEach((entry, count) -> {
+                if (prefixMatches.contains(entry) || entry.countFor(make) <= 0) return;
+                double similarity = (double) count / (queryTrigrams.size() + entry.trigrams.size() - count);
+                if (similarity >= MIN_SIMILARITY) {
+                    fuzzy.add(new AbstractMap.SimpleImmutableEntry<>(entry, similarity));
+                }
+            });
+            fuzzy.sort(Map.Entry.<Entry, Double>comparingByValue().reversed()
+                    .thenComparing(match -> -match.getKey().countFor(make)));
+            for (Map.Entry<Entry, Double> match : fuzzy) {
+                if (suggestions.size() >= limit) break;
+                Entry entry = match.getKey();
+                suggestions.add(new Suggestion(entry.value, entry.countFor(make), "fuzzy"));
+            }
+            return suggestions;
+        }
+
+        void clear() {
+            byValue.clear();
+            wordStarts.clear();
+            byTrigram.clear();
+        }
+
+        private static <K> void removeFrom(Map<K, Set<Entry>> index, K key, Entry entry) {
+            Set<Entry> entries = index.get(key);
+            if (entries != null && entries.remove(entry) && entries.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+
+    private static final class Entry {
+        private final String value;
+        private final String normalized;
+        private final Set<String> trigrams;
+        private long count;
+        // Models only: listings per make
+        private final Map<String, Long> countByMake = new HashMap<>();
+
+        Entry(String value) {
+            this.value = value;
+            this.normalized = normalize(value);
+            this.trigrams = trigrams(normalized);
+        }
+
+        List<String> wordStarts() {
+            List<String> keys = new ArrayList<>();
+            if (normalized.isEmpty()) return keys;
+            keys.add(normalized);
+            for (int i = normalized.indexOf(' '); i >= 0; i = normalized.indexOf(' ', i + 1)) {
+                keys.add(normalized.substring(i + 1));
+            }
+            return keys;
+        }
+
+        long countFor(String make) {
+            return make != null ? countByMake.getOrDefault(make, 0L) : count;
+        }
+    }
+
+    public static final class Suggestion {
+        private final String value;
+        private final long count;
+        private final String match;
+
+        Suggestion(String value, long count, String match) {
+            this.value = value;
+            this.count = count;
+            this.match = match;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        // Listings with this value (of the given make, for models)
+        public long getCount() {
+            return count;
+        }
+
+        // "prefix" or "fuzzy"
+        public String getMatch() {
+            return match;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.carmarket.analyzer.service;
+
+import com.carmarket.analyzer.dto.BulkPriceUpdateResponse;
+import com.carmarket.analyzer.dto.BulkPriceUpdateResponse.ItemResult;
+import com.carmarket.analyzer.dto.PriceUpdateRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.stream.Collectors;
+
+// Applies large batches of dealer price changes. Updates are taken from an iterator
+// (so a streamed request body is never held in memory as a whole) and applied in
+// chunks, one transaction per chunk, with JDBC batch statements for the car price
+// updates and the price_history inserts.
+@Service
+public class BulkPriceUpdateService {
+
+    private static final int CHUNK_SIZE = 1000;
+    // Locks the chunk's cars until commit, so a concurrent single write waits for this chunk
+    // (and this chunk for it) instead of both reading the same previous state
+    private static final String SELECT_CARS_SQL =
+            "SELECT " + CarStateRowMapper.COLUMNS + " FROM cars WHERE id IN (:ids) ORDER BY id FOR UPDATE";
+    // A car's price only moves to an observation at least as recent as its whole history, so
+    // a late or replayed update is recorded in price_history but leaves the price alone
+    private static final String UPDATE_PRICE_SQL =
+            "UPDATE cars SET price = ? WHERE id = ? AND NOT EXISTS " +
+            "(SELECT 1 FROM price_history WHERE car_id = ? AND recorded_at > ?)";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private List<CarChangeListener> carChangeListeners;
+
+    @Autowired
+    private DataVersion dataVersion;
+
+    @Autowired
+    private CarWriteGate carWriteGate;
+
+    // Apply every update; a failing chunk rolls back only itself and aborts the rest
+    public BulkPriceUpdateResponse applyAll(Iterator<PriceUpdateRequest> updates) {
+        long start = System.nanoTime();
+        List<ItemResult> results = new ArrayList<>();
+        List<PriceUpdateRequest> chunk = new ArrayList<>(CHUNK_SIZE);
+        while (updates.hasNext()) {
+            chunk.add(updates.next());
+            if (chunk.size() == CHUNK_SIZE) {
+                results.addAll(applyChunk(chunk));
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            results.addAll(applyChunk(chunk));
+        }
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        return new BulkPriceUpdateResponse(results, elapsedMillis);
+    }
+
+    private List<ItemResult> applyChunk(List<PriceUpdateRequest> chunk) {
+        Set<Long> ids = chunk.stream()
+                .filter(BulkPriceUpdateService::isValid)
+                .map(PriceUpdateRequest::getCarId)
+                .collect(Collectors.toSet());
+        // Held until the listeners have run, so they get each car's changes in commit order
+        return carWriteGate.write(ids, () -> {
+            Map<Long, CarState> previous = new HashMap<>();
+            Map<Long, PriceUpdateRequest> latest = new HashMap<>();
+            List<PriceUpdateRequest> applied = new ArrayList<>();
+
+            TransactionTemplate tx = new TransactionTemplate(transactionManager);
+            List<ItemResult> results = tx.execute(status -> {
+                if (!ids.isEmpty()) {
+                    namedParameterJdbcTemplate.query(SELECT_CARS_SQL, Map.of("ids", ids), CarStateRowMapper.INSTANCE)
+                            .forEach(car -> previous.put(car.getId(), car));
+                }
+
+                LocalDateTime now = LocalDateTime.now();
+                List<ItemResult> chunkResults = new ArrayList<>(chunk.size());
+                List<Object[]> historyRows = new ArrayList<>(chunk.size());
+                for (PriceUpdateRequest update : chunk) {
+                    if (!isValid(update)) {
+                        chunkResults.add(new ItemResult(update.getCarId(), update.getPrice(), ItemResult.Status.INVALID));
+                        continue;
+                    }
+                    if (!previous.containsKey(update.getCarId())) {
+                        chunkResults.add(new ItemResult(update.getCarId(), update.getPrice(), ItemResult.Status.NOT_FOUND));
+                        continue;
+                    }
+                    if (update.getRecordedAt() == null) {
+                        update.setRecordedAt(now);
+                    }
+                    historyRows.add(new Object[]{update.getCarId(), update.getPrice(), Timestamp.valueOf(update.getRecordedAt())});
+                    // The most recent observation becomes the car's current price
+                    latest.merge(update.getCarId(), update,
+                            (a, b) -> b.getRecordedAt().isBefore(a.getRecordedAt()) ? a : b);
+                    chunkResults.add(new ItemResult(update.getCarId(), update.getPrice(), ItemResult.Status.UPDATED));
+                }
+
+                // Before this chunk's history rows are inserted, so the check sees earlier writes only
+                List<PriceUpdateRequest> updates = new ArrayList<>(latest.values());
+                List<Object[]> priceRows = updates.stream()
+                        .map(update -> new Object[]{update.getPrice(), update.getCarId(), update.getCarId(),
+                                Timestamp.valueOf(update.getRecordedAt())})
+                        .collect(Collectors.toList());
+                int[] updated = jdbcTemplate.batchUpdate(UPDATE_PRICE_SQL, priceRows);
+                for (int i = 0; i < updates.size(); i++) {
+                    if (updated[i] != 0) {
+                        applied.add(updates.get(i));
+                    }
+                }
+                PriceHistoryInserts.insert(jdbcTemplate, historyRows);
+                return chunkResults;
+            });
+
+            // Committed: bring in-memory indexes and aggregates up to date
+            for (PriceUpdateRequest update : applied) {
+                CarState before = previous.get(update.getCarId());
+                CarState after = before.withPrice(update.getPrice());
+                for (CarChangeListener listener : carChangeListeners) {
+                    listener.onCarChanged(before, after);
+                }
+                dataVersion.carChanged(before, after);
+            }
+            return results;
+        });
+    }
+
+    private static boolean isValid(PriceUpdateRequest update) {
+        return update.getCarId() != null
+                && update.getPrice() != null
+                && Double.isFinite(update.getPrice())
+                && update.getPrice() > 0;
+    }
+}
@@ -0,0 +1,16 @@
+package com.carmarket.analyzer.service;
+
+// Notified by CarService after a car write has been saved.
+// Implementations must be cheap and thread-safe; they run on the request thread.
+// Listeners are injected as a list and called in @Order: MarketSnapshot first, then
+// PriceQuantiles, then the unordered rest (including PriceAnalysisCache, which must see
+// the quantile groups already marked dirty).
+public interface CarChangeListener {
+
+    // previous is null for a newly inserted car
+    void onCarChanged(CarState previous, CarState current);
+
+    // Called after writes that bypassed CarService (bulk loads); in-memory state should be rebuilt
+    default void onCarsReloaded() {
+    }
+}
@@ -0,0 +1,65 @@
+package com.carmarket.analyzer.service;
+
+import com.carmarket.analyzer.dto.CarSearchRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// SQL conditions (each starting with " AND ") for the filters a request sets; blank
+// strings count as not set, as in CarSpecifications. When the only filter is one value
+// of a dimension kept in MarketAggregates, that dimension and value are noted too.
+final class CarFilter {
+    final StringBuilder sql = new StringBuilder();
+    final List<Object> args = new ArrayList<>();
+    private final String alias;
+    private int conditions;
+    MarketSnapshot.Dimension aggregated;
+    String aggregatedValue;
+
+    CarFilter(CarSearchRequest filter) {
+        this(filter, "");
+    }
+
+    // alias prefixes the cars columns, e.g. "c." when cars is joined to other tables
+    CarFilter(CarSearchRequest filter, String alias) {
+        this.alias = alias;
+        if (filter == null) return;
+        equalTo(MarketSnapshot.Dimension.MAKE, "make", filter.getMake());
+        equalTo(MarketSnapshot.Dimension.MODEL, "model", filter.getModel());
+        equalTo(MarketSnapshot.Dimension.LOCATION, "location", filter.getLocation());
+        equalTo(MarketSnapshot.Dimension.FUEL_TYPE, "fuel_type", filter.getFuelType());
+        equalTo(MarketSnapshot.Dimension.TRANSMISSION, "transmission", filter.getTransmission());
+        compare("year", ">=", filter.getYearFrom());
+        compare("year", "<=", filter.getYearTo());
+        compare("price", ">=", filter.getPriceFrom());
+        compare("price", "<=", filter.getPriceTo());
+        compare("mileage", ">=", filter.getMileageFrom());
+        compare("mileage", "<=", filter.getMileageTo());
+        if (conditions != 1 || !MarketAggregates.DIMENSIONS.contains(aggregated)) {
+            aggregated = null;
+            aggregatedValue = null;
+        }
+    }
+
+    boolean isEmpty() {
+        return conditions == 0;
+    }
+
+    private void equalTo(MarketSnapshot.Dimension dimension, String column, String value) {
+        if (value == null || value.isBlank()) return;
+        add(column + " = ?", value);
+        aggregated = dimension;
+        aggregatedValue = value;
+    }
+
+    private void compare(String column, String operator, Object value) {
+        if (value == null) return;
+        add(column + " " + operator + " ?", value);
+    }
+
+    private void add(String condition, Object value) {
+        sql.append(" AND ").append(alias).append(condition);
+        args.add(value);
+        conditions++;
+    }
+}
@@ -0,0 +1,237 @@
+package com.carmarket.analyzer.service;
+
+import com.carmarket.analyzer.dto.CarSummary;
+import com.carmarket.analyzer.dto.CarSearchRequest;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.PreparedStatement;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// In-process search engine for CarSearchRequest. Keeps a compressed bitmap of row numbers
+// per make, model, location, fuel type and transmission value, and bucketed range indexes
+// for year, price and mileage; a search is the intersection of the bitmaps for the filters
+// that are set. Enabled with carmarket.search.index.enabled=true, in which case
+// CarService.searchCars is answered here instead of by the database.
+@Service
+@ConditionalOnProperty(name = "carmarket.search.index.enabled", havingValue = "true")
+public class CarSearchIndex implements CarChangeListener {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int FETCH_SIZE = 10000;
+    private static final String LOAD_SQL = "SELECT " + CarStateRowMapper.COLUMNS + " FROM cars";
+
+    private enum Field { MAKE, MODEL, LOCATION, FUEL_TYPE, TRANSMISSION }
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile boolean loaded;
+
+    // Row number -> stored listing; row numbers are the bitmap positions
+    private CarState[] rows = new CarState[INITIAL_CAPACITY];
+    private int size;
+    private final Map<Long, Integer> rowById = new HashMap<>();
+    private final RoaringBitmap allRows = new RoaringBitmap();
+    private final EnumMap<Field, Map<String, RoaringBitmap>> valueBitmaps = new EnumMap<>(Field.class);
+    private final RangeIndex years = new RangeIndex(1);
+    private final RangeIndex prices = new RangeIndex(1000);
+    private final RangeIndex mileages = new RangeIndex(5000);
+
+    public CarSearchIndex() {
+        for (Field field : Field.values()) {
+            valueBitmaps.put(field, new HashMap<>());
+        }
+    }
+
+    @Override
+    public void onCarChanged(CarState previous, CarState current) {
+        lock.writeLock().lock();
+        try {
+            // Not loaded yet: the pending load will read the committed row
+            if (loaded) {
+                upsert(current);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void onCarsReloaded() {
+        lock.writeLock().lock();
+        try {
+            loaded = false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Same semantics as the database search: only the filters that are set apply,
+    // and blank strings count as not set
+    public List<CarSummary> search(CarSearchRequest request) {
+        ensureLoaded();
+        lock.readLock().lock();
+        try {
+            List<RoaringBitmap> filters = new ArrayList<>();
+            addValueFilter(filters, Field.MAKE, request.getMake());
+            addValueFilter(filters, Field.MODEL, request.getModel());
+            addValueFilter(filters, Field.LOCATION, request.getLocation());
+            addValueFilter(filters, Field.FUEL_TYPE, request.getFuelType());
+            addValueFilter(filters, Field.TRANSMISSION, request.getTransmission());
+            if (request.getYearFrom() != null || request.getYearTo() != null) {
+                filters.add(years.between(toDouble(request.getYearFrom()), toDouble(request.getYearTo()),
+                        row -> rows[row].getYear()));
+            }
+            if (request.getPriceFrom() != null || request.getPriceTo() != null) {
+                filters.add(prices.between(request.getPriceFrom(), request.getPriceTo(),
+                        row -> rows[row].getPrice()));
+            }
+            if (request.getMileageFrom() != null || request.getMileageTo() != null) {
+                filters.add(mileages.between(request.getMileageFrom(), request.getMileageTo(),
+                        row -> rows[row].getMileage()));
+            }
+
+            // Intersect the most selective bitmaps first so the intermediate result stays small
+            filters.sort(Comparator.comparingInt(RoaringBitmap::getCardinality));
+            RoaringBitmap matches = filters.isEmpty() ? allRows.clone() : filters.get(0).clone();
+            for (int i = 1; i < filters.size() && !matches.isEmpty(); i++) {
+                matches.and(filters.get(i));
+            }
+
+            List<CarSummary> results = new ArrayList<>(matches.getCardinality());
+            matches.forEach((int row) -> results.add(toSummary(rows[row])));
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void addValueFilter(List<RoaringBitmap> filters, Field field, String value) {
+        if (value == null || value.isBlank()) return;
+        RoaringBitmap bitmap = valueBitmaps.get(field).get(value);
+        filters.add(bitmap != null ? bitmap : new RoaringBitmap());
+    }
+
+    private void ensureLoaded() {
+        if (loaded) return;
+        lock.writeLock().lock();
+        try {
+            if (!loaded) {
+                load();
+                loaded = true;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Must hold the write lock
+    private void load() {
+        rows = new CarState[INITIAL_CAPACITY];
+        size = 0;
+        rowById.clear();
+        allRows.clear();
+        valueBitmaps.values().forEach(Map::clear);
+        years.clear();
+        prices.clear();
+        mileages.clear();
+
+        // Read-only transaction so the driver streams rows with a cursor instead of buffering them
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        tx.setReadOnly(true);
+        tx.executeWithoutResult(status -> jdbcTemplate.query(con -> {
+            PreparedStatement statement = con.prepareStatement(LOAD_SQL);
+            statement.setFetchSize(FETCH_SIZE);
+            return statement;
+        }, (RowCallbackHandler) rs -> upsert(CarStateRowMapper.INSTANCE.mapRow(rs, 0))));
+    }
+
+    // Must hold the write lock
+    private void upsert(CarState car) {
+        Integer existing = rowById.get(car.getId());
+        int row;
+        if (existing != null) {
+            row = existing;
+            unindex(row, rows[row]);
+        } else {
+            if (size == rows.length) {
+                rows = Arrays.copyOf(rows, size + (size >> 1));
+            }
+            row = size++;
+            rowById.put(car.getId(), row);
+            allRows.add(row);
+        }
+        rows[row] = car;
+        index(row, car);
+    }
+
+    private void index(int row, CarState car) {
+        addValue(Field.MAKE, car.getMake(), row);
+        addValue(Field.MODEL, car.getModel(), row);
+        addValue(Field.LOCATION, car.getLocation(), row);
+        addValue(Field.FUEL_TYPE, car.getFuelType(), row);
+        addValue(Field.TRANSMISSION, car.getTransmission(), row);
+        years.add(row, car.getYear());
+        prices.add(row, car.getPrice());
+        mileages.add(row, car.getMileage());
+    }
+
+    private void unindex(int row, CarState car) {
+        removeValue(Field.MAKE, car.getMake(), row);
+        removeValue(Field.MODEL, car.getModel(), row);
+        removeValue(Field.LOCATION, car.getLocation(), row);
+        removeValue(Field.FUEL_TYPE, car.getFuelType(), row);
+        removeValue(Field.TRANSMISSION, car.getTransmission(), row);
+        years.remove(row, car.getYear());
+        prices.remove(row, car.getPrice());
+        mileages.remove(row, car.getMileage());
+    }
+
+    private void addValue(Field field, String value, int row) {
+        if (value == null) return;
+        valueBitmaps.get(field).computeIfAbsent(value, v -> new RoaringBitmap()).add(row);
+    }
+
+    private void removeValue(Field field, String value, int row) {
+        if (value == null) return;
+        RoaringBitmap bitmap = valueBitmaps.get(field).get(value);
+        if (bitmap != null) {
+            bitmap.remove(row);
+            if (bitmap.isEmpty()) {
+                valueBitmaps.get(field).remove(value);
+            }
+        }
+    }
+
+    private static Double toDouble(Integer value) {
+        return value != null ? value.doubleValue() : null;
+    }
+
+    private static CarSummary toSummary(CarState car) {
+        return new CarSummary(
+                car.getId(),
+                car.getMake(),
+                car.getModel(),
+                car.getYear(),
+                car.getLocation(),
+                car.getPrice(),
+                car.getEngineSpecs(),
+                car.getFuelType(),
+                car.getTransmission(),
+                car.getMileage(),
+                car.getSafetyRating()
+        );
+    }
+}
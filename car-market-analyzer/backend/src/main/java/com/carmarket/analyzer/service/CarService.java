@@ -1,46 +1,100 @@
 package com.carmarket.analyzer.service;
 
+import com.carmarket.analyzer.dto.CarPage;
 import com.carmarket.analyzer.dto.CarResponse;
 import com.carmarket.analyzer.dto.CarSearchRequest;
+import com.carmarket.analyzer.dto.CarSummary;
 import com.carmarket.analyzer.model.Car;
 import com.carmarket.analyzer.model.PriceHistory;
 import com.carmarket.analyzer.repository.CarRepository;
+import com.carmarket.analyzer.repository.CarSpecifications;
 import com.carmarket.analyzer.repository.PriceHistoryRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.time.LocalDateTime;
-import java.util.List;
-import java.util.stream.Collectors;
+import java.util.*;
+import java.util.concurrent.Callable;
 
 @Service
 public class CarService {
     
+    public static final int DEFAULT_PAGE_SIZE = 50;
+    public static final int MAX_PAGE_SIZE = 200;
+    
+    private static final int STREAM_FETCH_SIZE = 500;
+    private static final String STREAM_SQL =
+            "SELECT id, make, model, year, location, price, engine_specs, fuel_type, transmission, " +
+            "mileage, safety_rating, created_at FROM cars ORDER BY id";
+    
+    public static final int DEFAULT_RELATED_CARS = 3;
+    public static final int MAX_RELATED_CARS = 20;
+    private static final int DETAILS_TREND_DAYS = 90;
+    private static final int DETAILS_TREND_POINTS = 200;
+    
+    // Other listings of the same make/model, closest in year and then in price; the
+    // make/model comes from the car itself, so this needs only its id
+    private static final String RELATED_SQL =
+            "SELECT c.id, c.make, c.model, c.year, c.location, c.price, c.engine_specs, c.fuel_type, " +
+            "c.transmission, c.mileage, c.safety_rating " +
+            "FROM cars t JOIN cars c ON c.make = t.make AND c.model = t.model AND c.id <> t.id " +
+            "WHERE t.id = ? ORDER BY abs(c.year - t.year), abs(c.price - t.price), c.id LIMIT ?";
+    
     @Autowired
     private CarRepository carRepository;
     
     @Autowired
     private PriceHistoryRepository priceHistoryRepository;
     
+    @Autowired
+    private List<CarChangeListener> carChangeListeners;
+    
+    @Autowired
+    private CarWriteGate carWriteGate;
+    
+    @Autowired
+    private DataVersion dataVersion;
+    
+    @Autowired
+    private AnalyticsService analyticsService;
+    
+    @Autowired
+    private AnalyticsExecutor analyticsExecutor;
+    
+    // Present only when carmarket.search.index.enabled=true
+    @Autowired(required = false)
+    private CarSearchIndex carSearchIndex;
+    
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    
+    @Autowired
+    private ObjectMapper objectMapper;
+    
     // Search cars by criteria
-    public List<CarResponse> searchCars(CarSearchRequest request) {
-        List<Car> cars = carRepository.findCarsByCriteria(
-                request.getMake(),
-                request.getModel(),
-                request.getYearFrom(),
-                request.getYearTo(),
-                request.getLocation(),
-                request.getPriceFrom(),
-                request.getPriceTo(),
-                request.getFuelType(),
-                request.getTransmission(),
-                request.getMileageFrom(),
-                request.getMileageTo()
-        );
+    public List<CarSummary> searchCars(CarSearchRequest request) {
+        if (carSearchIndex != null) {
+            return carSearchIndex.search(request);
+        }
         
-        return cars.stream()
-                .map(this::convertToResponse)
-                .collect(Collectors.toList());
+        return carRepository.findSummaries(CarSpecifications.matching(request));
     }
     
     // Get car by ID
@@ -50,38 +104,108 @@ public class CarService {
         return convertToResponse(car);
     }
     
-    // Get all cars
-    public List<CarResponse> getAllCars() {
-        return carRepository.findAll().stream()
-                .map(this::convertToResponse)
-                .collect(Collectors.toList());
+    // Everything the car details page shows: the car, its 90-day price trend (at most 200
+    // points) and up to relatedLimit similar listings. The three parts only need the id, so
+    // they are fetched concurrently; a trend or related list that misses the deadline is
+    // left out and listed under "missing".
+    public Map<String, Object> getCarDetails(Long id, int relatedLimit) {
+        if (relatedLimit < 0 || relatedLimit > MAX_RELATED_CARS) {
+            throw new IllegalArgumentException("related must be between 0 and " + MAX_RELATED_CARS);
+        }
+        Map<String, Callable<?>> parts = new LinkedHashMap<>();
+        parts.put("car", () -> carRepository.findById(id).map(this::convertToResponse));
+        parts.put("priceTrends", () -> analyticsService.getPriceTrends(id, DETAILS_TREND_DAYS, DETAILS_TREND_POINTS));
+        parts.put("relatedCars", () -> relatedLimit > 0
+                ? jdbcTemplate.query(RELATED_SQL, (rs, rowNum) -> mapSummaryRow(rs), id, relatedLimit)
+                : Collections.emptyList());
+        AnalyticsExecutor.FanOut results = analyticsExecutor.fanOut(parts);
+        
+        if (!results.has("car")) {
+            throw new IllegalStateException("Could not load car " + id);
+        }
+        Optional<CarResponse> car = results.get("car");
+        Map<String, Object> details = new LinkedHashMap<>();
+        details.put("car", car.orElseThrow(() -> new RuntimeException("Car not found with id: " + id)));
+        if (results.has("priceTrends")) {
+            details.put("priceTrends", results.get("priceTrends"));
+        }
+        if (results.has("relatedCars")) {
+            details.put("relatedCars", results.get("relatedCars"));
+        }
+        if (!results.isComplete()) {
+            details.put("partial", true);
+            details.put("missing", results.getMissing());
+        }
+        return details;
+    }
+    
+    // Get one page of cars ordered by id, starting after the given cursor
+    public CarPage getCarsPage(Long after, int size) {
+        int pageSize = Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+        long cursor = after != null ? after : 0L;
+        
+        // Fetch one extra row to learn whether another page exists
+        List<CarSummary> cars = carRepository.findSummariesAfter(cursor, PageRequest.of(0, pageSize + 1));
+        boolean hasMore = cars.size() > pageSize;
+        List<CarSummary> items = hasMore ? cars.subList(0, pageSize) : cars;
+        Long nextCursor = hasMore ? items.get(items.size() - 1).getId() : null;
+        return new CarPage(items, nextCursor);
+    }
+    
+    // Stream every car as newline-delimited JSON straight off a JDBC cursor,
+    // so memory use does not grow with the size of the inventory
+    public void streamAllCars(OutputStream out) throws IOException {
+        SequenceWriter writer = objectMapper.writer()
+                .withRootValueSeparator("\n")
+                .writeValues(out);
+        
+        int[] written = {0};
+        
+        // Read-only transaction so the driver fetches in batches instead of buffering all rows
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        tx.setReadOnly(true);
+        tx.executeWithoutResult(status -> jdbcTemplate.query(con -> {
+            PreparedStatement statement = con.prepareStatement(STREAM_SQL);
+            statement.setFetchSize(STREAM_FETCH_SIZE);
+            return statement;
+        }, (RowCallbackHandler) rs -> {
+            try {
+                writer.write(mapRow(rs));
+                // Flush once per fetched batch so the client sees rows as they arrive
+                if (++written[0] % STREAM_FETCH_SIZE == 0) {
+                    writer.flush();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }));
+        writer.close();
     }
     
     // Get cars by make
-    public List<CarResponse> getCarsByMake(String make) {
-        return carRepository.findByMake(make).stream()
-                .map(this::convertToResponse)
-                .collect(Collectors.toList());
+    public List<CarSummary> getCarsByMake(String make) {
+        return carRepository.findSummariesByMake(make);
     }
     
     // Get cars by make and model
-    public List<CarResponse> getCarsByMakeAndModel(String make, String model) {
-        return carRepository.findByMakeAndModel(make, model).stream()
-                .map(this::convertToResponse)
-                .collect(Collectors.toList());
+    public List<CarSummary> getCarsByMakeAndModel(String make, String model) {
+        return carRepository.findSummariesByMakeAndModel(make, model);
     }
     
     // Get cars by location
-    public List<CarResponse> getCarsByLocation(String location) {
-        return carRepository.findByLocation(location).stream()
-                .map(this::convertToResponse)
-                .collect(Collectors.toList());
+    public List<CarSummary> getCarsByLocation(String location) {
+        return carRepository.findSummariesByLocation(location);
     }
     
-    // Get price analysis for a car
+    // Get price analysis for a car, from the cached make/model analysis. A partial analysis
+    // may lack the statistics; the single aggregate query answers then instead.
     public double getAveragePriceByMakeAndModel(String make, String model) {
-        Double avgPrice = carRepository.getAveragePriceByMakeAndModel(make, model);
-        return avgPrice != null ? avgPrice : 0.0;
+        Object avgPrice = analyticsService.getPriceAnalysis(make, model).get("averagePrice");
+        if (avgPrice == null) {
+            Double queried = carRepository.getAveragePriceByMakeAndModel(make, model);
+            return queried != null ? queried : 0.0;
+        }
+        return (double) avgPrice;
     }
     
     public double getAveragePriceByMakeModelAndYear(String make, String model, int year) {
@@ -90,33 +214,67 @@ public class CarService {
     }
     
     public long getCountByMakeAndModel(String make, String model) {
-        Long count = carRepository.getCountByMakeAndModel(make, model);
-        return count != null ? count : 0L;
+        Object count = analyticsService.getPriceAnalysis(make, model).get("totalCount");
+        if (count == null) {
+            Long queried = carRepository.getCountByMakeAndModel(make, model);
+            return queried != null ? queried : 0L;
+        }
+        return (long) count;
     }
     
     // Save a new car
     public CarResponse saveCar(Car car) {
-        Car savedCar = carRepository.save(car);
-        
-        // Create initial price history entry
-        PriceHistory priceHistory = new PriceHistory(savedCar, savedCar.getPrice());
-        priceHistoryRepository.save(priceHistory);
+        if (car.getId() == null) {
+            return carWriteGate.write(() -> doSaveCar(car));
+        }
+        return carWriteGate.write(List.of(car.getId()), () -> doSaveCar(car));
+    }
+    
+    private CarResponse doSaveCar(Car car) {
+        CarState[] previous = new CarState[1];
+        Car savedCar = new TransactionTemplate(transactionManager).execute(status -> {
+            // Capture the stored state first when an existing car is being overwritten,
+            // locked so a concurrent write cannot read the same state
+            if (car.getId() != null) {
+                previous[0] = carRepository.findByIdForUpdate(car.getId()).map(CarState::of).orElse(null);
+            }
+            
+            Car saved = carRepository.save(car);
+            
+            // Create initial price history entry
+            PriceHistory priceHistory = new PriceHistory(saved, saved.getPrice());
+            priceHistoryRepository.save(priceHistory);
+            return saved;
+        });
         
+        notifyCarChanged(previous[0], CarState.of(savedCar));
         return convertToResponse(savedCar);
     }
     
     // Update car price and track history
     public CarResponse updateCarPrice(Long carId, double newPrice) {
-        Car car = carRepository.findById(carId)
-                .orElseThrow(() -> new RuntimeException("Car not found with id: " + carId));
-        
-        car.setPrice(newPrice);
-        Car updatedCar = carRepository.save(car);
-        
-        // Record price change in history
-        PriceHistory priceHistory = new PriceHistory(updatedCar, newPrice);
-        priceHistoryRepository.save(priceHistory);
+        return carWriteGate.write(List.of(carId), () -> doUpdateCarPrice(carId, newPrice));
+    }
+    
+    private CarResponse doUpdateCarPrice(Long carId, double newPrice) {
+        CarState[] previous = new CarState[1];
+        Car updatedCar = new TransactionTemplate(transactionManager).execute(status -> {
+            // Locked until commit, so a concurrent write to the car reads this one's result
+            Car car = carRepository.findByIdForUpdate(carId)
+                    .orElseThrow(() -> new RuntimeException("Car not found with id: " + carId));
+            
+            previous[0] = CarState.of(car);
+            car.setPrice(newPrice);
+            Car saved = carRepository.save(car);
+            
+            // Record price change in history
+            PriceHistory priceHistory = new PriceHistory(saved, newPrice);
+            priceHistoryRepository.save(priceHistory);
+            return saved;
+        });
         
+        // After commit, still inside the car's write lock, so listeners get its changes in order
+        notifyCarChanged(previous[0], CarState.of(updatedCar));
         return convertToResponse(updatedCar);
     }
     
@@ -137,8 +295,52 @@ public class CarService {
         return volatility != null ? volatility : 0.0;
     }
     
-    // Convert Car entity to CarResponse DTO
-    private CarResponse convertToResponse(Car car) {
+    // Let in-memory indexes and aggregates apply a committed write, then move the ETag versions
+    private void notifyCarChanged(CarState previous, CarState current) {
+        for (CarChangeListener listener : carChangeListeners) {
+            listener.onCarChanged(previous, current);
+        }
+        dataVersion.carChanged(previous, current);
+    }
+    
+    // Map a cars row to CarResponse without going through the entity
+    private CarResponse mapRow(ResultSet rs) throws SQLException {
+        Timestamp createdAt = rs.getTimestamp("created_at");
+        return new CarResponse(
+                rs.getLong("id"),
+                rs.getString("make"),
+                rs.getString("model"),
+                rs.getInt("year"),
+                rs.getString("location"),
+                rs.getDouble("price"),
+                rs.getString("engine_specs"),
+                rs.getString("fuel_type"),
+                rs.getString("transmission"),
+                rs.getDouble("mileage"),
+                rs.getDouble("safety_rating"),
+                createdAt != null ? createdAt.toLocalDateTime() : null
+        );
+    }
+    
+    // Map a cars row to a CarSummary for listings (package-private for saved search runs)
+    static CarSummary mapSummaryRow(ResultSet rs) throws SQLException {
+        return new CarSummary(
+                rs.getLong("id"),
+                rs.getString("make"),
+                rs.getString("model"),
+                rs.getInt("year"),
+                rs.getString("location"),
+                rs.getDouble("price"),
+                rs.getString("engine_specs"),
+                rs.getString("fuel_type"),
+                rs.getString("transmission"),
+                rs.getDouble("mileage"),
+                rs.getDouble("safety_rating")
+        );
+    }
+    
+    // Convert Car entity to CarResponse DTO (package-private for the benchmarks)
+    CarResponse convertToResponse(Car car) {
         return new CarResponse(
                 car.getId(),
                 car.getMake(),
@@ -0,0 +1,110 @@
+package com.carmarket.analyzer.service;
+
+import com.carmarket.analyzer.model.Car;
+
+import java.time.LocalDateTime;
+
+// Immutable copy of a car's listing fields, taken at the moment of a write.
+// Entities are mutated in place by JPA, so listeners get these instead.
+public final class CarState {
+    private final Long id;
+    private final String make;
+    private final String model;
+    private final int year;
+    private final String location;
+    private final double price;
+    private final String engineSpecs;
+    private final String fuelType;
+    private final String transmission;
+    private final double mileage;
+    private final double safetyRating;
+    private final LocalDateTime createdAt;
+
+    public CarState(Long id, String make, String model, int year, String location, double price,
+                    String engineSpecs, String fuelType, String transmission, double mileage,
+                    double safetyRating, LocalDateTime createdAt) {
+        this.id = id;
+        this.make = make;
+        this.model = model;
+        this.year = year;
+        this.location = location;
+        this.price = price;
+        this.engineSpecs = engineSpecs;
+        this.fuelType = fuelType;
+        this.transmission = transmission;
+        this.mileage = mileage;
+        this.safetyRating = safetyRating;
+        this.createdAt = createdAt;
+    }
+
+    public static CarState of(Car car) {
+        return new CarState(
+                car.getId(),
+                car.getMake(),
+                car.getModel(),
+                car.getYear(),
+                car.getLocation(),
+                car.getPrice(),
+                car.getEngineSpecs(),
+                car.getFuelType(),
+                car.getTransmission(),
+                car.getMileage(),
+                car.getSafetyRating(),
+                car.getCreatedAt()
+        );
+    }
+
+    // Copy of this state with a different price
+    public CarState withPrice(double newPrice) {
+        return new CarState(id, make, model, year, location, newPrice,
+                engineSpecs, fuelType, transmission, mileage, safetyRating, createdAt);
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getMake() {
+        return make;
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    public int getYear() {
+        return year;
+    }
+
+    public String getLocation() {
+        return location;
+    }
+
+    public double getPrice() {
+        return price;
+    }
+
+    public String getEngineSpecs() {
+        return engineSpecs;
+    }
+
+    public String getFuelType() {
+        return fuelType;
+    }
+
+    public String getTransmission() {
+        return transmission;
+    }
+
+    public double getMileage() {
+        return mileage;
+    }
+
+    public double getSafetyRating() {
+        return safetyRating;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+}
@@ -0,0 +1,36 @@
+package com.carmarket.analyzer.service;
+
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+// Maps a cars row, selected with COLUMNS, straight to a CarState without an entity
+public class CarStateRowMapper implements RowMapper<CarState> {
+
+    public static final String COLUMNS =
+            "id, make, model, year, location, price, engine_specs, fuel_type, transmission, " +
+            "mileage, safety_rating, created_at";
+
+    public static final CarStateRowMapper INSTANCE = new CarStateRowMapper();
+
+    @Override
+    public CarState mapRow(ResultSet rs, int rowNum) throws SQLException {
+        Timestamp createdAt = rs.getTimestamp("created_at");
+        return new CarState(
+                rs.getLong("id"),
+                rs.getString("make"),
+                rs.getString("model"),
+                rs.getInt("year"),
+                rs.getString("location"),
+                rs.getDouble("price"),
+                rs.getString("engine_specs"),
+                rs.getString("fuel_type"),
+                rs.getString("transmission"),
+                rs.getDouble("mileage"),
+                rs.getDouble("safety_rating"),
+                createdAt != null ? createdAt.toLocalDateTime() : null
+        );
+    }
+}
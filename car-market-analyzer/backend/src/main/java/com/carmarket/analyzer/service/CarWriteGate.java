@@ -0,0 +1,71 @@
+package com.carmarket.analyzer.service;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+// Coordinates car writes with in-memory stores that seed themselves from current data.
+// Writes share the gate with each other, so they never serialize against one another;
+// a store that is seeding takes it exclusively, so no write is half-way between its
+// database commit and its CarChangeListener callback while the seed is read. Writes to
+// existing cars also hold a lock per car (striped by id) from reading the previous state
+// until their listeners have run, so listeners see each car's changes in commit order.
+@Component
+public class CarWriteGate {
+
+    private static final int CAR_STRIPES = 1024;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ReentrantLock[] carLocks = new ReentrantLock[CAR_STRIPES];
+
+    public CarWriteGate() {
+        for (int i = 0; i < CAR_STRIPES; i++) {
+            carLocks[i] = new ReentrantLock();
+        }
+    }
+
+    // Run a car write (database save plus listener notification) that touches no existing car
+    public <T> T write(Supplier<T> action) {
+        lock.readLock().lock();
+        try {
+            return action.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Run a write to existing cars while no other write to any of them is in flight
+    public <T> T write(Collection<Long> carIds, Supplier<T> action) {
+        // Taken in stripe order, so writes to overlapping sets of cars cannot deadlock
+        TreeSet<Integer> stripes = new TreeSet<>();
+        for (Long carId : carIds) {
+            stripes.add(Math.floorMod(Long.hashCode(carId), CAR_STRIPES));
+        }
+        return write(() -> {
+            for (int stripe : stripes) {
+                carLocks[stripe].lock();
+            }
+            try {
+                return action.get();
+            } finally {
+                for (int stripe : stripes.descendingSet()) {
+                    carLocks[stripe].unlock();
+                }
+            }
+        });
+    }
+
+    // Run an action while no car write is in flight. Must not be called from inside write().
+    public void exclusive(Runnable action) {
+        lock.writeLock().lock();
+        try {
+            action.run();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
@@ -3,9 +3,12 @@ package com.carmarket.analyzer.service;
 import com.carmarket.analyzer.model.Car;
 import com.carmarket.analyzer.repository.CarRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.stereotype.Service;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.List;
 
@@ -15,8 +18,32 @@ public class DataLoaderService implements CommandLineRunner {
     @Autowired
     private CarRepository carRepository;
     
+    @Autowired
+    private List<CarChangeListener> carChangeListeners;
+
+    @Autowired
+    private DataVersion dataVersion;
+    
+    @Autowired
+    private ListingImportService listingImportService;
+    
+    // Optional CSV/NDJSON listing file to import instead of the sample data
+    @Value("${carmarket.import.startup-file:}")
+    private String startupFile;
+    
     @Override
     public void run(String... args) throws Exception {
+        if (!startupFile.isBlank()) {
+            // Import into an empty database, or resume an import that was interrupted
+            Path file = Paths.get(startupFile);
+            if (carRepository.count() == 0 || listingImportService.hasCheckpoint(file)) {
+                ImportJob job = listingImportService.importFile(file, null);
+                System.out.println("Imported " + job.getRowsImported() + " cars from " + file +
+                        " (" + job.getRowsRejected() + " rejected, " + job.getStatus() + ")");
+            }
+            return;
+        }
+        
         // Only load data if database is empty
         if (carRepository.count() == 0) {
             loadSampleData();
@@ -87,6 +114,8 @@ public class DataLoaderService implements CommandLineRunner {
         
         // Save all cars
         carRepository.saveAll(sampleCars);
+        carChangeListeners.forEach(CarChangeListener::onCarsReloaded);
+        dataVersion.carsReloaded();
         System.out.println("Loaded " + sampleCars.size() + " sample cars into database");
     }
     
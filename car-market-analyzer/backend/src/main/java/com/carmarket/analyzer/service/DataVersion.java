@@ -0,0 +1,61 @@
+package com.carmarket.analyzer.service;
+
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Version counters behind the ETags of analytics and car responses: one for the whole
+// market, one per make and one per slot of car ids. Write paths bump them after the
+// CarChangeListeners have run, so a response computed after reading a version never
+// reflects less than that version. Tags carry the startup time, so they never match
+// across restarts.
+@Component
+public class DataVersion {
+
+    private static final int CAR_SLOTS = 4096;
+
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    private final AtomicLong market = new AtomicLong();
+    private final ConcurrentMap<String, Long> makes = new ConcurrentHashMap<>();
+    private final AtomicLongArray cars = new AtomicLongArray(CAR_SLOTS);
+
+    // Market version at the last bulk reload; the floor for every make and car version
+    private volatile long reloaded;
+
+    // Call after the listeners have been notified of the write
+    public void carChanged(CarState previous, CarState current) {
+        long version = market.incrementAndGet();
+        if (previous != null) {
+            makes.merge(previous.getMake(), version, Math::max);
+        }
+        makes.merge(current.getMake(), version, Math::max);
+        cars.accumulateAndGet(slot(current.getId()), version, Math::max);
+    }
+
+    // Call after the listeners have been told about writes that bypassed CarService
+    public void carsReloaded() {
+        reloaded = market.incrementAndGet();
+    }
+
+    // Changes with any car write
+    public String marketTag() {
+        return "market-" + epoch + "-" + market.get();
+    }
+
+    // Changes with writes to cars of the make (before or after the write)
+    public String makeTag(String make) {
+        return "make-" + epoch + "-" + Math.max(reloaded, makes.getOrDefault(make, 0L));
+    }
+
+    // Changes with writes to the car, and to other cars sharing its slot
+    public String carTag(long carId) {
+        return "car-" + epoch + "-" + Math.max(reloaded, cars.get(slot(carId)));
+    }
+
+    private static int slot(Long carId) {
+        return carId != null ? (int) Math.floorMod(carId, (long) CAR_SLOTS) : 0;
+    }
+}
@@ -0,0 +1,222 @@
+package com.carmarket.analyzer.service;
+
+import com.carmarket.analyzer.dto.CarSearchRequest;
+import com.carmarket.analyzer.dto.CarSummary;
+import com.carmarket.analyzer.dto.SavedSearchResponse;
+import com.carmarket.analyzer.model.FavoriteSearch;
+import com.carmarket.analyzer.model.User;
+import com.carmarket.analyzer.repository.FavoriteSearchRepository;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.*;
+
+// Saved searches and their incremental runs. A run returns only the listings that are new or
+// repriced since the search's previous run. Every car insert and price change adds a
+// price_history row tagged with its inserting transaction (txid), so the high-water mark is a
+// transaction id, as for the price rollups: the oldest transaction still running when the
+// previous run started. Rows below it were all committed, so cars written by transactions
+// that commit out of order are picked up by the next run instead of being skipped.
+@Service
+public class FavoriteSearchService {
+
+    // Cars with price_history rows from transactions in [previous mark, new mark), with the
+    // price each had before the previous mark (NULL for cars listed since). The range is on
+    // plain txid so idx_price_history_txid serves it; a run always has a previous mark, so
+    // rows without a txid (older than the column) are never in it. The previous price is a
+    // per-car lookup, where they do count as before the mark.
+    private static final String CHANGED_CARS_SQL =
+            "SELECT c.id, c.make, c.model, c.year, c.location, c.price, c.engine_specs, c.fuel_type, " +
+            "c.transmission, c.mileage, c.safety_rating, " +
+            "(SELECT p.price FROM price_history p WHERE p.car_id = c.id AND (p.txid < ? OR p.txid IS NULL) " +
+            "ORDER BY p.recorded_at DESC, p.id DESC LIMIT 1) AS previous_price " +
+            "FROM (SELECT DISTINCT car_id FROM price_history WHERE txid >= ? AND txid < ?) t " +
+            "JOIN cars c ON c.id = t.car_id WHERE TRUE";
+
+    @Autowired
+    private FavoriteSearchRepository favoriteSearchRepository;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private SavedSearchMatcher savedSearchMatcher;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private CarService carService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    // Between full counts the cached result count is adjusted by what each run saw change
+    @Value("${carmarket.searches.count-max-age-minutes:60}")
+    private long countMaxAgeMinutes;
+
+    // Save a search for a user; cars written from now on that match it are queued for them
+    public SavedSearchResponse saveSearch(Long userId, CarSearchRequest criteria) {
+        checkRange("year", criteria.getYearFrom(), criteria.getYearTo());
+        checkRange("price", criteria.getPriceFrom(), criteria.getPriceTo());
+        checkRange("mileage", criteria.getMileageFrom(), criteria.getMileageTo());
+
+        User user = userService.getUserById(userId);
+        String json = toJson(criteria);
+        // Saving the same criteria again returns the existing search and keeps its run state
+        List<FavoriteSearch> existing = favoriteSearchRepository.findByUserIdAndCriteria(userId, json);
+        if (!existing.isEmpty()) {
+            FavoriteSearch search = existing.get(0);
+            return new SavedSearchResponse(search.getId(), fromJson(search.getSearchCriteria()), search.getCreatedAt());
+        }
+        FavoriteSearch saved = favoriteSearchRepository.save(new FavoriteSearch(user, json));
+        savedSearchMatcher.put(saved.getId(), userId, criteria);
+        return new SavedSearchResponse(saved.getId(), criteria, saved.getCreatedAt());
+    }
+
+    // Saved searches of a user, newest first
+    public List<SavedSearchResponse> getSearches(Long userId) {
+        List<SavedSearchResponse> searches = new ArrayList<>();
+        for (FavoriteSearch search : favoriteSearchRepository.findByUserIdOrderByCreatedAtDesc(userId)) {
+            searches.add(new SavedSearchResponse(search.getId(), fromJson(search.getSearchCriteria()), search.getCreatedAt()));
+        }
+        return searches;
+    }
+
+    public void deleteSearch(Long userId, Long searchId) {
+        FavoriteSearch search = favoriteSearchRepository.findByIdAndUserId(searchId, userId)
+                .orElseThrow(() -> new RuntimeException("Saved search not found with id: " + searchId));
+        favoriteSearchRepository.delete(search);
+        savedSearchMatcher.remove(searchId);
+    }
+
+    // Run a saved search. The first run returns every matching car under newListings; later
+    // runs return the cars listed since the previous run (newListings) and the cars whose
+    // price changed since then and now match (repriced, with the price before), plus the
+    // cached total number of matching cars.
+    public Map<String, Object> runSearch(Long userId, Long searchId) {
+        // Taken before this transaction gets an id of its own, which would hold the mark back
+        long mark = jdbcTemplate.queryForObject("SELECT txid_snapshot_xmin(txid_current_snapshot())", Long.class);
+        return new TransactionTemplate(transactionManager).execute(status -> {
+            FavoriteSearch search = favoriteSearchRepository.findByIdAndUserIdForUpdate(searchId, userId)
+                    .orElseThrow(() -> new RuntimeException("Saved search not found with id: " + searchId));
+            CarSearchRequest criteria = fromJson(search.getSearchCriteria());
+            LocalDateTime now = LocalDateTime.now();
+
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("searchId", searchId);
+            result.put("since", search.getLastRunAt());
+            if (search.getLastTxid() == null) {
+                List<CarSummary> cars = carService.searchCars(criteria);
+                result.put("newListings", cars);
+                result.put("repriced", Collections.emptyList());
+                search.setResultCount((long) cars.size());
+                search.setCountedAt(now);
+            } else {
+                long change = changedSince(search.getLastTxid(), mark, criteria, result);
+                if (search.getCountedAt() == null || search.getCountedAt().plusMinutes(countMaxAgeMinutes).isBefore(now)) {
+                    CarFilter filter = new CarFilter(criteria);
+                    search.setResultCount(jdbcTemplate.queryForObject(
+                            "SELECT count(*) FROM cars WHERE TRUE" + filter.sql, Long.class, filter.args.toArray()));
+                    search.setCountedAt(now);
+                } else {
+                    search.setResultCount(Math.max(0, search.getResultCount() + change));
+                }
+            }
+            // A run that waited for a concurrent run of this search holds an older mark; never go back
+            search.setLastTxid(Math.max(mark, search.getLastTxid() != null ? search.getLastTxid() : 0));
+            search.setLastRunAt(now);
+            favoriteSearchRepository.save(search);
+
+            result.put("resultCount", search.getResultCount());
+            result.put("countedAt", search.getCountedAt());
+            return result;
+        });
+    }
+
+    // Puts the cars new or repriced between the marks into result; returns how many more cars
+    // match the search than at the previous mark, judging by price
+    private long changedSince(long from, long to, CarSearchRequest criteria, Map<String, Object> result) {
+        // Price is checked here against both the current and the previous price, to tell cars
+        // that moved into or out of the range
+        CarSearchRequest withoutPrice = objectMapper.convertValue(criteria, CarSearchRequest.class);
+        withoutPrice.setPriceFrom(null);
+        withoutPrice.setPriceTo(null);
+        CarFilter filter = new CarFilter(withoutPrice, "c.");
+        List<Object> args = new ArrayList<>(List.of(from, from, to));
+        args.addAll(filter.args);
+
+        List<CarSummary> newListings = new ArrayList<>();
+        List<Map<String, Object>> repriced = new ArrayList<>();
+        long[] change = new long[1];
+        jdbcTemplate.query(CHANGED_CARS_SQL + filter.sql + " ORDER BY c.id", (RowCallbackHandler) rs -> {
+            CarSummary car = CarService.mapSummaryRow(rs);
+            double previousPrice = rs.getDouble("previous_price");
+            boolean listedSince = rs.wasNull();
+            boolean matches = inPriceRange(criteria, car.getPrice());
+            boolean matched = !listedSince && inPriceRange(criteria, previousPrice);
+            if (matches && listedSince) {
+                newListings.add(car);
+            } else if (matches && previousPrice != car.getPrice()) {
+                Map<String, Object> entry = new LinkedHashMap<>();
+                entry.put("car", car);
+                entry.put("previousPrice", previousPrice);
+                repriced.add(entry);
+            }
+            change[0] += (matches ? 1 : 0) - (matched ? 1 : 0);
+        }, args.toArray());
+
+        result.put("newListings", newListings);
+        result.put("repriced", repriced);
+        return change[0];
+    }
+
+    private static boolean inPriceRange(CarSearchRequest criteria, double price) {
+        return (criteria.getPriceFrom() == null || price >= criteria.getPriceFrom())
+                && (criteria.getPriceTo() == null || price <= criteria.getPriceTo());
+    }
+
+    private static void checkRange(String field, Number from, Number to) {
+        if (from != null && to != null && from.doubleValue() > to.doubleValue()) {
+            throw new IllegalArgumentException(field + " range starts after it ends");
+        }
+    }
+
+    // Only the filters that are set, so equal searches store equal JSON
+    private String toJson(CarSearchRequest criteria) {
+        ObjectNode node = objectMapper.valueToTree(criteria);
+        Iterator<JsonNode> values = node.elements();
+        while (values.hasNext()) {
+            JsonNode value = values.next();
+            if (value.isNull() || (value.isTextual() && value.asText().isBlank()) || (value.isArray() && value.isEmpty())) {
+                values.remove();
+            }
+        }
+        try {
+            return objectMapper.writeValueAsString(node);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Unreadable search criteria", e);
+        }
+    }
+
+    private CarSearchRequest fromJson(String criteria) {
+        try {
+            return objectMapper.readValue(criteria, CarSearchRequest.class);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Unreadable saved search criteria", e);
+        }
+    }
+}
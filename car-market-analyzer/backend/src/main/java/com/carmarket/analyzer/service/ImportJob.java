@@ -0,0 +1,100 @@
+package com.carmarket.analyzer.service;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Progress of one listing file import; updated by the import threads, read by the admin API
+public class ImportJob {
+
+    public enum Status { RUNNING, COMPLETED, FAILED }
+
+    private final String id = UUID.randomUUID().toString();
+    private final Path file;
+    private final ListingImportService.Format format;
+    private final long totalBytes;
+    private final long resumedFromOffset;
+    private final LocalDateTime startedAt = LocalDateTime.now();
+    private final AtomicLong committedOffset;
+    private final AtomicLong rowsImported = new AtomicLong();
+    private final AtomicLong rowsRejected = new AtomicLong();
+    private volatile Status status = Status.RUNNING;
+    private volatile LocalDateTime finishedAt;
+    private volatile String error;
+
+    ImportJob(Path file, ListingImportService.Format format, long totalBytes, long resumedFromOffset) {
+        this.file = file;
+        this.format = format;
+        this.totalBytes = totalBytes;
+        this.resumedFromOffset = resumedFromOffset;
+        this.committedOffset = new AtomicLong(resumedFromOffset);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public ListingImportService.Format getFormat() {
+        return format;
+    }
+
+    public long getResumedFromOffset() {
+        return resumedFromOffset;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public long getRowsImported() {
+        return rowsImported.get();
+    }
+
+    public long getRowsRejected() {
+        return rowsRejected.get();
+    }
+
+    // Snapshot of progress for the admin API
+    public Map<String, Object> toStatus() {
+        Map<String, Object> status = new HashMap<>();
+        status.put("id", id);
+        status.put("file", file.toString());
+        status.put("format", format);
+        status.put("status", this.status);
+        status.put("startedAt", startedAt);
+        status.put("finishedAt", finishedAt);
+        status.put("resumedFromOffset", resumedFromOffset);
+        status.put("bytesCommitted", committedOffset.get());
+        status.put("totalBytes", totalBytes);
+        status.put("percentComplete", totalBytes > 0 ? committedOffset.get() * 100.0 / totalBytes : 100.0);
+        status.put("rowsImported", rowsImported.get());
+        status.put("rowsRejected", rowsRejected.get());
+        long elapsedMillis = Duration.between(startedAt, finishedAt != null ? finishedAt : LocalDateTime.now()).toMillis();
+        status.put("rowsPerSecond", elapsedMillis > 0 ? rowsImported.get() * 1000.0 / elapsedMillis : 0.0);
+        if (error != null) {
+            status.put("error", error);
+        }
+        return status;
+    }
+
+    void committed(long offset, int imported, int rejected) {
+        committedOffset.set(offset);
+        rowsImported.addAndGet(imported);
+        rowsRejected.addAndGet(rejected);
+    }
+
+    void complete() {
+        finishedAt = LocalDateTime.now();
+        status = Status.COMPLETED;
+    }
+
+    void fail(String message) {
+        finishedAt = LocalDateTime.now();
+        error = message;
+        status = Status.FAILED;
+    }
+}
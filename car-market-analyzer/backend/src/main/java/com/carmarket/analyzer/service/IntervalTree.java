@@ -0,0 +1,120 @@
+package com.carmarket.analyzer.service;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+// Static centered interval tree over closed intervals [low, high], answering "which
+// intervals contain this point" in O(log n + matches). Bounds may be infinite for open
+// ranges. Built once from arrays; rebuild it to add or remove intervals. Immutable after
+// construction, so concurrent queries are safe.
+final class IntervalTree {
+
+    private final Node root;
+    private final int size;
+
+    // ids[i] is reported for the interval [lows[i], highs[i]]
+    IntervalTree(int[] ids, double[] lows, double[] highs) {
+        this.size = ids.length;
+        int[] all = new int[ids.length];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = i;
+        }
+        this.root = build(all, ids, lows, highs);
+    }
+
+    int size() {
+        return size;
+    }
+
+    // Report the id of every interval containing the point
+    void stab(double point, IntConsumer action) {
+        Node node = root;
+        while (node != null) {
+            if (point < node.center) {
+                // Intervals here all end at or after the center, so they contain the point iff they start by it
+                for (int i = 0; i < node.lows.length && node.lows[i] <= point; i++) {
+                    action.accept(node.idsByLow[i]);
+                }
+                node = node.left;
+            } else if (point > node.center) {
+                for (int i = 0; i < node.highs.length && node.highs[i] >= point; i++) {
+                    action.accept(node.idsByHigh[i]);
+                }
+                node = node.right;
+            } else {
+                for (int id : node.idsByLow) {
+                    action.accept(id);
+                }
+                return;
+            }
+        }
+    }
+
+    // members are indexes into ids/lows/highs
+    private static Node build(int[] members, int[] ids, double[] lows, double[] highs) {
+        if (members.length == 0) return null;
+
+        // The median endpoint is some interval's bound, so at least that interval stays here
+        double[] endpoints = new double[members.length * 2];
+        for (int i = 0; i < members.length; i++) {
+            endpoints[2 * i] = lows[members[i]];
+            endpoints[2 * i + 1] = highs[members[i]];
+        }
+        Arrays.sort(endpoints);
+        double center = endpoints[members.length];
+
+        int[] left = new int[members.length];
+        int[] right = new int[members.length];
+        int[] here = new int[members.length];
+        int leftSize = 0, rightSize = 0, hereSize = 0;
+        for (int member : members) {
+            if (highs[member] < center) {
+                left[leftSize++] = member;
+            } else if (lows[member] > center) {
+                right[rightSize++] = member;
+            } else {
+                here[hereSize++] = member;
+            }
+        }
+
+        Node node = new Node(center, Arrays.copyOf(here, hereSize), ids, lows, highs);
+        node.left = build(Arrays.copyOf(left, leftSize), ids, lows, highs);
+        node.right = build(Arrays.copyOf(right, rightSize), ids, lows, highs);
+        return node;
+    }
+
+    private static final class Node {
+        private final double center;
+        // Intervals containing the center, by ascending low and by descending high
+        private final int[] idsByLow;
+        private final double[] lows;
+        private final int[] idsByHigh;
+        private final double[] highs;
+        private Node left;
+        private Node right;
+
+        Node(double center, int[] members, int[] ids, double[] allLows, double[] allHighs) {
+            this.center = center;
+            Integer[] order = new Integer[members.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = members[i];
+            }
+
+            Arrays.sort(order, (a, b) -> Double.compare(allLows[a], allLows[b]));
+            idsByLow = new int[order.length];
+            lows = new double[order.length];
+            for (int i = 0; i < order.length; i++) {
+                idsByLow[i] = ids[order[i]];
+                lows[i] = allLows[order[i]];
+            }
+
+            Arrays.sort(order, (a, b) -> Double.compare(allHighs[b], allHighs[a]));
+            idsByHigh = new int[order.length];
+            highs = new double[order.length];
+            for (int i = 0; i < order.length; i++) {
+                idsByHigh[i] = ids[order[i]];
+                highs[i] = allHighs[order[i]];
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.carmarket.analyzer.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Reads a UTF-8 text file as blocks of lines through a FileChannel, tracking the exact
+// byte offset after the last line returned so an import can checkpoint and resume there.
+final class LineChunkReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private byte[] line = new byte[256];
+    private int lineLength;
+    private long position;
+    private boolean eof;
+
+    LineChunkReader(Path file, long startOffset) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.channel.position(startOffset);
+        this.position = startOffset;
+        buffer.flip();
+    }
+
+    // Byte offset just past the last line returned
+    long position() {
+        return position;
+    }
+
+    long size() throws IOException {
+        return channel.size();
+    }
+
+    // Next line, or null at end of file
+    String readLine() throws IOException {
+        while (true) {
+            while (buffer.hasRemaining()) {
+                byte b = buffer.get();
+                position++;
+                if (b == '\n') {
+                    return takeLine();
+                }
+                append(b);
+            }
+            if (eof) {
+                return lineLength > 0 ? takeLine() : null;
+            }
+            buffer.clear();
+            if (channel.read(buffer) < 0) {
+                eof = true;
+            }
+            buffer.flip();
+        }
+    }
+
+    // Up to max lines; empty at end of file
+    List<String> readLines(int max) throws IOException {
+        List<String> lines = new ArrayList<>(max);
+        String next;
+        while (lines.size() < max && (next = readLine()) != null) {
+            lines.add(next);
+        }
+        return lines;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void append(byte b) {
+        if (lineLength == line.length) {
+            line = Arrays.copyOf(line, line.length * 2);
+        }
+        line[lineLength++] = b;
+    }
+
+    private String takeLine() {
+        int length = lineLength;
+        if (length > 0 && line[length - 1] == '\r') {
+            length--;
+        }
+        lineLength = 0;
+        return new String(line, 0, length, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,375 @@
+package com.carmarket.analyzer.service;
+
+import com.carmarket.analyzer.model.Car;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Bulk importer for CSV and NDJSON listing files. A reader thread cuts the file into
+// blocks of lines; a bounded pool parses each block and writes it with one batched
+// insert per block. A semaphore caps the blocks in flight, so reading never runs ahead
+// of the database (back-pressure). Completed blocks advance a checkpoint file next to
+// the input, so an interrupted import resumes where it stopped. Each block also records
+// itself in listing_import_blocks in the transaction that inserts its rows, so a block that
+// committed after the last checkpoint write is skipped on resume instead of imported twice.
+@Service
+public class ListingImportService {
+
+    public enum Format {
+        CSV, NDJSON;
+
+        // Guess from the file extension; CSV unless it looks like JSON lines
+        public static Format forFile(Path file) {
+            String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+            return name.endsWith(".ndjson") || name.endsWith(".jsonl") ? NDJSON : CSV;
+        }
+    }
+
+    private static final int LINES_PER_BLOCK = 5000;
+    private static final String CHECKPOINT_SUFFIX = ".checkpoint";
+    private static final String INSERT_CAR_SQL =
+            "INSERT INTO cars (id, make, model, year, location, price, engine_specs, fuel_type, transmission, " +
+            "mileage, safety_rating, created_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String NEXT_IDS_SQL =
+            "SELECT nextval('cars_id_seq') FROM generate_series(1, ?)";
+    private static final String[] DDL = {
+            "CREATE TABLE IF NOT EXISTS listing_import_blocks (" +
+                    "file_path TEXT NOT NULL, start_offset BIGINT NOT NULL, PRIMARY KEY (file_path, start_offset))"
+    };
+    private static final String INSERT_BLOCK_SQL =
+            "INSERT INTO listing_import_blocks (file_path, start_offset) VALUES (?, ?)";
+    private static final String SELECT_BLOCKS_SQL =
+            "SELECT start_offset FROM listing_import_blocks WHERE file_path = ? AND start_offset >= ?";
+    private static final String DELETE_BLOCKS_SQL =
+            "DELETE FROM listing_import_blocks WHERE file_path = ?";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private List<CarChangeListener> carChangeListeners;
+
+    @Autowired
+    private DataVersion dataVersion;
+
+    // Files given to the admin endpoint must live under this directory
+    @Value("${carmarket.import.directory:imports}")
+    private String importDirectory;
+
+    @Value("${carmarket.import.parallelism:4}")
+    private int parallelism;
+
+    private final Map<String, ImportJob> jobs = new ConcurrentHashMap<>();
+    private final ExecutorService jobRunner = Executors.newCachedThreadPool();
+    private volatile boolean schemaReady;
+
+    // Start importing a file from the import directory in the background
+    public ImportJob startImport(String fileName, Format format) throws IOException {
+        Path root = Paths.get(importDirectory).toAbsolutePath().normalize();
+        Path file = root.resolve(fileName).normalize();
+        if (!file.startsWith(root) || !Files.isRegularFile(file)) {
+            throw new IllegalArgumentException("No such file in import directory: " + fileName);
+        }
+        ImportJob job = createJob(file, format != null ? format : Format.forFile(file));
+        jobRunner.submit(() -> run(job, file));
+        return job;
+    }
+
+    // Import a file on the calling thread (used at startup)
+    public ImportJob importFile(Path file, Format format) throws IOException {
+        ImportJob job = createJob(file, format != null ? format : Format.forFile(file));
+        run(job, file);
+        return job;
+    }
+
+    // True when an earlier import of this file stopped before finishing
+    public boolean hasCheckpoint(Path file) {
+        return Files.exists(checkpointFile(file));
+    }
+
+    public Optional<ImportJob> getJob(String id) {
+        return Optional.ofNullable(jobs.get(id));
+    }
+
+    public Collection<ImportJob> getJobs() {
+        return jobs.values();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        jobRunner.shutdownNow();
+    }
+
+    private ImportJob createJob(Path file, Format format) throws IOException {
+        ImportJob job = new ImportJob(file, format, Files.size(file), Checkpoint.read(file).offset);
+        jobs.put(job.getId(), job);
+        return job;
+    }
+
+    private void run(ImportJob job, Path file) {
+        ExecutorService workers = Executors.newFixedThreadPool(parallelism);
+        Semaphore inFlight = new Semaphore(parallelism * 2);
+        try {
+            ListingParser parser;
+            long headerEnd;
+            try (LineChunkReader headerReader = new LineChunkReader(file, 0)) {
+                parser = openParser(job.getFormat(), headerReader);
+                headerEnd = headerReader.position();
+            }
+
+            ensureSchema();
+            String fileKey = file.toAbsolutePath().normalize().toString();
+            if (!hasCheckpoint(file)) {
+                // Left over from an import of this file that finished; this one starts afresh
+                jdbcTemplate.update(DELETE_BLOCKS_SQL, fileKey);
+            }
+            Checkpoint resumeFrom = Checkpoint.read(file);
+            long start = Math.max(headerEnd, resumeFrom.offset);
+            // Blocks past the checkpoint that committed: those it recorded, and those that
+            // committed after its last write
+            Set<Long> committedBlocks = new HashSet<>(resumeFrom.committedBlocks);
+            committedBlocks.addAll(jdbcTemplate.queryForList(SELECT_BLOCKS_SQL, Long.class, fileKey, start));
+            Checkpointer checkpointer = new Checkpointer(job, file, start, committedBlocks);
+            try (LineChunkReader body = new LineChunkReader(file, start)) {
+                long sequence = 0;
+                long blockStart = start;
+                List<String> lines;
+                while (!checkpointer.failed() && !(lines = body.readLines(LINES_PER_BLOCK)).isEmpty()) {
+                    long block = sequence++;
+                    long startOffset = blockStart;
+                    long endOffset = body.position();
+                    blockStart = endOffset;
+                    // Block boundaries repeat exactly on resume, so blocks that committed
+                    // ahead of the checkpoint last time can be recognised and skipped
+                    if (committedBlocks.contains(startOffset)) {
+                        checkpointer.completed(block, startOffset, endOffset, 0, 0);
+                        continue;
+                    }
+                    List<String> blockLines = lines;
+                    inFlight.acquire();
+                    workers.submit(() -> {
+                        try {
+                            int[] counts = writeBlock(parser, blockLines, fileKey, startOffset);
+                            checkpointer.completed(block, startOffset, endOffset, counts[0], counts[1]);
+                        } catch (RuntimeException e) {
+                            checkpointer.fail(e);
+                        } finally {
+                            inFlight.release();
+                        }
+                    });
+                }
+            }
+            workers.shutdown();
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+            if (checkpointer.finish()) {
+                jdbcTemplate.update(DELETE_BLOCKS_SQL, fileKey);
+            }
+        } catch (IOException | RuntimeException e) {
+            job.fail(e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            job.fail("Interrupted");
+        } finally {
+            workers.shutdownNow();
+            carChangeListeners.forEach(CarChangeListener::onCarsReloaded);
+            dataVersion.carsReloaded();
+        }
+    }
+
+    // Reads the CSV header when needed; leaves the reader just past it
+    private ListingParser openParser(Format format, LineChunkReader reader) throws IOException {
+        if (format == Format.NDJSON) {
+            return ListingParser.ndjson(objectMapper.readerFor(Car.class));
+        }
+        String header = reader.readLine();
+        if (header == null) {
+            throw new IllegalArgumentException("CSV file is empty");
+        }
+        return ListingParser.csv(header);
+    }
+
+    // Parse and insert one block in its own transaction, which also marks the block as
+    // imported; returns {imported, rejected}
+    private int[] writeBlock(ListingParser parser, List<String> lines, String fileKey, long startOffset) {
+        List<Car> cars = new ArrayList<>(lines.size());
+        int rejected = 0;
+        for (String line : lines) {
+            if (line.isBlank()) continue;
+            try {
+                cars.add(parser.parse(line));
+            } catch (IllegalArgumentException e) {
+                rejected++;
+            }
+        }
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            if (!cars.isEmpty()) {
+                insert(cars);
+            }
+            jdbcTemplate.update(INSERT_BLOCK_SQL, fileKey, startOffset);
+        });
+        return new int[]{cars.size(), rejected};
+    }
+
+    // Ids are drawn from the cars sequence up front so the initial price history rows
+    // can reference them within the same batch
+    private void insert(List<Car> cars) {
+        List<Long> ids = jdbcTemplate.queryForList(NEXT_IDS_SQL, Long.class, cars.size());
+        List<Object[]> carRows = new ArrayList<>(cars.size());
+        List<Object[]> historyRows = new ArrayList<>(cars.size());
+        for (int i = 0; i < cars.size(); i++) {
+            Car car = cars.get(i);
+            Timestamp createdAt = Timestamp.valueOf(car.getCreatedAt());
+            carRows.add(new Object[]{ids.get(i), car.getMake(), car.getModel(), car.getYear(), car.getLocation(),
+                    car.getPrice(), car.getEngineSpecs(), car.getFuelType(), car.getTransmission(),
+                    car.getMileage(), car.getSafetyRating(), createdAt});
+            historyRows.add(new Object[]{ids.get(i), car.getPrice(), createdAt});
+        }
+        jdbcTemplate.batchUpdate(INSERT_CAR_SQL, carRows);
+        PriceHistoryInserts.insert(jdbcTemplate, historyRows);
+    }
+
+    private void ensureSchema() {
+        if (schemaReady) return;
+        for (String statement : DDL) {
+            jdbcTemplate.execute(statement);
+        }
+        schemaReady = true;
+    }
+
+    private static Path checkpointFile(Path file) {
+        return file.resolveSibling(file.getFileName() + CHECKPOINT_SUFFIX);
+    }
+
+    // Contents of a checkpoint file: everything before offset is imported, and so are
+    // the blocks starting at committedBlocks that finished ahead of it
+    private static final class Checkpoint {
+        final long offset;
+        final Set<Long> committedBlocks;
+
+        Checkpoint(long offset, Set<Long> committedBlocks) {
+            this.offset = offset;
+            this.committedBlocks = committedBlocks;
+        }
+
+        static Checkpoint read(Path file) throws IOException {
+            Path checkpoint = checkpointFile(file);
+            if (!Files.exists(checkpoint)) return new Checkpoint(0L, Set.of());
+            Properties properties = new Properties();
+            try (Reader in = Files.newBufferedReader(checkpoint)) {
+                properties.load(in);
+            }
+            Set<Long> committedBlocks = new HashSet<>();
+            for (String block : properties.getProperty("committedBlocks", "").split(",")) {
+                if (!block.isBlank()) {
+                    committedBlocks.add(Long.parseLong(block.trim()));
+                }
+            }
+            return new Checkpoint(Long.parseLong(properties.getProperty("offset", "0")), committedBlocks);
+        }
+
+        void write(Path file) {
+            Properties properties = new Properties();
+            properties.setProperty("offset", Long.toString(offset));
+            StringJoiner blocks = new StringJoiner(",");
+            committedBlocks.forEach(block -> blocks.add(block.toString()));
+            properties.setProperty("committedBlocks", blocks.toString());
+            // Written aside and renamed over the old one, so a crash never leaves a partial file
+            Path checkpoint = checkpointFile(file);
+            Path temp = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+            try {
+                try (Writer out = Files.newBufferedWriter(temp)) {
+                    properties.store(out, "Listing import checkpoint");
+                }
+                Files.move(temp, checkpoint, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not write checkpoint for " + file, e);
+            }
+        }
+    }
+
+    // Blocks can finish out of order; the checkpoint offset only moves past a block once
+    // every block before it has committed too. Blocks known to be committed when the import
+    // resumed stay in the checkpoint until the offset passes them.
+    private static final class Checkpointer {
+        private final ImportJob job;
+        private final Path file;
+        private final Set<Long> resumedBlocks;
+        // block number -> {startOffset, endOffset, imported, rejected}
+        private final TreeMap<Long, long[]> pending = new TreeMap<>();
+        private long nextBlock;
+        private long offset;
+        private volatile boolean failed;
+
+        Checkpointer(ImportJob job, Path file, long startOffset, Set<Long> resumedBlocks) {
+            this.job = job;
+            this.file = file;
+            this.resumedBlocks = resumedBlocks;
+            this.offset = startOffset;
+            job.committed(startOffset, 0, 0);
+            // Written before any block commits, so a crash from here on resumes this import
+            // rather than starting a new one
+            write();
+        }
+
+        boolean failed() {
+            return failed;
+        }
+
+        synchronized void completed(long block, long startOffset, long endOffset, int imported, int rejected) {
+            pending.put(block, new long[]{startOffset, endOffset, imported, rejected});
+            long[] next;
+            while ((next = pending.remove(nextBlock)) != null) {
+                offset = next[1];
+                job.committed(offset, (int) next[2], (int) next[3]);
+                nextBlock++;
+            }
+            write();
+        }
+
+        private void write() {
+            Set<Long> ahead = new HashSet<>();
+            pending.values().forEach(p -> ahead.add(p[0]));
+            for (long block : resumedBlocks) {
+                if (block >= offset) {
+                    ahead.add(block);
+                }
+            }
+            new Checkpoint(offset, ahead).write(file);
+        }
+
+        synchronized void fail(Exception e) {
+            failed = true;
+            job.fail(e.getMessage());
+        }
+
+        // Returns true when the import completed
+        synchronized boolean finish() throws IOException {
+            if (failed) return false;
+            job.complete();
+            Files.deleteIfExists(checkpointFile(file));
+            return true;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.carmarket.analyzer.service;
+
+import com.carmarket.analyzer.model.Car;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// Turns one line of a listing file into a Car. Throws IllegalArgumentException for a bad line.
+abstract class ListingParser {
+
+    abstract Car parse(String line);
+
+    // NDJSON: one Car JSON object per line, same shape as POST /api/cars
+    static ListingParser ndjson(ObjectReader carReader) {
+        return new ListingParser() {
+            @Override
+            Car parse(String line) {
+                try {
+                    Car car = carReader.readValue(line);
+                    car.setId(null);
+                    return validate(car);
+                } catch (JsonProcessingException e) {
+                    throw new IllegalArgumentException("Invalid JSON: " + e.getOriginalMessage());
+                }
+            }
+        };
+    }
+
+    // CSV with a header row naming the columns, in camelCase or snake_case
+    static ListingParser csv(String headerLine) {
+        List<String> header = splitCsv(headerLine);
+        Map<String, Integer> columns = new HashMap<>();
+        for (int i = 0; i < header.size(); i++) {
+            columns.put(normalize(header.get(i)), i);
+        }
+        for (String required : new String[]{"make", "model", "year"}) {
+            if (!columns.containsKey(required)) {
+                throw new IllegalArgumentException("CSV header is missing column: " + required);
+            }
+        }
+        return new ListingParser() {
+            @Override
+            Car parse(String line) {
+                List<String> fields = splitCsv(line);
+                Car car = new Car();
+                car.setMake(text(fields, columns.get("make")));
+                car.setModel(text(fields, columns.get("model")));
+                car.setYear((int) number(fields, columns.get("year")));
+                car.setLocation(text(fields, columns.get("location")));
+                car.setPrice(number(fields, columns.get("price")));
+                car.setEngineSpecs(text(fields, columns.get("enginespecs")));
+                car.setFuelType(text(fields, columns.get("fueltype")));
+                car.setTransmission(text(fields, columns.get("transmission")));
+                car.setMileage(number(fields, columns.get("mileage")));
+                car.setSafetyRating(number(fields, columns.get("safetyrating")));
+                return validate(car);
+            }
+        };
+    }
+
+    private static Car validate(Car car) {
+        if (car.getMake() == null || car.getModel() == null || car.getYear() <= 0) {
+            throw new IllegalArgumentException("make, model and year are required");
+        }
+        // "createdAt": null in NDJSON overrides the constructor's default
+        if (car.getCreatedAt() == null) {
+            car.setCreatedAt(LocalDateTime.now());
+        }
+        return car;
+    }
+
+    private static String normalize(String column) {
+        return column.trim().replace("_", "").toLowerCase(Locale.ROOT);
+    }
+
+    private static String text(List<String> fields, Integer index) {
+        if (index == null || index >= fields.size()) return null;
+        String value = fields.get(index).trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    private static double number(List<String> fields, Integer index) {
+        String value = text(fields, index);
+        if (value == null) return 0;
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number: " + value);
+        }
+    }
+
+    // Split one CSV record; supports quoted fields with doubled quotes, not embedded newlines
+    static List<String> splitCsv(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
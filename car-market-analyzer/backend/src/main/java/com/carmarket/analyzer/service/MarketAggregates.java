@@ -0,0 +1,224 @@
+package com.carmarket.analyzer.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+// Live count/sum/min/max of prices, overall and per make, location, fuel type and
+// transmission. Every write applies a delta, so reads cost O(number of groups) and
+// never scan listings. Counters are striped adders so concurrent writers don't contend;
+// min/max come from a per-group ordered price multiset so they stay exact after a
+// price decrease or removal.
+@Service
+public class MarketAggregates implements CarChangeListener {
+
+    public static final Set<MarketSnapshot.Dimension> DIMENSIONS = Collections.unmodifiableSet(EnumSet.of(
+            MarketSnapshot.Dimension.MAKE,
+            MarketSnapshot.Dimension.LOCATION,
+            MarketSnapshot.Dimension.FUEL_TYPE,
+            MarketSnapshot.Dimension.TRANSMISSION));
+
+    @Autowired
+    private MarketSnapshot marketSnapshot;
+
+    @Autowired
+    private CarWriteGate carWriteGate;
+
+    private volatile boolean loaded;
+    private final Group overall = new Group();
+    private final DoubleAdder safetyRatingSum = new DoubleAdder();
+    private final EnumMap<MarketSnapshot.Dimension, ConcurrentHashMap<String, Group>> groups =
+            new EnumMap<>(MarketSnapshot.Dimension.class);
+
+    public MarketAggregates() {
+        for (MarketSnapshot.Dimension dimension : DIMENSIONS) {
+            groups.put(dimension, new ConcurrentHashMap<>());
+        }
+    }
+
+    @Override
+    public void onCarChanged(CarState previous, CarState current) {
+        // Not loaded yet: the pending seed will include this write
+        if (!loaded) return;
+        if (previous != null) {
+            apply(previous, -1);
+        }
+        apply(current, 1);
+    }
+
+    @Override
+    public void onCarsReloaded() {
+        loaded = false;
+    }
+
+    // Price statistics across all listings
+    public PriceStats overall() {
+        ensureLoaded();
+        return overall.stats();
+    }
+
+    public double averageSafetyRating() {
+        ensureLoaded();
+        long count = overall.count.sum();
+        return count > 0 ? safetyRatingSum.sum() / count : 0.0;
+    }
+
+    // Price statistics per value of a dimension; empty groups are omitted
+    public Map<String, PriceStats> statsBy(MarketSnapshot.Dimension dimension) {
+        ensureLoaded();
+        Map<String, PriceStats> result = new HashMap<>();
+        groupsOf(dimension).forEach((value, group) -> {
+            PriceStats stats = group.stats();
+            if (stats.getCount() > 0) {
+                result.put(value, stats);
+            }
+        });
+        return result;
+    }
+
+    public Map<String, Long> countBy(MarketSnapshot.Dimension dimension) {
+        Map<String, Long> result = new HashMap<>();
+        statsBy(dimension).forEach((value, stats) -> result.put(value, stats.getCount()));
+        return result;
+    }
+
+    public Map<String, Double> averagePriceBy(MarketSnapshot.Dimension dimension) {
+        Map<String, Double> result = new HashMap<>();
+        statsBy(dimension).forEach((value, stats) -> result.put(value, stats.getAverage()));
+        return result;
+    }
+
+    // Most common values of a dimension, highest count first (ties by value). Keeps only
+    // the best limit groups in a heap, so this is O(groups * log limit)
+    public List<Map.Entry<String, Long>> topBy(MarketSnapshot.Dimension dimension, int limit) {
+        ensureLoaded();
+        Comparator<Map.Entry<String, Long>> ranking = Map.Entry.<String, Long>comparingByValue().reversed()
+                .thenComparing(Map.Entry.comparingByKey());
+        // Head is the worst of the kept entries
+        PriorityQueue<Map.Entry<String, Long>> best = new PriorityQueue<>(limit + 1, ranking.reversed());
+        groupsOf(dimension).forEach((value, group) -> {
+            long count = group.count.sum();
+            if (count <= 0) return;
+            best.add(new AbstractMap.SimpleImmutableEntry<>(value, count));
+            if (best.size() > limit) {
+                best.poll();
+            }
+        });
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(best);
+        entries.sort(ranking);
+        return entries;
+    }
+
+    // Price statistics of one value of a dimension; zero counts when there is no such listing
+    public PriceStats statsOf(MarketSnapshot.Dimension dimension, String value) {
+        ensureLoaded();
+        Group group = groupsOf(dimension).get(value);
+        return group != null ? group.stats() : new PriceStats(0, 0.0, 0.0, 0.0);
+    }
+
+    private ConcurrentHashMap<String, Group> groupsOf(MarketSnapshot.Dimension dimension) {
+        ConcurrentHashMap<String, Group> byValue = groups.get(dimension);
+        if (byValue == null) {
+            throw new IllegalArgumentException("No aggregates kept for " + dimension);
+        }
+        return byValue;
+    }
+
+    private void apply(CarState car, int sign) {
+        overall.apply(car.getPrice(), sign);
+        safetyRatingSum.add(sign * car.getSafetyRating());
+        applyToGroup(MarketSnapshot.Dimension.MAKE, car.getMake(), car.getPrice(), sign);
+        applyToGroup(MarketSnapshot.Dimension.LOCATION, car.getLocation(), car.getPrice(), sign);
+        applyToGroup(MarketSnapshot.Dimension.FUEL_TYPE, car.getFuelType(), car.getPrice(), sign);
+        applyToGroup(MarketSnapshot.Dimension.TRANSMISSION, car.getTransmission(), car.getPrice(), sign);
+    }
+
+    private void applyToGroup(MarketSnapshot.Dimension dimension, String value, double price, int sign) {
+        if (value == null) return;
+        groups.get(dimension).computeIfAbsent(value, v -> new Group()).apply(price, sign);
+    }
+
+    private void ensureLoaded() {
+        if (loaded) return;
+        carWriteGate.exclusive(() -> {
+            if (loaded) return;
+            overall.clear();
+            safetyRatingSum.reset();
+            groups.values().forEach(Map::clear);
+            marketSnapshot.forEachRow(car -> apply(car, 1));
+            loaded = true;
+        });
+    }
+
+    // Running totals for one group
+    private static final class Group {
+        private final LongAdder count = new LongAdder();
+        private final DoubleAdder priceSum = new DoubleAdder();
+        // price -> number of listings at that price
+        private final ConcurrentSkipListMap<Double, Long> prices = new ConcurrentSkipListMap<>();
+
+        void apply(double price, int sign) {
+            if (sign > 0) {
+                count.increment();
+                priceSum.add(price);
+                prices.merge(price, 1L, Long::sum);
+            } else {
+                count.decrement();
+                priceSum.add(-price);
+                prices.computeIfPresent(price, (p, n) -> n > 1 ? n - 1 : null);
+            }
+        }
+
+        PriceStats stats() {
+            long n = count.sum();
+            if (n <= 0) return new PriceStats(0, 0.0, 0.0, 0.0);
+            Map.Entry<Double, Long> lowest = prices.firstEntry();
+            Map.Entry<Double, Long> highest = prices.lastEntry();
+            return new PriceStats(n, priceSum.sum() / n,
+                    lowest != null ? lowest.getKey() : 0.0,
+                    highest != null ? highest.getKey() : 0.0);
+        }
+
+        void clear() {
+            count.reset();
+            priceSum.reset();
+            prices.clear();
+        }
+    }
+
+    // Point-in-time price statistics for a group
+    public static final class PriceStats {
+        private final long count;
+        private final double average;
+        private final double min;
+        private final double max;
+
+        public PriceStats(long count, double average, double min, double max) {
+            this.count = count;
+            this.average = average;
+            this.min = min;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getAverage() {
+            return average;
+        }
+
+        public double getMin() {
+            return min;
+        }
+
+        public double getMax() {
+            return max;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.carmarket.analyzer.service;
+
+import com.carmarket.analyzer.model.Car;
+
+import java.time.LocalDateTime;
+import java.util.SplittableRandom;
+
+// Deterministic generator of realistic-looking listings: the same seed always yields the
+// same cars in the same order. Make/model and location popularity follow skewed weights,
+// newer cars are more common, mileage grows with age, and price falls with age and with
+// mileage above the norm for the model. Not thread-safe; use one instance per stream.
+public class MarketDataGenerator {
+
+    // make, model, base price, yearly depreciation, miles per year, fuel, transmission, engine, safety, popularity
+    private static final Object[][] CATALOG = {
+            {"Toyota", "Camry", 28000.0, 0.11, 12000.0, "Gasoline", "Automatic", "2.5L 4-Cylinder", 5, 100},
+            {"Toyota", "RAV4", 31000.0, 0.10, 12500.0, "Gasoline", "Automatic", "2.5L 4-Cylinder", 5, 110},
+            {"Toyota", "Prius", 27000.0, 0.12, 11000.0, "Hybrid", "CVT", "1.8L Hybrid", 5, 40},
+            {"Honda", "Accord", 29000.0, 0.11, 11500.0, "Gasoline", "CVT", "1.5L Turbo 4-Cylinder", 5, 85},
+            {"Honda", "Civic", 24000.0, 0.10, 11000.0, "Gasoline", "CVT", "2.0L 4-Cylinder", 5, 95},
+            {"Honda", "CR-V", 30000.0, 0.10, 12000.0, "Gasoline", "CVT", "1.5L Turbo 4-Cylinder", 5, 90},
+            {"Ford", "F-150", 48000.0, 0.12, 15000.0, "Gasoline", "10-Speed Automatic", "3.5L EcoBoost V6", 5, 120},
+            {"Ford", "Escape", 28000.0, 0.14, 12500.0, "Gasoline", "8-Speed Automatic", "1.5L EcoBoost", 4, 55},
+            {"Ford", "Mustang", 36000.0, 0.12, 8000.0, "Gasoline", "Manual", "5.0L V8", 4, 25},
+            {"Chevrolet", "Silverado", 47000.0, 0.12, 14000.0, "Gasoline", "8-Speed Automatic", "5.3L V8", 5, 100},
+            {"Chevrolet", "Equinox", 27000.0, 0.15, 12500.0, "Gasoline", "6-Speed Automatic", "1.5L Turbo", 4, 60},
+            {"Chevrolet", "Bolt", 29000.0, 0.17, 9000.0, "Electric", "Single-Speed", "Electric Motor", 4, 15},
+            {"BMW", "3 Series", 45000.0, 0.15, 10000.0, "Gasoline", "8-Speed Automatic", "2.0L Turbo 4-Cylinder", 5, 35},
+            {"BMW", "X5", 65000.0, 0.16, 11000.0, "Gasoline", "8-Speed Automatic", "3.0L Turbo I6", 5, 20},
+            {"Mercedes-Benz", "C-Class", 47000.0, 0.16, 9500.0, "Gasoline", "9-Speed Automatic", "2.0L Turbo 4-Cylinder", 5, 30},
+            {"Mercedes-Benz", "GLE", 62000.0, 0.16, 10500.0, "Gasoline", "9-Speed Automatic", "3.0L Turbo I6", 5, 15},
+            {"Tesla", "Model 3", 42000.0, 0.13, 8000.0, "Electric", "Single-Speed", "Dual Motor AWD", 5, 50},
+            {"Tesla", "Model Y", 50000.0, 0.12, 9000.0, "Electric", "Single-Speed", "Dual Motor AWD", 5, 45},
+            {"Nissan", "Altima", 26000.0, 0.14, 12500.0, "Gasoline", "CVT", "2.5L 4-Cylinder", 4, 55},
+            {"Nissan", "Rogue", 29000.0, 0.14, 12500.0, "Gasoline", "CVT", "1.5L Turbo 3-Cylinder", 4, 60},
+            {"Hyundai", "Sonata", 26000.0, 0.14, 12000.0, "Gasoline", "8-Speed Automatic", "2.5L 4-Cylinder", 4, 40},
+            {"Hyundai", "Tucson", 28000.0, 0.13, 12000.0, "Gasoline", "8-Speed Automatic", "2.5L 4-Cylinder", 5, 45},
+            {"Subaru", "Outback", 30000.0, 0.10, 12000.0, "Gasoline", "CVT", "2.5L Boxer 4-Cylinder", 5, 35},
+            {"Jeep", "Wrangler", 38000.0, 0.09, 11000.0, "Gasoline", "Manual", "3.6L V6", 3, 35},
+            {"Kia", "Sportage", 27000.0, 0.14, 12000.0, "Gasoline", "8-Speed Automatic", "2.5L 4-Cylinder", 4, 35},
+    };
+
+    private static final String[] LOCATIONS = {
+            "New York", "Los Angeles", "Chicago", "Houston", "Phoenix", "Philadelphia", "San Antonio",
+            "San Diego", "Dallas", "San Jose", "Austin", "Jacksonville", "Fort Worth", "Columbus",
+            "Charlotte", "San Francisco", "Indianapolis", "Seattle", "Denver", "Washington", "Boston",
+            "El Paso", "Nashville", "Detroit", "Oklahoma City", "Portland", "Las Vegas", "Memphis",
+            "Louisville", "Baltimore", "Milwaukee", "Albuquerque", "Tucson", "Fresno", "Sacramento",
+            "Atlanta", "Miami", "Raleigh", "Minneapolis", "Salt Lake City", "Orlando", "Tampa",
+    };
+
+    // Price level relative to the national average, for the first few (large, expensive) markets
+    private static final double[] LOCATION_PRICE_FACTOR = {1.08, 1.07, 1.02, 0.98, 0.99, 1.03, 0.96, 1.05, 0.99, 1.09};
+
+    private static final int MAX_AGE = 18;
+
+    private final SplittableRandom random;
+    private final int currentYear;
+    private final double[] catalogCumulative;
+    private final double[] locationCumulative;
+
+    public MarketDataGenerator(long seed, int currentYear) {
+        this.random = new SplittableRandom(seed);
+        this.currentYear = currentYear;
+        double[] catalogWeights = new double[CATALOG.length];
+        for (int i = 0; i < CATALOG.length; i++) {
+            catalogWeights[i] = ((Number) CATALOG[i][9]).doubleValue();
+        }
+        this.catalogCumulative = cumulative(catalogWeights);
+        // Zipf-like: the n-th largest market gets weight 1/n^0.8
+        double[] locationWeights = new double[LOCATIONS.length];
+        for (int i = 0; i < LOCATIONS.length; i++) {
+            locationWeights[i] = 1.0 / Math.pow(i + 1, 0.8);
+        }
+        this.locationCumulative = cumulative(locationWeights);
+    }
+
+    // Next listing; createdAt is left to the caller
+    public Car nextCar() {
+        Object[] entry = CATALOG[pick(catalogCumulative)];
+        int locationIndex = pick(locationCumulative);
+
+        // Age skews young: roughly exponential with a mean of five years
+        int age = Math.min(MAX_AGE, (int) (-Math.log(1.0 - random.nextDouble()) * 5));
+        double milesPerYear = (double) entry[4];
+        double mileage = Math.max(0, Math.round(milesPerYear * (age + random.nextDouble()) * logNormal(0.25)));
+        double expectedMileage = milesPerYear * (age + 0.5);
+
+        double price = (double) entry[2] * Math.pow(1 - (double) entry[3], age);
+        // Each 10% of a typical lifetime's mileage over (or under) the norm moves the price about 3%
+        double excess = (mileage - expectedMileage) / (milesPerYear * (age + 1));
+        price *= 1 - 0.3 * Math.max(-0.5, Math.min(1.0, excess));
+        price *= locationIndex < LOCATION_PRICE_FACTOR.length ? LOCATION_PRICE_FACTOR[locationIndex] : 1.0;
+        price *= logNormal(0.08);
+
+        Car car = new Car((String) entry[0], (String) entry[1], currentYear - age, LOCATIONS[locationIndex],
+                Math.max(1500, Math.round(price / 50) * 50.0));
+        car.setFuelType((String) entry[5]);
+        car.setTransmission((String) entry[6]);
+        car.setEngineSpecs((String) entry[7]);
+        car.setMileage(mileage);
+        car.setSafetyRating((int) entry[8]);
+        return car;
+    }
+
+    // Price history for a car, oldest first, ending at its current price at endTime.
+    // Points are spread over the given number of days; dealers mostly cut prices over time.
+    public PricePoint[] nextPriceHistory(double currentPrice, int points, LocalDateTime endTime, int days) {
+        PricePoint[] history = new PricePoint[points];
+        double price = currentPrice;
+        long spacingMinutes = points > 1 ? (long) days * 24 * 60 / (points - 1) : 0;
+        for (int i = points - 1; i >= 0; i--) {
+            long jitter = spacingMinutes > 0 && i > 0 && i < points - 1 ? random.nextLong(spacingMinutes / 2 + 1) : 0;
+            history[i] = new PricePoint(endTime.minusMinutes((points - 1 - i) * spacingMinutes + jitter), price);
+            // Walk backwards: earlier prices were on average slightly higher
+            price = Math.max(1000, Math.round(price * (1 + 0.004 + 0.015 * gaussian()) / 50) * 50.0);
+        }
+        return history;
+    }
+
+    // One price observation
+    public static final class PricePoint {
+        private final LocalDateTime recordedAt;
+        private final double price;
+
+        PricePoint(LocalDateTime recordedAt, double price) {
+            this.recordedAt = recordedAt;
+            this.price = price;
+        }
+
+        public LocalDateTime getRecordedAt() {
+            return recordedAt;
+        }
+
+        public double getPrice() {
+            return price;
+        }
+    }
+
+    private int pick(double[] cumulativeWeights) {
+        double target = random.nextDouble() * cumulativeWeights[cumulativeWeights.length - 1];
+        int low = 0;
+        int high = cumulativeWeights.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cumulativeWeights[mid] <= target) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private double logNormal(double sigma) {
+        return Math.exp(sigma * gaussian() - sigma * sigma / 2);
+    }
+
+    // Standard normal via Box-Muller (SplittableRandom has no nextGaussian on Java 11)
+    private double gaussian() {
+        double u1 = 1.0 - random.nextDouble();
+        double u2 = random.nextDouble();
+        return Math.sqrt(-2 * Math.log(u1)) * Math.cos(2 * Math.PI * u2);
+    }
+
+    private static double[] cumulative(double[] weights) {
+        double[] result = new double[weights.length];
+        double sum = 0;
+        for (int i = 0; i < weights.length; i++) {
+            sum += weights[i];
+            result[i] = sum;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,406 @@
+package com.carmarket.analyzer.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+// In-memory columnar copy of the cars table used to answer market-wide analytics
+// without hydrating Car entities. Numeric fields are held in primitive arrays and
+// categorical fields are dictionary encoded. Loaded lazily from the database on
+// first use and kept current through CarChangeListener callbacks. Notified before every
+// other listener, as MarketAggregates, PriceQuantiles and AutocompleteIndex seed from it:
+// after a reload they must never read rows it has not been told are stale.
+@Service
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class MarketSnapshot implements CarChangeListener {
+
+    public enum Dimension { MAKE, MODEL, LOCATION, FUEL_TYPE, TRANSMISSION }
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int FETCH_SIZE = 10000;
+    private static final String LOAD_SQL =
+            "SELECT id, make, model, year, location, price, fuel_type, transmission, mileage, safety_rating FROM cars";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile boolean loaded;
+
+    // Columns, valid for rows 0..size-1
+    private int size;
+    private long[] ids;
+    private double[] prices;
+    private int[] years;
+    private double[] mileages;
+    private double[] safetyRatings;
+    private final EnumMap<Dimension, int[]> codes = new EnumMap<>(Dimension.class);
+    private final EnumMap<Dimension, StringDictionary> dictionaries = new EnumMap<>(Dimension.class);
+    private final Map<Long, Integer> rowById = new HashMap<>();
+
+    public MarketSnapshot() {
+        for (Dimension dimension : Dimension.values()) {
+            dictionaries.put(dimension, new StringDictionary());
+        }
+        allocate(INITIAL_CAPACITY);
+    }
+
+    @Override
+    public void onCarChanged(CarState previous, CarState current) {
+        lock.writeLock().lock();
+        try {
+            // Not loaded yet: the pending load will read the committed row
+            if (loaded) {
+                upsert(current);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void onCarsReloaded() {
+        lock.writeLock().lock();
+        try {
+            loaded = false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Replace the contents with the given rows instead of loading from the database.
+    // Package-private: used by the benchmarks, which run without a database.
+    void loadFrom(Iterable<CarState> cars) {
+        lock.writeLock().lock();
+        try {
+            reset();
+            for (CarState car : cars) {
+                upsert(car);
+            }
+            loaded = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Number of listings
+    public int size() {
+        ensureLoaded();
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Count, sum, min, max and average of all prices in one pass
+    public DoubleSummaryStatistics priceStatistics() {
+        ensureLoaded();
+        lock.readLock().lock();
+        try {
+            DoubleSummaryStatistics stats = new DoubleSummaryStatistics();
+            for (int i = 0; i < size; i++) {
+                stats.accept(prices[i]);
+            }
+            return stats;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public double averageSafetyRating() {
+        ensureLoaded();
+        lock.readLock().lock();
+        try {
+            if (size == 0) return 0.0;
+            double sum = 0.0;
+            for (int i = 0; i < size; i++) {
+                sum += safetyRatings[i];
+            }
+            return sum / size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Number of listings per value of a dimension; null values are skipped
+    public Map<String, Long> countBy(Dimension dimension) {
+        ensureLoaded();
+        lock.readLock().lock();
+        try {
+            int[] column = codes.get(dimension);
+            long[] counts = new long[dictionaries.get(dimension).size()];
+            for (int i = 0; i < size; i++) {
+                int code = column[i];
+                if (code != StringDictionary.NULL_CODE) {
+                    counts[code]++;
+                }
+            }
+            Map<String, Long> result = new HashMap<>();
+            for (int code = 0; code < counts.length; code++) {
+                if (counts[code] > 0) {
+                    result.put(dictionaries.get(dimension).decode(code), counts[code]);
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Average price per value of a dimension; null values are skipped
+    public Map<String, Double> averagePriceBy(Dimension dimension) {
+        ensureLoaded();
+        lock.readLock().lock();
+        try {
+            int[] column = codes.get(dimension);
+            int cardinality = dictionaries.get(dimension).size();
+            long[] counts = new long[cardinality];
+            double[] sums = new double[cardinality];
+            for (int i = 0; i < size; i++) {
+                int code = column[i];
+                if (code != StringDictionary.NULL_CODE) {
+                    counts[code]++;
+                    sums[code] += prices[i];
+                }
+            }
+            Map<String, Double> result = new HashMap<>();
+            for (int code = 0; code < cardinality; code++) {
+                if (counts[code] > 0) {
+                    result.put(dictionaries.get(dimension).decode(code), sums[code] / counts[code]);
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Price histogram in one pass over the price column. edges must be increasing; bucket i
+    // is [edges[i], edges[i+1]) and the last bucket also includes its upper edge. The result
+    // has edges.length + 1 slots: below the first edge, one per bucket, above the last edge.
+    public long[] priceHistogram(double[] edges) {
+        ensureLoaded();
+        lock.readLock().lock();
+        try {
+            long[] counts = new long[edges.length + 1];
+            for (int i = 0; i < size; i++) {
+                counts[slot(edges, prices[i])]++;
+            }
+            return counts;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Price histogram per value of a dimension, in one pass; null values are skipped
+    public Map<String, long[]> priceHistogramBy(Dimension dimension, double[] edges) {
+        ensureLoaded();
+        lock.readLock().lock();
+        try {
+            int[] column = codes.get(dimension);
+            long[][] counts = new long[dictionaries.get(dimension).size()][];
+            for (int i = 0; i < size; i++) {
+                int code = column[i];
+                if (code != StringDictionary.NULL_CODE) {
+                    if (counts[code] == null) {
+                        counts[code] = new long[edges.length + 1];
+                    }
+                    counts[code][slot(edges, prices[i])]++;
+                }
+            }
+            Map<String, long[]> result = new HashMap<>();
+            for (int code = 0; code < counts.length; code++) {
+                if (counts[code] != null) {
+                    result.put(dictionaries.get(dimension).decode(code), counts[code]);
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Price histogram per model year, in one pass, oldest year first
+    public SortedMap<Integer, long[]> priceHistogramByYear(double[] edges) {
+        ensureLoaded();
+        lock.readLock().lock();
+        try {
+            SortedMap<Integer, long[]> result = new TreeMap<>();
+            if (size == 0) return result;
+            int minYear = Integer.MAX_VALUE;
+            int maxYear = Integer.MIN_VALUE;
+            for (int i = 0; i < size; i++) {
+                minYear = Math.min(minYear, years[i]);
+                maxYear = Math.max(maxYear, years[i]);
+            }
+            long[][] counts = new long[maxYear - minYear + 1][];
+            for (int i = 0; i < size; i++) {
+                int index = years[i] - minYear;
+                if (counts[index] == null) {
+                    counts[index] = new long[edges.length + 1];
+                }
+                counts[index][slot(edges, prices[i])]++;
+            }
+            for (int index = 0; index < counts.length; index++) {
+                if (counts[index] != null) {
+                    result.put(minYear + index, counts[index]);
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Visit every listing as a CarState (engineSpecs and createdAt are not kept and are null)
+    public void forEachRow(Consumer<CarState> visitor) {
+        ensureLoaded();
+        lock.readLock().lock();
+        try {
+            for (int i = 0; i < size; i++) {
+                visitor.accept(new CarState(ids[i],
+                        decode(Dimension.MAKE, i),
+                        decode(Dimension.MODEL, i),
+                        years[i],
+                        decode(Dimension.LOCATION, i),
+                        prices[i],
+                        null,
+                        decode(Dimension.FUEL_TYPE, i),
+                        decode(Dimension.TRANSMISSION, i),
+                        mileages[i],
+                        safetyRatings[i],
+                        null));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Histogram slot of a price: 0 below the first edge, edges.length above the last
+    private static int slot(double[] edges, double price) {
+        int last = edges.length - 1;
+        if (price < edges[0]) return 0;
+        if (price > edges[last]) return edges.length;
+        if (price == edges[last]) return last;
+        int index = Arrays.binarySearch(edges, price);
+        // An exact edge match starts that bucket; otherwise the bucket is the edge before the insertion point
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    private String decode(Dimension dimension, int row) {
+        return dictionaries.get(dimension).decode(codes.get(dimension)[row]);
+    }
+
+    private void ensureLoaded() {
+        if (loaded) return;
+        lock.writeLock().lock();
+        try {
+            if (!loaded) {
+                load();
+                loaded = true;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Must hold the write lock
+    private void load() {
+        reset();
+
+        // Read-only transaction so the driver streams rows with a cursor instead of buffering them
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        tx.setReadOnly(true);
+        tx.executeWithoutResult(status -> jdbcTemplate.query(con -> {
+            PreparedStatement statement = con.prepareStatement(LOAD_SQL);
+            statement.setFetchSize(FETCH_SIZE);
+            return statement;
+        }, (RowCallbackHandler) this::appendRow));
+    }
+
+    // Must hold the write lock
+    private void reset() {
+        size = 0;
+        rowById.clear();
+        dictionaries.values().forEach(StringDictionary::clear);
+        ids = null;
+        prices = null;
+        years = null;
+        mileages = null;
+        safetyRatings = null;
+        codes.clear();
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private void appendRow(ResultSet rs) throws SQLException {
+        int row = newRow(rs.getLong("id"));
+        years[row] = rs.getInt("year");
+        prices[row] = rs.getDouble("price");
+        mileages[row] = rs.getDouble("mileage");
+        safetyRatings[row] = rs.getDouble("safety_rating");
+        setCode(Dimension.MAKE, row, rs.getString("make"));
+        setCode(Dimension.MODEL, row, rs.getString("model"));
+        setCode(Dimension.LOCATION, row, rs.getString("location"));
+        setCode(Dimension.FUEL_TYPE, row, rs.getString("fuel_type"));
+        setCode(Dimension.TRANSMISSION, row, rs.getString("transmission"));
+    }
+
+    // Must hold the write lock
+    private void upsert(CarState car) {
+        Integer existing = rowById.get(car.getId());
+        int row = existing != null ? existing : newRow(car.getId());
+        years[row] = car.getYear();
+        prices[row] = car.getPrice();
+        mileages[row] = car.getMileage();
+        safetyRatings[row] = car.getSafetyRating();
+        setCode(Dimension.MAKE, row, car.getMake());
+        setCode(Dimension.MODEL, row, car.getModel());
+        setCode(Dimension.LOCATION, row, car.getLocation());
+        setCode(Dimension.FUEL_TYPE, row, car.getFuelType());
+        setCode(Dimension.TRANSMISSION, row, car.getTransmission());
+    }
+
+    private int newRow(long id) {
+        if (size == ids.length) {
+            allocate(size + (size >> 1));
+        }
+        int row = size++;
+        ids[row] = id;
+        rowById.put(id, row);
+        return row;
+    }
+
+    private void setCode(Dimension dimension, int row, String value) {
+        codes.get(dimension)[row] = dictionaries.get(dimension).encode(value);
+    }
+
+    // Grow (or create) every column to the given capacity, keeping existing rows
+    private void allocate(int capacity) {
+        ids = ids == null ? new long[capacity] : Arrays.copyOf(ids, capacity);
+        prices = prices == null ? new double[capacity] : Arrays.copyOf(prices, capacity);
+        years = years == null ? new int[capacity] : Arrays.copyOf(years, capacity);
+        mileages = mileages == null ? new double[capacity] : Arrays.copyOf(mileages, capacity);
+        safetyRatings = safetyRatings == null ? new double[capacity] : Arrays.copyOf(safetyRatings, capacity);
+        for (Dimension dimension : Dimension.values()) {
+            int[] column = codes.get(dimension);
+            codes.put(dimension, column == null ? new int[capacity] : Arrays.copyOf(column, capacity));
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.carmarket.analyzer.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.function.Supplier;
+
+// Price analysis results per make/model, bounded by total weight (one unit per entry plus
+// one per by-year and by-location row) and evicted by Caffeine's W-TinyLFU policy, so
+// popular models stay in memory. A car write invalidates only the make/model it touched:
+// both the old and the new one when a write moves a car between models.
+@Service
+public class PriceAnalysisCache implements CarChangeListener {
+
+    private final Cache<Key, Map<String, Object>> cache;
+
+    public PriceAnalysisCache(@Value("${carmarket.cache.price-analysis.max-weight:200000}") long maxWeight) {
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxWeight)
+                .weigher((Key key, Map<String, Object> analysis) -> weigh(analysis))
+                .recordStats()
+                .build();
+    }
+
+    // Cached analysis for a make/model, computed by the loader on a miss. A write to the
+    // make/model while the loader runs waits for it and then removes its result. Partial
+    // results (parts missed their deadline) are returned once but not kept.
+    public Map<String, Object> get(String make, String model, Supplier<Map<String, Object>> loader) {
+        Key key = new Key(make, model);
+        Map<String, Object> analysis = cache.get(key, k -> Collections.unmodifiableMap(loader.get()));
+        if (analysis.containsKey("partial")) {
+            cache.asMap().remove(key, analysis);
+        }
+        return analysis;
+    }
+
+    @Override
+    public void onCarChanged(CarState previous, CarState current) {
+        if (previous != null) {
+            cache.invalidate(new Key(previous.getMake(), previous.getModel()));
+        }
+        cache.invalidate(new Key(current.getMake(), current.getModel()));
+    }
+
+    @Override
+    public void onCarsReloaded() {
+        cache.invalidateAll();
+    }
+
+    // Hit, miss and eviction counters since startup
+    public Map<String, Object> statistics() {
+        CacheStats stats = cache.stats();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("entries", cache.estimatedSize());
+        result.put("hits", stats.hitCount());
+        result.put("misses", stats.missCount());
+        result.put("hitRate", stats.hitRate());
+        result.put("evictions", stats.evictionCount());
+        result.put("evictedWeight", stats.evictionWeight());
+        result.put("averageLoadMillis", stats.averageLoadPenalty() / 1_000_000.0);
+        return result;
+    }
+
+    private static int weigh(Map<String, Object> analysis) {
+        int weight = 1;
+        for (Object value : analysis.values()) {
+            if (value instanceof Map) {
+                weight += ((Map<?, ?>) value).size();
+            }
+        }
+        return weight;
+    }
+
+    private static final class Key {
+        private final String make;
+        private final String model;
+
+        Key(String make, String model) {
+            this.make = make;
+            this.model = model;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return Objects.equals(make, other.make) && Objects.equals(model, other.model);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(make, model);
+        }
+    }
+}
@@ -0,0 +1,522 @@
+package com.carmarket.analyzer.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Pushes price changes and new listings to Server-Sent Events subscribers, per car, per
+// make (or make/model), and market summaries. Car writes only append to the buffers of the
+// matching subscribers; every flush interval one background thread hands what has
+// accumulated for each client to a small pool of writer threads, so a burst of writes reaches
+// each client as one batch. A client has at most one write in progress, and one whose write
+// takes longer than the write timeout is dropped, so a slow connection only ever holds up
+// its own stream (and one writer thread, until the socket gives up). Buffers are bounded per
+// subscriber: DROP_OLDEST keeps the latest events in order, COALESCE keeps only the latest
+// event per car. Events lost either way are announced with an "overflow" event so the client
+// can reload. Market summaries are computed once per interval from MarketAggregates and
+// shared by all market subscribers, and only when the market has changed.
+@Service
+public class PriceEventBroadcaster implements CarChangeListener {
+
+    private static final Logger log = LoggerFactory.getLogger(PriceEventBroadcaster.class);
+
+    public static final int MAX_BUFFER_SIZE = 1000;
+    public static final int MAX_CARS = 100;
+
+    private static final long NOT_WRITING = Long.MIN_VALUE;
+
+    public enum Policy { DROP_OLDEST, COALESCE }
+
+    @Autowired
+    private MarketAggregates marketAggregates;
+
+    @Autowired
+    private DataVersion dataVersion;
+
+    @Value("${carmarket.events.max-subscribers:10000}")
+    private int maxSubscribers;
+
+    @Value("${carmarket.events.buffer-size:100}")
+    private int defaultBufferSize;
+
+    @Value("${carmarket.events.flush-interval-ms:250}")
+    private long flushIntervalMillis;
+
+    @Value("${carmarket.events.market-interval-ms:2000}")
+    private long marketIntervalMillis;
+
+    @Value("${carmarket.events.heartbeat-ms:20000}")
+    private long heartbeatMillis;
+
+    @Value("${carmarket.events.timeout-ms:1800000}")
+    private long timeoutMillis;
+
+    @Value("${carmarket.events.writer-threads:4}")
+    private int writerThreads;
+
+    @Value("${carmarket.events.write-timeout-ms:10000}")
+    private long writeTimeoutMillis;
+
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final Map<Long, Set<Subscriber>> byCar = new ConcurrentHashMap<>();
+    // Keyed by make + "\n" + model; an empty model stands for the whole make
+    private final Map<String, Set<Subscriber>> byModel = new ConcurrentHashMap<>();
+    private final Set<Subscriber> marketSubscribers = ConcurrentHashMap.newKeySet();
+    // Subscribers with buffered events, each listed once until flushed
+    private final Queue<Subscriber> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    // Written by the flush thread only
+    private String marketTag;
+    private Map<String, Object> marketSummary;
+    private long marketSequence;
+    private long lastMarketCheck;
+    private long lastHeartbeat;
+
+    private ScheduledExecutorService flusher;
+    private ThreadPoolExecutor writers;
+
+    @PostConstruct
+    public void start() {
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "price-events");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Each subscriber has at most one write queued or running, so the queue never fills
+        AtomicInteger count = new AtomicInteger();
+        writers = new ThreadPoolExecutor(writerThreads, writerThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(maxSubscribers),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "price-events-writer-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        flusher.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flusher.shutdownNow();
+        writers.shutdownNow();
+        subscribers.forEach(subscriber -> subscriber.emitter.complete());
+    }
+
+    // Open a stream for the given cars, make (and model) and/or market summaries
+    public SseEmitter subscribe(List<Long> carIds, String make, String model, boolean market,
+                                Policy policy, Integer bufferSize) {
+        boolean hasMake = make != null && !make.isBlank();
+        boolean hasModel = model != null && !model.isBlank();
+        List<Long> cars = carIds != null ? carIds : Collections.emptyList();
+        if (cars.isEmpty() && !hasMake && !market) {
+            throw new IllegalArgumentException("Subscribe to at least one car, a make or the market");
+        }
+        if (hasModel && !hasMake) {
+            throw new IllegalArgumentException("model needs a make");
+        }
+        if (cars.size() > MAX_CARS) {
+            throw new IllegalArgumentException("At most " + MAX_CARS + " cars per subscription");
+        }
+        int capacity = bufferSize != null ? bufferSize : defaultBufferSize;
+        if (capacity < 1 || capacity > MAX_BUFFER_SIZE) {
+            throw new IllegalArgumentException("buffer must be between 1 and " + MAX_BUFFER_SIZE);
+        }
+        if (subscribers.size() >= maxSubscribers) {
+            throw new IllegalStateException("Too many event subscribers");
+        }
+
+        Subscriber subscriber = new Subscriber(new SseEmitter(timeoutMillis), policy, capacity);
+        subscriber.emitter.onCompletion(() -> unsubscribe(subscriber));
+        subscriber.emitter.onTimeout(() -> unsubscribe(subscriber));
+        subscriber.emitter.onError(e -> unsubscribe(subscriber));
+        subscribers.add(subscriber);
+        for (Long carId : new HashSet<>(cars)) {
+            subscriber.cars.add(carId);
+            byCar.computeIfAbsent(carId, id -> ConcurrentHashMap.newKeySet()).add(subscriber);
+        }
+        if (hasMake) {
+            subscriber.modelKey = make + "\n" + (hasModel ? model : "");
+            byModel.computeIfAbsent(subscriber.modelKey, key -> ConcurrentHashMap.newKeySet()).add(subscriber);
+        }
+        if (market) {
+            // The next flush sends the current summary first
+            marketSubscribers.add(subscriber);
+        }
+        try {
+            // Sent right away so clients and proxies see the stream open
+            subscriber.emitter.send(SseEmitter.event().comment("subscribed"));
+        } catch (IOException e) {
+            unsubscribe(subscriber);
+            subscriber.emitter.completeWithError(e);
+        }
+        return subscriber.emitter;
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    @Override
+    public void onCarChanged(CarState previous, CarState current) {
+        String type;
+        if (previous == null) {
+            type = "listing";
+        } else if (previous.getPrice() != current.getPrice()) {
+            type = "price";
+        } else {
+            return;
+        }
+        Set<Subscriber> targets = byCar.get(current.getId());
+        Set<Subscriber> makeTargets = byModel.get(current.getMake() + "\n");
+        Set<Subscriber> modelTargets = byModel.get(current.getMake() + "\n" + current.getModel());
+        if (targets == null && makeTargets == null && modelTargets == null) return;
+
+        CarEvent event = new CarEvent(sequence.incrementAndGet(), type, current,
+                previous != null ? previous.getPrice() : null);
+        // A subscriber of both the car and its make gets the event once
+        Set<Subscriber> seen = new HashSet<>();
+        for (Set<Subscriber> group : Arrays.asList(targets, makeTargets, modelTargets)) {
+            if (group == null) continue;
+            for (Subscriber subscriber : group) {
+                if (seen.add(subscriber)) {
+                    subscriber.offer(event);
+                }
+            }
+        }
+    }
+
+    private void unsubscribe(Subscriber subscriber) {
+        if (!subscribers.remove(subscriber)) return;
+        for (Long carId : subscriber.cars) {
+            removeFrom(byCar, carId, subscriber);
+        }
+        if (subscriber.modelKey != null) {
+            removeFrom(byModel, subscriber.modelKey, subscriber);
+        }
+        marketSubscribers.remove(subscriber);
+    }
+
+    private static <K> void removeFrom(Map<K, Set<Subscriber>> index, K key, Subscriber subscriber) {
+        index.computeIfPresent(key, (k, group) -> group.remove(subscriber) && group.isEmpty() ? null : group);
+    }
+
+    // Decides what each client is due and hands it to the writers; never writes itself
+    private void flush() {
+        try {
+            evictStalled();
+
+            long now = System.currentTimeMillis();
+            if (!marketSubscribers.isEmpty() && now - lastMarketCheck >= marketIntervalMillis) {
+                lastMarketCheck = now;
+                refreshMarketSummary();
+            }
+            boolean heartbeat = now - lastHeartbeat >= heartbeatMillis;
+            if (heartbeat) {
+                lastHeartbeat = now;
+            }
+
+            Set<Subscriber> due = new LinkedHashSet<>();
+            Subscriber subscriber;
+            while ((subscriber = pending.poll()) != null) {
+                due.add(subscriber);
+            }
+            if (marketSummary != null) {
+                for (Subscriber market : marketSubscribers) {
+                    if (market.marketSequence < marketSequence) {
+                        due.add(market);
+                    }
+                }
+            }
+            if (heartbeat) {
+                due.addAll(subscribers);
+            }
+
+            for (Subscriber target : due) {
+                if (!target.writing.compareAndSet(false, true)) {
+                    // The previous write is still running; its events stay buffered (and bounded)
+                    // until a later flush. A heartbeat is not needed while a write is running.
+                    if (target.queued.get()) {
+                        pending.add(target);
+                    }
+                    continue;
+                }
+                boolean sendMarket = marketSummary != null && target.marketSequence < marketSequence
+                        && marketSubscribers.contains(target);
+                Map<String, Object> summary = sendMarket ? marketSummary : null;
+                long summarySequence = marketSequence;
+                try {
+                    writers.execute(() -> write(target, summary, summarySequence, heartbeat));
+                } catch (RejectedExecutionException e) {
+                    target.writing.set(false);
+                    if (target.queued.get()) {
+                        pending.add(target);
+                    }
+                    continue;
+                }
+                if (sendMarket) {
+                    target.marketSequence = marketSequence;
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Sending price events failed", e);
+        }
+    }
+
+    // Runs on a writer thread: buffered events, then the market summary and heartbeat if due
+    private void write(Subscriber subscriber, Map<String, Object> summary, long summarySequence, boolean heartbeat) {
+        synchronized (subscriber) {
+            subscriber.writer = Thread.currentThread();
+        }
+        subscriber.writeStarted = System.nanoTime();
+        try {
+            // Events buffered from here on queue the subscriber again
+            subscriber.queued.set(false);
+            boolean open = sendBuffered(subscriber);
+            if (open && summary != null) {
+                open = send(subscriber, SseEmitter.event().id(Long.toString(summarySequence)).name("market")
+                        .data(summary, MediaType.APPLICATION_JSON));
+            }
+            if (open && heartbeat) {
+                // Comments are ignored by EventSource but reveal clients that went away
+                send(subscriber, SseEmitter.event().comment("heartbeat"));
+            }
+        } finally {
+            synchronized (subscriber) {
+                subscriber.writer = null;
+            }
+            // An eviction that came too late must not interrupt this thread's next write
+            Thread.interrupted();
+            subscriber.writeStarted = NOT_WRITING;
+            subscriber.writing.set(false);
+        }
+        if (subscriber.stalled) {
+            // Completed here rather than by the flush thread, which would wait on the emitter
+            // for as long as the stalled write holds it
+            subscriber.emitter.completeWithError(new IOException("Write timed out"));
+        }
+    }
+
+    // Drops clients whose write has been running for longer than the write timeout, and
+    // interrupts the write; one that ignores the interrupt holds its writer thread until
+    // the connection fails
+    private void evictStalled() {
+        long now = System.nanoTime();
+        long timeout = TimeUnit.MILLISECONDS.toNanos(writeTimeoutMillis);
+        for (Subscriber subscriber : subscribers) {
+            long started = subscriber.writeStarted;
+            if (started == NOT_WRITING || now - started < timeout) continue;
+            log.info("Dropping an event subscriber whose write took over {} ms", writeTimeoutMillis);
+            subscriber.stalled = true;
+            unsubscribe(subscriber);
+            synchronized (subscriber) {
+                if (subscriber.writer != null) {
+                    subscriber.writer.interrupt();
+                }
+            }
+        }
+    }
+
+    // Returns false when the client is gone
+    private boolean sendBuffered(Subscriber subscriber) {
+        List<CarEvent> events = new ArrayList<>();
+        int dropped = subscriber.drain(events);
+        if (dropped > 0 && !send(subscriber, SseEmitter.event().name("overflow")
+                .data(Map.of("dropped", dropped), MediaType.APPLICATION_JSON))) {
+            return false;
+        }
+        for (CarEvent event : events) {
+            if (!send(subscriber, SseEmitter.event().id(Long.toString(event.sequence)).name(event.type)
+                    .data(event, MediaType.APPLICATION_JSON))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void refreshMarketSummary() {
+        String tag = dataVersion.marketTag();
+        if (tag.equals(marketTag)) return;
+        MarketAggregates.PriceStats stats = marketAggregates.overall();
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("totalCars", stats.getCount());
+        summary.put("averagePrice", stats.getAverage());
+        summary.put("minPrice", stats.getMin());
+        summary.put("maxPrice", stats.getMax());
+        // Deltas since the previous summary sent on this server
+        summary.put("carsChange", marketSummary != null ? stats.getCount() - (long) marketSummary.get("totalCars") : 0L);
+        summary.put("averagePriceChange", marketSummary != null
+                ? stats.getAverage() - (double) marketSummary.get("averagePrice") : 0.0);
+        summary.put("at", LocalDateTime.now());
+        marketTag = tag;
+        marketSummary = summary;
+        marketSequence = sequence.incrementAndGet();
+    }
+
+    // Returns false when the client is gone; it is unsubscribed then
+    private boolean send(Subscriber subscriber, SseEmitter.SseEventBuilder event) {
+        if (subscriber.stalled) return false;
+        try {
+            subscriber.emitter.send(event);
+            return true;
+        } catch (IOException | IllegalStateException e) {
+            unsubscribe(subscriber);
+            subscriber.emitter.completeWithError(e);
+            return false;
+        }
+    }
+
+    private final class Subscriber {
+        private final SseEmitter emitter;
+        private final Policy policy;
+        private final int capacity;
+        private final Set<Long> cars = new HashSet<>();
+        private String modelKey;
+        // Flush thread only
+        private long marketSequence;
+        private final AtomicBoolean queued = new AtomicBoolean();
+        // Set while a write is queued or running; one write per client at a time keeps events in order
+        private final AtomicBoolean writing = new AtomicBoolean();
+        // When the running write started (System.nanoTime()), NOT_WRITING otherwise
+        private volatile long writeStarted = NOT_WRITING;
+        // Guarded by this
+        private Thread writer;
+        // Evicted by the flush thread; the writer completes the emitter
+        private volatile boolean stalled;
+        // Guarded by this; only one of the two is used, depending on the policy
+        private final ArrayDeque<CarEvent> buffer = new ArrayDeque<>();
+        private final LinkedHashMap<Long, CarEvent> latestByCar = new LinkedHashMap<>();
+        private int dropped;
+
+        Subscriber(SseEmitter emitter, Policy policy, int capacity) {
+            this.emitter = emitter;
+            this.policy = policy;
+            this.capacity = capacity;
+        }
+
+        void offer(CarEvent event) {
+            synchronized (this) {
+                if (policy == Policy.COALESCE) {
+                    CarEvent earlier = latestByCar.remove(event.carId);
+                    latestByCar.put(event.carId, earlier != null ? earlier.mergedWith(event) : event);
+                    if (latestByCar.size() > capacity) {
+                        Iterator<CarEvent> oldest = latestByCar.values().iterator();
+                        oldest.next();
+                        oldest.remove();
+                        dropped++;
+                    }
+                } else {
+                    if (buffer.size() >= capacity) {
+                        buffer.pollFirst();
+                        dropped++;
+                    }
+                    buffer.addLast(event);
+                }
+            }
+            if (queued.compareAndSet(false, true)) {
+                pending.add(this);
+            }
+        }
+
+        // Moves the buffered events into events; returns how many were dropped since the last drain
+        synchronized int drain(List<CarEvent> events) {
+            events.addAll(buffer);
+            events.addAll(latestByCar.values());
+            buffer.clear();
+            latestByCar.clear();
+            int lost = dropped;
+            dropped = 0;
+            return lost;
+        }
+    }
+
+    // A new listing ("listing") or a price change ("price") as sent to subscribers
+    public static final class CarEvent {
+        private final long sequence;
+        private final String type;
+        private final long carId;
+        private final String make;
+        private final String model;
+        private final int year;
+        private final String location;
+        private final double price;
+        private final Double previousPrice;
+        private final LocalDateTime at;
+
+        CarEvent(long sequence, String type, CarState car, Double previousPrice) {
+            this(sequence, type, car.getId(), car.getMake(), car.getModel(), car.getYear(), car.getLocation(),
+                    car.getPrice(), previousPrice);
+        }
+
+        private CarEvent(long sequence, String type, long carId, String make, String model, int year,
+                         String location, double price, Double previousPrice) {
+            this.sequence = sequence;
+            this.type = type;
+            this.carId = carId;
+            this.make = make;
+            this.model = model;
+            this.year = year;
+            this.location = location;
+            this.price = price;
+            this.previousPrice = previousPrice;
+            this.at = LocalDateTime.now();
+        }
+
+        // One event standing for this one followed by a later one for the same car: a listing
+        // stays a listing, and a price change keeps the price from before both
+        CarEvent mergedWith(CarEvent later) {
+            return new CarEvent(later.sequence, type, carId, later.make, later.model, later.year, later.location,
+                    later.price, previousPrice);
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public long getCarId() {
+            return carId;
+        }
+
+        public String getMake() {
+            return make;
+        }
+
+        public String getModel() {
+            return model;
+        }
+
+        public int getYear() {
+            return year;
+        }
+
+        public String getLocation() {
+            return location;
+        }
+
+        public double getPrice() {
+            return price;
+        }
+
+        // Price before the change; null for new listings
+        public Double getPreviousPrice() {
+            return previousPrice;
+        }
+
+        public LocalDateTime getAt() {
+            return at;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.carmarket.analyzer.service;
+
+import com.carmarket.analyzer.model.PriceHistory;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Batched JDBC inserts into price_history. price_history_id_seq increments by PriceHistory's
+// allocation size and each nextval reserves the block of ids ending at the value returned,
+// as Hibernate's pooled optimizer reads it. Ids are taken from such blocks here too, so JDBC
+// and JPA inserts never collide and a row costs one id instead of a whole block.
+final class PriceHistoryInserts {
+
+    private static final String INSERT_SQL =
+            "INSERT INTO price_history (id, car_id, price, recorded_at) VALUES (?, ?, ?, ?)";
+    private static final String NEXT_BLOCKS_SQL =
+            "SELECT nextval('price_history_id_seq') FROM generate_series(1, ?)";
+
+    private PriceHistoryInserts() {
+    }
+
+    // Insert rows of {car_id, price, recorded_at}
+    static void insert(JdbcTemplate jdbcTemplate, List<Object[]> rows) {
+        if (rows.isEmpty()) return;
+        int blockSize = PriceHistory.ID_ALLOCATION_SIZE;
+        List<Long> blockEnds = jdbcTemplate.queryForList(NEXT_BLOCKS_SQL, Long.class,
+                (rows.size() + blockSize - 1) / blockSize);
+        List<Object[]> withIds = new ArrayList<>(rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            Object[] row = rows.get(i);
+            long id = blockEnds.get(i / blockSize) - blockSize + 1 + i % blockSize;
+            withIds.add(new Object[]{id, row[0], row[1], row[2]});
+        }
+        jdbcTemplate.batchUpdate(INSERT_SQL, withIds);
+    }
+}
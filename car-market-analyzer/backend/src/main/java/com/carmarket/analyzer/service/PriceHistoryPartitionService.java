@@ -0,0 +1,303 @@
+package com.carmarket.analyzer.service;
+
+import org.postgresql.PGConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+// Maintains the monthly partitions of price_history (see database/schema.sql). Creates the
+// partitions for the coming months ahead of time, and for recent past months, which receive
+// back-dated imported history. When a retention period is set, detaches partitions older
+// than it, exports them to gzipped CSV in the archive directory and drops them. Partitions
+// are named price_history_YYYY_MM. Rows that landed in the default partition because their
+// month had no partition yet are moved into a new partition for that month, or archived
+// like an expired partition when the month is past retention, so the default partition
+// never blocks creating a month. Does nothing when price_history is not partitioned (e.g.
+// a database created by Hibernate).
+@Service
+public class PriceHistoryPartitionService {
+
+    private static final Logger log = LoggerFactory.getLogger(PriceHistoryPartitionService.class);
+
+    private static final Pattern PARTITION_NAME = Pattern.compile("price_history_(\\d{4})_(\\d{2})");
+    private static final DateTimeFormatter NAME_FORMAT = DateTimeFormatter.ofPattern("yyyy_MM");
+    private static final String DEFAULT_PARTITION = "price_history_default";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${carmarket.partitions.enabled:true}")
+    private boolean enabled;
+
+    @Value("${carmarket.partitions.months-ahead:3}")
+    private int monthsAhead;
+
+    @Value("${carmarket.partitions.months-behind:12}")
+    private int monthsBehind;
+
+    // 0 keeps every partition
+    @Value("${carmarket.partitions.retention-months:0}")
+    private int retentionMonths;
+
+    @Value("${carmarket.partitions.archive-directory:archive}")
+    private String archiveDirectory;
+
+    private volatile Map<String, Object> lastRun = Collections.emptyMap();
+
+    @Scheduled(initialDelayString = "${carmarket.partitions.initial-delay-ms:10000}",
+            fixedDelayString = "${carmarket.partitions.interval-ms:86400000}")
+    public void scheduledMaintenance() {
+        if (!enabled) return;
+        try {
+            maintain();
+        } catch (Exception e) {
+            log.warn("Price history partition maintenance failed", e);
+        }
+    }
+
+    // Create upcoming partitions and archive expired ones; returns what was done
+    public synchronized Map<String, Object> maintain() throws IOException {
+        Map<String, Object> result = new LinkedHashMap<>();
+        if (!isPartitioned()) {
+            result.put("skipped", "price_history is not partitioned");
+            lastRun = result;
+            return result;
+        }
+
+        YearMonth current = YearMonth.now();
+        YearMonth oldestKept = retentionMonths > 0 ? current.minusMonths(retentionMonths) : null;
+        List<String> created = new ArrayList<>();
+        List<Map<String, Object>> archived = new ArrayList<>();
+
+        // First, so that the months below can be created
+        if (isAttached(DEFAULT_PARTITION)) {
+            for (YearMonth month : defaultPartitionMonths()) {
+                if (oldestKept != null && month.isBefore(oldestKept)) {
+                    archived.add(archiveFromDefault(month));
+                } else if (moveFromDefault(month)) {
+                    created.add(partitionName(month));
+                }
+            }
+        }
+
+        for (int i = -monthsBehind; i <= monthsAhead; i++) {
+            YearMonth month = current.plusMonths(i);
+            if ((oldestKept == null || !month.isBefore(oldestKept)) && createPartition(month)) {
+                created.add(partitionName(month));
+            }
+        }
+        result.put("created", created);
+
+        if (oldestKept != null) {
+            for (String table : partitionTables()) {
+                YearMonth month = monthOf(table);
+                if (month != null && month.isBefore(oldestKept)) {
+                    archived.add(archive(table));
+                }
+            }
+        }
+        result.put("archived", archived);
+        lastRun = result;
+        return result;
+    }
+
+    public Map<String, Object> getLastRun() {
+        return lastRun;
+    }
+
+    private boolean isPartitioned() {
+        Integer count = jdbcTemplate.queryForObject("SELECT count(*) FROM pg_partitioned_table p " +
+                "JOIN pg_class c ON c.oid = p.partrelid WHERE c.relname = 'price_history' " +
+                "AND pg_table_is_visible(c.oid)", Integer.class);
+        return count != null && count > 0;
+    }
+
+    // Returns false when the partition already exists
+    private boolean createPartition(YearMonth month) {
+        String name = partitionName(month);
+        if (tableExists(name)) return false;
+        try {
+            jdbcTemplate.execute("CREATE TABLE " + name + " PARTITION OF price_history " + bounds(month));
+            return true;
+        } catch (Exception e) {
+            // Rows for this month arrived in the default partition since it was drained
+            log.warn("Could not create partition {}: {}", name, e.getMessage());
+            return false;
+        }
+    }
+
+    private static String bounds(YearMonth month) {
+        return "FOR VALUES FROM ('" + month.atDay(1) + "') TO ('" + month.plusMonths(1).atDay(1) + "')";
+    }
+
+    private static String monthRange(YearMonth month) {
+        return "recorded_at >= '" + month.atDay(1) + "' AND recorded_at < '" + month.plusMonths(1).atDay(1) + "'";
+    }
+
+    // Months with rows in the default partition, oldest first
+    private List<YearMonth> defaultPartitionMonths() {
+        List<YearMonth> months = new ArrayList<>();
+        for (LocalDate month : jdbcTemplate.queryForList("SELECT DISTINCT CAST(date_trunc('month', recorded_at) AS DATE) " +
+                "FROM " + DEFAULT_PARTITION + " ORDER BY 1", LocalDate.class)) {
+            months.add(YearMonth.from(month));
+        }
+        return months;
+    }
+
+    // Create the partition of a month whose rows sit in the default partition: the rows are
+    // copied into a new table, removed from the default partition and the table is attached,
+    // all in one transaction. The default partition is locked throughout, so no row of the
+    // month can arrive in it meanwhile. Returns false when the month's table already exists
+    // (left detached by an interrupted archive); its rows are then left alone.
+    private boolean moveFromDefault(YearMonth month) {
+        String name = partitionName(month);
+        if (tableExists(name)) {
+            log.warn("Rows for {} are in {}, but table {} exists and is not attached", month, DEFAULT_PARTITION, name);
+            return false;
+        }
+        String range = monthRange(month);
+        Long moved = new TransactionTemplate(transactionManager).execute(status -> {
+            jdbcTemplate.execute("LOCK TABLE " + DEFAULT_PARTITION + " IN ACCESS EXCLUSIVE MODE");
+            jdbcTemplate.execute("CREATE TABLE " + name + " (LIKE price_history INCLUDING DEFAULTS INCLUDING CONSTRAINTS)");
+            long rows = jdbcTemplate.update("INSERT INTO " + name + " SELECT * FROM " + DEFAULT_PARTITION + " WHERE " + range);
+            jdbcTemplate.update("DELETE FROM " + DEFAULT_PARTITION + " WHERE " + range);
+            // Builds the partition's copies of the price_history indexes
+            jdbcTemplate.execute("ALTER TABLE price_history ATTACH PARTITION " + name + " " + bounds(month));
+            return rows;
+        });
+        log.info("Moved {} rows of {} from {} into {}", moved, month, DEFAULT_PARTITION, name);
+        return true;
+    }
+
+    // Export the rows of an expired month from the default partition and delete them, in one
+    // transaction that commits only when as many rows were deleted as exported. The file name
+    // carries a timestamp, as back-dated rows of the same month may arrive again later.
+    private Map<String, Object> archiveFromDefault(YearMonth month) throws IOException {
+        String range = monthRange(month);
+        Path directory = Paths.get(archiveDirectory).toAbsolutePath();
+        Files.createDirectories(directory);
+        String baseName = DEFAULT_PARTITION + "_" + month.format(NAME_FORMAT) + "_" + System.currentTimeMillis();
+        Path file = directory.resolve(baseName + ".csv.gz");
+        Path partial = directory.resolve(baseName + ".csv.gz.partial");
+        long exported;
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(partial), 1 << 16)) {
+            exported = new TransactionTemplate(transactionManager).execute(status -> {
+                jdbcTemplate.execute("LOCK TABLE " + DEFAULT_PARTITION + " IN EXCLUSIVE MODE");
+                long rows = jdbcTemplate.execute((ConnectionCallback<Long>) con -> copyOut(con.unwrap(PGConnection.class),
+                        "COPY (SELECT * FROM " + DEFAULT_PARTITION + " WHERE " + range + ") " +
+                        "TO STDOUT WITH (FORMAT csv, HEADER)", out));
+                int deleted = jdbcTemplate.update("DELETE FROM " + DEFAULT_PARTITION + " WHERE " + range);
+                if (deleted != rows) {
+                    throw new IllegalStateException("Exported " + rows + " rows of " + month + " from " +
+                            DEFAULT_PARTITION + " but deleted " + deleted);
+                }
+                return rows;
+            });
+        } catch (RuntimeException e) {
+            Files.deleteIfExists(partial);
+            throw e;
+        }
+        Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.info("Archived {} rows of {} from {} to {}", exported, month, DEFAULT_PARTITION, file);
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("partition", DEFAULT_PARTITION);
+        result.put("month", month.toString());
+        result.put("rows", exported);
+        result.put("file", file.toString());
+        return result;
+    }
+
+    // Detach (if still attached), export and drop one partition. A run interrupted after the
+    // detach finds the detached table by name next time and finishes the job.
+    private Map<String, Object> archive(String table) throws IOException {
+        if (isAttached(table)) {
+            jdbcTemplate.execute("ALTER TABLE price_history DETACH PARTITION " + table);
+        }
+
+        Path directory = Paths.get(archiveDirectory).toAbsolutePath();
+        Files.createDirectories(directory);
+        Path file = directory.resolve(table + ".csv.gz");
+        Path partial = directory.resolve(table + ".csv.gz.partial");
+        long exported;
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(partial), 1 << 16)) {
+            exported = jdbcTemplate.execute((ConnectionCallback<Long>) con ->
+                    copyOut(con.unwrap(PGConnection.class), "COPY " + table + " TO STDOUT WITH (FORMAT csv, HEADER)", out));
+        }
+        Long rows = jdbcTemplate.queryForObject("SELECT count(*) FROM " + table, Long.class);
+        if (rows == null || rows != exported) {
+            throw new IllegalStateException("Exported " + exported + " rows of " + table + " but it has " + rows);
+        }
+        Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        jdbcTemplate.execute("DROP TABLE " + table);
+        log.info("Archived {} ({} rows) to {}", table, exported, file);
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("partition", table);
+        result.put("rows", exported);
+        result.put("file", file.toString());
+        return result;
+    }
+
+    private static long copyOut(PGConnection connection, String sql, OutputStream out) {
+        try {
+            return connection.getCopyAPI().copyOut(sql, out);
+        } catch (Exception e) {
+            throw new IllegalStateException("Export failed: " + sql, e);
+        }
+    }
+
+    // Monthly partition tables by name, attached or left detached by an interrupted archive
+    private List<String> partitionTables() {
+        return jdbcTemplate.queryForList("SELECT c.relname FROM pg_class c " +
+                "WHERE c.relkind = 'r' AND c.relname ~ '^price_history_[0-9]{4}_[0-9]{2}$' " +
+                "AND pg_table_is_visible(c.oid) ORDER BY c.relname", String.class);
+    }
+
+    private boolean isAttached(String table) {
+        Integer count = jdbcTemplate.queryForObject("SELECT count(*) FROM pg_inherits i " +
+                "JOIN pg_class child ON child.oid = i.inhrelid JOIN pg_class parent ON parent.oid = i.inhparent " +
+                "WHERE child.relname = ? AND parent.relname = 'price_history'", Integer.class, table);
+        return count != null && count > 0;
+    }
+
+    private boolean tableExists(String table) {
+        Integer count = jdbcTemplate.queryForObject("SELECT count(*) FROM pg_class c " +
+                "WHERE c.relname = ? AND pg_table_is_visible(c.oid)", Integer.class, table);
+        return count != null && count > 0;
+    }
+
+    private static String partitionName(YearMonth month) {
+        return "price_history_" + month.format(NAME_FORMAT);
+    }
+
+    private static YearMonth monthOf(String table) {
+        Matcher matcher = PARTITION_NAME.matcher(table);
+        if (!matcher.matches()) return null;
+        return YearMonth.of(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)));
+    }
+}
@@ -0,0 +1,276 @@
+package com.carmarket.analyzer.service;
+
+import com.tdunning.math.stats.TDigest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Price quantile sketches (t-digest) per make/model and per make/model/year, so percentiles
+// are read without loading or sorting prices. Each sketch has a fixed size set by the
+// compression and answers mid-range quantiles to well under 1% rank error. New listings are
+// added in place; a t-digest cannot remove a value, so every write marks its groups dirty and
+// a background thread rebuilds all dirty groups from the market snapshot in one scan per
+// interval. Reads never build anything: they return the last built sketch, flagged as not
+// current while a rebuild of its group is pending. Building only takes the snapshot's own
+// lock, never the CarWriteGate, so a read inside a cache loader cannot deadlock with a write
+// that waits for that loader. Notified right after MarketSnapshot and before
+// PriceAnalysisCache (unordered), so a group is dirty before the cached analysis is dropped
+// and a loader that runs in between cannot cache a median it was told is current.
+@Service
+@Order(Ordered.HIGHEST_PRECEDENCE + 1)
+public class PriceQuantiles implements CarChangeListener {
+
+    private static final double COMPRESSION = 100;
+
+    @Autowired
+    private MarketSnapshot marketSnapshot;
+
+    @Value("${carmarket.quantiles.rebuild-interval-ms:1000}")
+    private long rebuildIntervalMillis;
+
+    private ScheduledExecutorService builder;
+
+    // Bumped by every reload; the sketches are seeded once built at the latest generation
+    private final AtomicLong generation = new AtomicLong();
+    private volatile long seededGeneration = -1;
+    private volatile ConcurrentHashMap<Key, TDigest> digests = new ConcurrentHashMap<>();
+    // Groups written since their last build, and groups being rebuilt right now
+    private final Set<Key> dirty = ConcurrentHashMap.newKeySet();
+    private final Set<Key> rebuilding = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    public void start() {
+        builder = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "price-quantiles");
+            thread.setDaemon(true);
+            return thread;
+        });
+        builder.scheduleWithFixedDelay(this::rebuildDirty, rebuildIntervalMillis, rebuildIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        builder.shutdownNow();
+    }
+
+    // Runs after MarketSnapshot has applied the write (it is ordered first), so a group
+    // marked here is either rebuilt from a scan that sees the write or marked again later
+    @Override
+    public void onCarChanged(CarState previous, CarState current) {
+        if (previous == null) {
+            // Visible at once; the rebuild replaces the group with an exact copy
+            add(digests, current);
+        } else {
+            dirty.add(Key.of(previous, false));
+            dirty.add(Key.of(previous, true));
+        }
+        dirty.add(Key.of(current, false));
+        dirty.add(Key.of(current, true));
+    }
+
+    @Override
+    public void onCarsReloaded() {
+        generation.incrementAndGet();
+    }
+
+    // Price percentiles for a make/model, or one model year of it when year is not null
+    public Percentiles percentiles(String make, String model, Integer year) {
+        Key key = new Key(make, model, year);
+        ensureSeeded();
+        // Checked before the sketch is read: a group leaves dirty only once it is being
+        // rebuilt, and leaves rebuilding once the rebuilt sketch is in place
+        boolean current = !dirty.contains(key) && !rebuilding.contains(key);
+        TDigest digest = digests.get(key);
+        if (digest == null) {
+            return new Percentiles(0, 0.0, 0.0, 0.0, 0.0, 0.0, current);
+        }
+        // Reading merges buffered values into the digest, so it is guarded like a write
+        synchronized (digest) {
+            if (digest.size() == 0) {
+                return new Percentiles(0, 0.0, 0.0, 0.0, 0.0, 0.0, current);
+            }
+            return new Percentiles(digest.size(),
+                    digest.quantile(0.10),
+                    digest.quantile(0.25),
+                    digest.quantile(0.50),
+                    digest.quantile(0.75),
+                    digest.quantile(0.90),
+                    current);
+        }
+    }
+
+    private static void add(Map<Key, TDigest> target, CarState car) {
+        add(target, Key.of(car, false), car.getPrice());
+        add(target, Key.of(car, true), car.getPrice());
+    }
+
+    private static void add(Map<Key, TDigest> target, Key key, double price) {
+        TDigest digest = target.computeIfAbsent(key, k -> TDigest.createMergingDigest(COMPRESSION));
+        synchronized (digest) {
+            digest.add(price);
+        }
+    }
+
+    // Waits for the first seed, and for a reseed after a reload. The seed runs on the build
+    // thread, which needs nothing a write holds, so waiting for it cannot deadlock.
+    private void ensureSeeded() {
+        if (seededGeneration == generation.get()) return;
+        try {
+            builder.submit(this::seed).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while seeding price quantiles", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Seeding price quantiles failed", e.getCause());
+        }
+    }
+
+    private void seed() {
+        long seeding = generation.get();
+        // Already seeded for a read that queued earlier
+        if (seededGeneration == seeding) return;
+        // Cleared before the scan, so groups written during it are rebuilt on the next run
+        dirty.clear();
+        ConcurrentHashMap<Key, TDigest> seeded = new ConcurrentHashMap<>();
+        marketSnapshot.forEachRow(car -> add(seeded, car));
+        digests = seeded;
+        seededGeneration = seeding;
+    }
+
+    // One scan rebuilds every dirty group
+    private void rebuildDirty() {
+        if (dirty.isEmpty() || seededGeneration != generation.get()) return;
+        // A group is taken out of dirty before the scan; a write after that marks it again
+        for (Iterator<Key> keys = dirty.iterator(); keys.hasNext(); ) {
+            Key key = keys.next();
+            rebuilding.add(key);
+            keys.remove();
+        }
+        try {
+            Map<Key, TDigest> rebuilt = new HashMap<>();
+            marketSnapshot.forEachRow(car -> {
+                Key modelKey = Key.of(car, false);
+                if (rebuilding.contains(modelKey)) {
+                    add(rebuilt, modelKey, car.getPrice());
+                }
+                Key yearKey = Key.of(car, true);
+                if (rebuilding.contains(yearKey)) {
+                    add(rebuilt, yearKey, car.getPrice());
+                }
+            });
+            ConcurrentHashMap<Key, TDigest> target = digests;
+            for (Key key : rebuilding) {
+                TDigest digest = rebuilt.get(key);
+                if (digest != null) {
+                    target.put(key, digest);
+                } else {
+                    target.remove(key);
+                }
+            }
+        } catch (RuntimeException e) {
+            // Retried on the next run
+            dirty.addAll(rebuilding);
+        } finally {
+            rebuilding.clear();
+        }
+    }
+
+    // make/model group when year is null, make/model/year group otherwise
+    private static final class Key {
+        private final String make;
+        private final String model;
+        private final Integer year;
+
+        Key(String make, String model, Integer year) {
+            this.make = make;
+            this.model = model;
+            this.year = year;
+        }
+
+        static Key of(CarState car, boolean withYear) {
+            return new Key(car.getMake(), car.getModel(), withYear ? car.getYear() : null);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return Objects.equals(make, other.make) && Objects.equals(model, other.model)
+                    && Objects.equals(year, other.year);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(make, model, year);
+        }
+    }
+
+    // Point-in-time price percentiles for a group
+    public static final class Percentiles {
+        private final long count;
+        private final double p10;
+        private final double p25;
+        private final double p50;
+        private final double p75;
+        private final double p90;
+        private final boolean current;
+
+        public Percentiles(long count, double p10, double p25, double p50, double p75, double p90, boolean current) {
+            this.count = count;
+            this.p10 = p10;
+            this.p25 = p25;
+            this.p50 = p50;
+            this.p75 = p75;
+            this.p90 = p90;
+            this.current = current;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getP10() {
+            return p10;
+        }
+
+        public double getP25() {
+            return p25;
+        }
+
+        public double getP50() {
+            return p50;
+        }
+
+        public double getP75() {
+            return p75;
+        }
+
+        public double getP90() {
+            return p90;
+        }
+
+        // Interquartile range
+        public double getIqr() {
+            return p75 - p25;
+        }
+
+        // False while writes to the group wait for its rebuild; the values are from the last build
+        public boolean isCurrent() {
+            return current;
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package com.carmarket.analyzer.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.*;
+
+// Daily and weekly open/high/low/close/count/sum rollups of price_history, per car and per
+// make/model, so long trend windows read a few hundred buckets instead of every raw row.
+//
+// Maintained incrementally by a background job. Each price_history row records the id of
+// the transaction that inserted it (txid column, defaulted by the database); the high-water
+// mark is the oldest transaction still running when the last run started, so every row below
+// it was already committed and nothing is skipped when writers commit out of order. A run
+// recomputes every bucket touched by rows between the previous and the new mark from the
+// raw rows, so it is idempotent and back-dated rows land in the right bucket.
+@Service
+public class PriceRollupService {
+
+    private static final Logger log = LoggerFactory.getLogger(PriceRollupService.class);
+
+    public enum Resolution {
+        RAW(null, null),
+        DAY("day", "1 day"),
+        WEEK("week", "1 week");
+
+        private final String truncateTo;
+        private final String interval;
+
+        Resolution(String truncateTo, String interval) {
+            this.truncateTo = truncateTo;
+            this.interval = interval;
+        }
+    }
+
+    // Windows up to this many days read raw rows; up to DAY_MAX_DAYS daily buckets; longer ones weekly
+    private static final int RAW_MAX_DAYS = 90;
+    private static final int DAY_MAX_DAYS = 730;
+    private static final String STATE_NAME = "price_history";
+    private static final long ADVISORY_LOCK_KEY = 0x70726963655f726fL;
+
+    private static final String[] DDL = {
+            "ALTER TABLE price_history ADD COLUMN IF NOT EXISTS txid BIGINT",
+            // Only new rows get the default; existing rows keep NULL and are covered by the first run
+            "ALTER TABLE price_history ALTER COLUMN txid SET DEFAULT txid_current()",
+            "CREATE INDEX IF NOT EXISTS idx_price_history_txid ON price_history (txid)",
+            "CREATE TABLE IF NOT EXISTS price_rollups_car (" +
+                    "car_id BIGINT NOT NULL, resolution VARCHAR(8) NOT NULL, bucket_start TIMESTAMP NOT NULL, " +
+                    "open_price DOUBLE PRECISION NOT NULL, high_price DOUBLE PRECISION NOT NULL, " +
+                    "low_price DOUBLE PRECISION NOT NULL, close_price DOUBLE PRECISION NOT NULL, " +
+                    "open_at TIMESTAMP NOT NULL, close_at TIMESTAMP NOT NULL, price_count BIGINT NOT NULL, " +
+                    "price_sum DOUBLE PRECISION NOT NULL, price_sum_squares DOUBLE PRECISION NOT NULL, " +
+                    "PRIMARY KEY (car_id, resolution, bucket_start))",
+            "CREATE INDEX IF NOT EXISTS idx_price_rollups_car_bucket ON price_rollups_car (resolution, bucket_start)",
+            "CREATE TABLE IF NOT EXISTS price_rollups_model (" +
+                    "make VARCHAR(255) NOT NULL, model VARCHAR(255) NOT NULL, resolution VARCHAR(8) NOT NULL, " +
+                    "bucket_start TIMESTAMP NOT NULL, " +
+                    "open_price DOUBLE PRECISION NOT NULL, high_price DOUBLE PRECISION NOT NULL, " +
+                    "low_price DOUBLE PRECISION NOT NULL, close_price DOUBLE PRECISION NOT NULL, " +
+                    "open_at TIMESTAMP NOT NULL, close_at TIMESTAMP NOT NULL, price_count BIGINT NOT NULL, " +
+                    "price_sum DOUBLE PRECISION NOT NULL, price_sum_squares DOUBLE PRECISION NOT NULL, " +
+                    "PRIMARY KEY (make, model, resolution, bucket_start))",
+            "CREATE TABLE IF NOT EXISTS price_rollup_state (" +
+                    "name VARCHAR(64) PRIMARY KEY, high_water BIGINT NOT NULL, updated_at TIMESTAMP NOT NULL)"
+    };
+
+    // Rows inserted by transactions in [previous mark, new mark), as plain txid bounds that
+    // idx_price_history_txid can serve. Rows from before the txid column existed have none;
+    // only the first run, which reads all history anyway, picks them up.
+    private static final String TOUCHED_ROWS =
+            "FROM price_history ph WHERE ph.txid >= ? AND ph.txid < ? AND ph.recorded_at IS NOT NULL";
+    private static final String FIRST_RUN_TOUCHED_ROWS =
+            "FROM price_history ph WHERE ((ph.txid >= ? AND ph.txid < ?) OR ph.txid IS NULL) " +
+            "AND ph.recorded_at IS NOT NULL";
+
+    private static final String ROLLUP_CARS_SQL = rollupCarsSql(TOUCHED_ROWS);
+    private static final String FIRST_RUN_ROLLUP_CARS_SQL = rollupCarsSql(FIRST_RUN_TOUCHED_ROWS);
+    private static final String ROLLUP_MODELS_SQL = rollupModelsSql(TOUCHED_ROWS);
+    private static final String FIRST_RUN_ROLLUP_MODELS_SQL = rollupModelsSql(FIRST_RUN_TOUCHED_ROWS);
+
+    private static final String BUCKET_COLUMNS =
+            "bucket_start, open_price, high_price, low_price, close_price, price_count, price_sum, price_sum_squares";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${carmarket.rollup.enabled:true}")
+    private boolean enabled;
+
+    private volatile boolean schemaReady;
+    // Set once a run has completed, so rollups cover all committed history up to the last run
+    private volatile boolean available;
+    private volatile Map<String, Object> lastRun = Collections.emptyMap();
+
+    @Scheduled(initialDelayString = "${carmarket.rollup.initial-delay-ms:30000}",
+            fixedDelayString = "${carmarket.rollup.interval-ms:300000}")
+    public void scheduledRollup() {
+        if (!enabled) return;
+        try {
+            rollup();
+        } catch (Exception e) {
+            log.warn("Price rollup failed", e);
+        }
+    }
+
+    // Roll up everything committed since the previous run; returns what was done
+    public synchronized Map<String, Object> rollup() {
+        ensureSchema();
+        long started = System.currentTimeMillis();
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        Map<String, Object> result = tx.execute(status -> {
+            // Another instance is already rolling up
+            if (!Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                    "SELECT pg_try_advisory_xact_lock(?)", Boolean.class, ADVISORY_LOCK_KEY))) {
+                return null;
+            }
+            List<Long> previous = jdbcTemplate.queryForList(
+                    "SELECT high_water FROM price_rollup_state WHERE name = ?", Long.class, STATE_NAME);
+            long from = previous.isEmpty() ? 0L : previous.get(0);
+            // Every transaction older than the snapshot's xmin has finished
+            long to = jdbcTemplate.queryForObject(
+                    "SELECT txid_snapshot_xmin(txid_current_snapshot())", Long.class);
+
+            Map<String, Object> run = new LinkedHashMap<>();
+            run.put("fromTxid", from);
+            run.put("toTxid", to);
+            boolean firstRun = previous.isEmpty();
+            for (Resolution resolution : new Resolution[]{Resolution.DAY, Resolution.WEEK}) {
+                int cars = jdbcTemplate.update(firstRun ? FIRST_RUN_ROLLUP_CARS_SQL : ROLLUP_CARS_SQL,
+                        resolution.name(), resolution.truncateTo, from, to, resolution.interval);
+                int models = jdbcTemplate.update(firstRun ? FIRST_RUN_ROLLUP_MODELS_SQL : ROLLUP_MODELS_SQL,
+                        resolution.truncateTo, from, to, resolution.name());
+                run.put(resolution.name().toLowerCase(Locale.ROOT) + "CarBuckets", cars);
+                run.put(resolution.name().toLowerCase(Locale.ROOT) + "ModelBuckets", models);
+            }
+            jdbcTemplate.update("INSERT INTO price_rollup_state (name, high_water, updated_at) VALUES (?, ?, now()) " +
+                    "ON CONFLICT (name) DO UPDATE SET high_water = EXCLUDED.high_water, updated_at = EXCLUDED.updated_at",
+                    STATE_NAME, to);
+            return run;
+        });
+        if (result == null) {
+            return Map.of("skipped", "rollup already running in another instance");
+        }
+        result.put("elapsedMillis", System.currentTimeMillis() - started);
+        available = true;
+        lastRun = result;
+        log.debug("Price rollup {}", result);
+        return result;
+    }
+
+    public Map<String, Object> getLastRun() {
+        return lastRun;
+    }
+
+    // Coarsest resolution that still gives a useful number of points for a window of days;
+    // raw until a rollup has completed
+    public Resolution resolutionFor(int days) {
+        if (!available || days <= RAW_MAX_DAYS) return Resolution.RAW;
+        return days <= DAY_MAX_DAYS ? Resolution.DAY : Resolution.WEEK;
+    }
+
+    // One car's buckets from the bucket containing start onwards, oldest first
+    public List<Bucket> carBuckets(Long carId, Resolution resolution, LocalDateTime start) {
+        return jdbcTemplate.query("SELECT " + BUCKET_COLUMNS + " FROM price_rollups_car " +
+                        "WHERE car_id = ? AND resolution = ? AND bucket_start >= date_trunc(?, CAST(? AS TIMESTAMP)) " +
+                        "ORDER BY bucket_start",
+                BUCKET_MAPPER, carId, resolution.name(), resolution.truncateTo, Timestamp.valueOf(start));
+    }
+
+    // One make/model's buckets from the bucket containing start onwards, oldest first
+    public List<Bucket> modelBuckets(String make, String model, Resolution resolution, LocalDateTime start) {
+        return jdbcTemplate.query("SELECT " + BUCKET_COLUMNS + " FROM price_rollups_model " +
+                        "WHERE make = ? AND model = ? AND resolution = ? " +
+                        "AND bucket_start >= date_trunc(?, CAST(? AS TIMESTAMP)) ORDER BY bucket_start",
+                BUCKET_MAPPER, make, model, resolution.name(), resolution.truncateTo, Timestamp.valueOf(start));
+    }
+
+    private static String rollupCarsSql(String touchedRows) {
+        return "INSERT INTO price_rollups_car (car_id, resolution, bucket_start, open_price, high_price, low_price, " +
+                "close_price, open_at, close_at, price_count, price_sum, price_sum_squares) " +
+                "SELECT ph.car_id, ?, t.bucket_start, " +
+                "(array_agg(ph.price ORDER BY ph.recorded_at, ph.id))[1], max(ph.price), min(ph.price), " +
+                "(array_agg(ph.price ORDER BY ph.recorded_at DESC, ph.id DESC))[1], " +
+                "min(ph.recorded_at), max(ph.recorded_at), count(*), sum(ph.price), sum(ph.price * ph.price) " +
+                "FROM (SELECT DISTINCT ph.car_id, date_trunc(?, ph.recorded_at) AS bucket_start " + touchedRows + ") t " +
+                "JOIN price_history ph ON ph.car_id = t.car_id AND ph.recorded_at >= t.bucket_start " +
+                "AND ph.recorded_at < t.bucket_start + CAST(? AS INTERVAL) " +
+                "GROUP BY ph.car_id, t.bucket_start " +
+                "ON CONFLICT (car_id, resolution, bucket_start) DO UPDATE SET " +
+                "open_price = EXCLUDED.open_price, high_price = EXCLUDED.high_price, low_price = EXCLUDED.low_price, " +
+                "close_price = EXCLUDED.close_price, open_at = EXCLUDED.open_at, close_at = EXCLUDED.close_at, " +
+                "price_count = EXCLUDED.price_count, price_sum = EXCLUDED.price_sum, " +
+                "price_sum_squares = EXCLUDED.price_sum_squares";
+    }
+
+    // Make/model buckets are merged from the (already recomputed) car buckets of that make/model
+    private static String rollupModelsSql(String touchedRows) {
+        return "INSERT INTO price_rollups_model (make, model, resolution, bucket_start, open_price, high_price, " +
+                "low_price, close_price, open_at, close_at, price_count, price_sum, price_sum_squares) " +
+                "SELECT c.make, c.model, r.resolution, r.bucket_start, " +
+                "(array_agg(r.open_price ORDER BY r.open_at))[1], max(r.high_price), min(r.low_price), " +
+                "(array_agg(r.close_price ORDER BY r.close_at DESC))[1], " +
+                "min(r.open_at), max(r.close_at), sum(r.price_count), sum(r.price_sum), sum(r.price_sum_squares) " +
+                "FROM (SELECT DISTINCT c.make, c.model, date_trunc(?, ph.recorded_at) AS bucket_start " +
+                touchedRows.replace("FROM price_history ph", "FROM price_history ph JOIN cars c ON c.id = ph.car_id") +
+                ") t " +
+                "JOIN cars c ON c.make = t.make AND c.model = t.model " +
+                "JOIN price_rollups_car r ON r.car_id = c.id AND r.resolution = ? AND r.bucket_start = t.bucket_start " +
+                "GROUP BY c.make, c.model, r.resolution, r.bucket_start " +
+                "ON CONFLICT (make, model, resolution, bucket_start) DO UPDATE SET " +
+                "open_price = EXCLUDED.open_price, high_price = EXCLUDED.high_price, low_price = EXCLUDED.low_price, " +
+                "close_price = EXCLUDED.close_price, open_at = EXCLUDED.open_at, close_at = EXCLUDED.close_at, " +
+                "price_count = EXCLUDED.price_count, price_sum = EXCLUDED.price_sum, " +
+                "price_sum_squares = EXCLUDED.price_sum_squares";
+    }
+
+    private void ensureSchema() {
+        if (schemaReady) return;
+        for (String statement : DDL) {
+            jdbcTemplate.execute(statement);
+        }
+        schemaReady = true;
+    }
+
+    private static final RowMapper<Bucket> BUCKET_MAPPER = (rs, rowNum) -> new Bucket(
+            rs.getTimestamp("bucket_start").toLocalDateTime(),
+            rs.getDouble("open_price"),
+            rs.getDouble("high_price"),
+            rs.getDouble("low_price"),
+            rs.getDouble("close_price"),
+            rs.getLong("price_count"),
+            rs.getDouble("price_sum"),
+            rs.getDouble("price_sum_squares"));
+
+    // One time bucket of prices
+    public static final class Bucket {
+        private final LocalDateTime start;
+        private final double open;
+        private final double high;
+        private final double low;
+        private final double close;
+        private final long count;
+        private final double sum;
+        private final double sumOfSquares;
+
+        public Bucket(LocalDateTime start, double open, double high, double low, double close,
+                      long count, double sum, double sumOfSquares) {
+            this.start = start;
+            this.open = open;
+            this.high = high;
+            this.low = low;
+            this.close = close;
+            this.count = count;
+            this.sum = sum;
+            this.sumOfSquares = sumOfSquares;
+        }
+
+        public LocalDateTime getStart() {
+            return start;
+        }
+
+        public double getOpen() {
+            return open;
+        }
+
+        public double getHigh() {
+            return high;
+        }
+
+        public double getLow() {
+            return low;
+        }
+
+        public double getClose() {
+            return close;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getSum() {
+            return sum;
+        }
+
+        public double getSumOfSquares() {
+            return sumOfSquares;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.carmarket.analyzer.service;
+
+import org.roaringbitmap.FastAggregation;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.function.IntToDoubleFunction;
+
+// Sorted range index over one numeric field. Rows are grouped into fixed-width value
+// buckets, each holding a bitmap of row numbers. A range query ORs the buckets fully
+// inside the range and checks only the rows of the two edge buckets against their
+// exact values. Not thread-safe; callers synchronize.
+final class RangeIndex {
+
+    private final double bucketWidth;
+    private final TreeMap<Long, RoaringBitmap> buckets = new TreeMap<>();
+
+    RangeIndex(double bucketWidth) {
+        this.bucketWidth = bucketWidth;
+    }
+
+    void add(int row, double value) {
+        buckets.computeIfAbsent(bucketOf(value), b -> new RoaringBitmap()).add(row);
+    }
+
+    void remove(int row, double value) {
+        Long bucket = bucketOf(value);
+        RoaringBitmap rows = buckets.get(bucket);
+        if (rows != null) {
+            rows.remove(row);
+            if (rows.isEmpty()) {
+                buckets.remove(bucket);
+            }
+        }
+    }
+
+    void clear() {
+        buckets.clear();
+    }
+
+    // Rows whose value lies in [from, to]; either bound may be null for an open range.
+    // valueOf returns the exact value stored for a row.
+    RoaringBitmap between(Double from, Double to, IntToDoubleFunction valueOf) {
+        if (buckets.isEmpty()) return new RoaringBitmap();
+        long firstBucket = from != null ? bucketOf(from) : buckets.firstKey();
+        long lastBucket = to != null ? bucketOf(to) : buckets.lastKey();
+        if (firstBucket > lastBucket) return new RoaringBitmap();
+
+        NavigableMap<Long, RoaringBitmap> covered = buckets.subMap(firstBucket, true, lastBucket, true);
+        RoaringBitmap result = new RoaringBitmap();
+        RoaringBitmap[] inner = covered.entrySet().stream()
+                .filter(e -> e.getKey() != firstBucket && e.getKey() != lastBucket)
+                .map(Map.Entry::getValue)
+                .toArray(RoaringBitmap[]::new);
+        if (inner.length > 0) {
+            result = FastAggregation.or(inner);
+        }
+
+        // Edge buckets may hold values just outside the range
+        addMatchingRows(result, covered.get(firstBucket), from, to, valueOf);
+        if (lastBucket != firstBucket) {
+            addMatchingRows(result, covered.get(lastBucket), from, to, valueOf);
+        }
+        return result;
+    }
+
+    private static void addMatchingRows(RoaringBitmap result, RoaringBitmap edge,
+                                        Double from, Double to, IntToDoubleFunction valueOf) {
+        if (edge == null) return;
+        edge.forEach((int row) -> {
+            double value = valueOf.applyAsDouble(row);
+            if ((from == null || value >= from) && (to == null || value <= to)) {
+                result.add(row);
+            }
+        });
+    }
+
+    private long bucketOf(double value) {
+        return (long) Math.floor(value / bucketWidth);
+    }
+}
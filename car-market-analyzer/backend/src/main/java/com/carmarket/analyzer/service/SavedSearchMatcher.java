@@ -0,0 +1,459 @@
+package com.carmarket.analyzer.service;
+
+import com.carmarket.analyzer.dto.CarSearchRequest;
+import com.carmarket.analyzer.repository.FavoriteSearchRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.roaringbitmap.RoaringBitmap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Matches written cars against every saved search at once, instead of re-running each
+// search. Saved searches are compiled into a predicate index: for each categorical field a
+// bitmap of searches per required value plus one of searches that accept any value, and for
+// year, price and mileage an interval tree of the searches' ranges. A car's candidates are
+// the intersection of the bitmaps for its values; when few are left, their ranges are
+// checked directly, otherwise the interval trees are stabbed with the car's values.
+// Searches added since the trees were built wait in a small pending set, and removed ones
+// are skipped, until the next rebuild.
+//
+// A car that starts matching a search (a new listing, or a change that brought it into the
+// range) is queued for the search's owner. Cars loaded in bulk (imports) are not matched.
+@Service
+public class SavedSearchMatcher implements CarChangeListener {
+
+    private static final Logger log = LoggerFactory.getLogger(SavedSearchMatcher.class);
+
+    // At most this many candidates left after the categorical fields: check ranges one by one
+    private static final int DIRECT_CHECK_LIMIT = 4096;
+    private static final int MIN_REBUILD = 1024;
+
+    private static final int CATEGORICALS = 5; // make, model, location, fuel type, transmission
+    private static final int RANGES = 3;       // year, price, mileage
+
+    @Autowired
+    private FavoriteSearchRepository favoriteSearchRepository;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${carmarket.alerts.queue-capacity:200}")
+    private int queueCapacity;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile boolean loaded;
+
+    // Slot -> compiled search; slots are bitmap positions and are never reused before a rebuild
+    private Compiled[] searches = new Compiled[1024];
+    private int slots;
+    private int removedSinceRebuild;
+    private final Map<Long, Integer> slotBySearchId = new HashMap<>();
+    private final List<Map<String, RoaringBitmap>> byValue = new ArrayList<>();
+    private final RoaringBitmap[] anyValue = new RoaringBitmap[CATEGORICALS];
+    private final IntervalTree[] trees = new IntervalTree[RANGES];
+    private final RoaringBitmap[] unbounded = new RoaringBitmap[RANGES];
+    private final RoaringBitmap[] pending = new RoaringBitmap[RANGES];
+
+    private final AtomicLong sequence = new AtomicLong();
+    private final ConcurrentHashMap<Long, ArrayDeque<Match>> queues = new ConcurrentHashMap<>();
+
+    public SavedSearchMatcher() {
+        for (int i = 0; i < CATEGORICALS; i++) {
+            byValue.add(new HashMap<>());
+            anyValue[i] = new RoaringBitmap();
+        }
+        for (int r = 0; r < RANGES; r++) {
+            trees[r] = new IntervalTree(new int[0], new double[0], new double[0]);
+            unbounded[r] = new RoaringBitmap();
+            pending[r] = new RoaringBitmap();
+        }
+    }
+
+    @Override
+    public void onCarChanged(CarState previous, CarState current) {
+        ensureLoaded();
+        List<Compiled> matches;
+        Set<Compiled> matchedBefore;
+        lock.readLock().lock();
+        try {
+            if (slotBySearchId.isEmpty()) return;
+            matches = match(current);
+            matchedBefore = previous != null && !matches.isEmpty()
+                    ? new HashSet<>(match(previous))
+                    : Collections.emptySet();
+        } finally {
+            lock.readLock().unlock();
+        }
+        String reason = previous == null ? "new" : "changed";
+        for (Compiled search : matches) {
+            if (!matchedBefore.contains(search)) {
+                enqueue(search, current, reason);
+            }
+        }
+    }
+
+    // Add or replace a saved search; call after it has been committed
+    public void put(long searchId, long userId, CarSearchRequest criteria) {
+        lock.writeLock().lock();
+        try {
+            // Not loaded yet: the pending load will read the committed search
+            if (!loaded) return;
+            removeSlot(searchId);
+            addSlot(compile(searchId, userId, criteria));
+            rebuildIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(long searchId) {
+        lock.writeLock().lock();
+        try {
+            if (!loaded) return;
+            removeSlot(searchId);
+            rebuildIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Ids of the saved searches the car matches
+    public List<Long> matchingSearchIds(CarState car) {
+        ensureLoaded();
+        lock.readLock().lock();
+        try {
+            List<Long> ids = new ArrayList<>();
+            for (Compiled search : match(car)) {
+                ids.add(search.searchId);
+            }
+            return ids;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Queued matches of a user, oldest first
+    public List<Match> pendingMatches(long userId) {
+        ArrayDeque<Match> queue = queues.get(userId);
+        if (queue == null) return Collections.emptyList();
+        synchronized (queue) {
+            return new ArrayList<>(queue);
+        }
+    }
+
+    // Drop a user's queued matches up to and including a sequence number; returns how many
+    public int acknowledge(long userId, long upToSequence) {
+        ArrayDeque<Match> queue = queues.get(userId);
+        if (queue == null) return 0;
+        int dropped = 0;
+        synchronized (queue) {
+            while (!queue.isEmpty() && queue.peekFirst().getSequence() <= upToSequence) {
+                queue.pollFirst();
+                dropped++;
+            }
+        }
+        return dropped;
+    }
+
+    // Must hold the read lock
+    private List<Compiled> match(CarState car) {
+        String[] values = {car.getMake(), car.getModel(), car.getLocation(), car.getFuelType(), car.getTransmission()};
+        double[] points = {car.getYear(), car.getPrice(), car.getMileage()};
+
+        RoaringBitmap candidates = null;
+        for (int i = 0; i < CATEGORICALS; i++) {
+            RoaringBitmap required = values[i] != null ? byValue.get(i).get(values[i]) : null;
+            RoaringBitmap accepted = required != null ? RoaringBitmap.or(required, anyValue[i]) : anyValue[i];
+            candidates = candidates == null ? accepted.clone() : RoaringBitmap.and(candidates, accepted);
+            if (candidates.isEmpty()) return Collections.emptyList();
+        }
+
+        List<Compiled> matches = new ArrayList<>();
+        if (candidates.getCardinality() <= DIRECT_CHECK_LIMIT) {
+            candidates.forEach((int slot) -> {
+                Compiled search = searches[slot];
+                if (search != null && search.inRanges(points)) {
+                    matches.add(search);
+                }
+            });
+            return matches;
+        }
+
+        for (int r = 0; r < RANGES; r++) {
+            int range = r;
+            RoaringBitmap inRange = unbounded[r].clone();
+            trees[r].stab(points[r], inRange::add);
+            pending[r].forEach((int slot) -> {
+                Compiled search = searches[slot];
+                if (search != null && search.inRange(range, points[range])) {
+                    inRange.add(slot);
+                }
+            });
+            candidates.and(inRange);
+            if (candidates.isEmpty()) return matches;
+        }
+        candidates.forEach((int slot) -> {
+            // Removed searches stay in the trees until the next rebuild
+            if (searches[slot] != null) {
+                matches.add(searches[slot]);
+            }
+        });
+        return matches;
+    }
+
+    private void enqueue(Compiled search, CarState car, String reason) {
+        Match match = new Match(sequence.incrementAndGet(), search.searchId, car, reason);
+        ArrayDeque<Match> queue = queues.computeIfAbsent(search.userId, id -> new ArrayDeque<>());
+        synchronized (queue) {
+            // Bounded per user: the oldest matches go first
+            if (queue.size() >= queueCapacity) {
+                queue.pollFirst();
+            }
+            queue.addLast(match);
+        }
+    }
+
+    private void ensureLoaded() {
+        if (loaded) return;
+        lock.writeLock().lock();
+        try {
+            if (loaded) return;
+            List<Compiled> compiled = new ArrayList<>();
+            for (Object[] row : favoriteSearchRepository.findAllCriteria()) {
+                Long searchId = (Long) row[0];
+                try {
+                    CarSearchRequest criteria = objectMapper.readValue((String) row[2], CarSearchRequest.class);
+                    compiled.add(compile(searchId, (Long) row[1], criteria));
+                } catch (Exception e) {
+                    log.warn("Skipping saved search {} with unreadable criteria: {}", searchId, e.getMessage());
+                }
+            }
+            rebuild(compiled);
+            loaded = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Must hold the write lock
+    private void rebuildIfNeeded() {
+        int pendingCount = 0;
+        int indexed = 0;
+        for (int r = 0; r < RANGES; r++) {
+            pendingCount += pending[r].getCardinality();
+            indexed += trees[r].size();
+        }
+        int live = slotBySearchId.size();
+        if (pendingCount > Math.max(MIN_REBUILD, indexed / 8)
+                || removedSinceRebuild > Math.max(MIN_REBUILD, live / 8)) {
+            List<Compiled> compiled = new ArrayList<>(live);
+            for (int slot = 0; slot < slots; slot++) {
+                if (searches[slot] != null) {
+                    compiled.add(searches[slot]);
+                }
+            }
+            rebuild(compiled);
+        }
+    }
+
+    // Must hold the write lock; reindexes the searches into dense slots with fresh trees
+    private void rebuild(List<Compiled> compiled) {
+        searches = new Compiled[Math.max(1024, compiled.size() + compiled.size() / 4)];
+        slots = 0;
+        removedSinceRebuild = 0;
+        slotBySearchId.clear();
+        byValue.forEach(Map::clear);
+        for (int i = 0; i < CATEGORICALS; i++) {
+            anyValue[i].clear();
+        }
+        for (int r = 0; r < RANGES; r++) {
+            unbounded[r].clear();
+            pending[r].clear();
+        }
+        compiled.forEach(this::addSlot);
+
+        for (int r = 0; r < RANGES; r++) {
+            int[] ids = pending[r].toArray();
+            double[] lows = new double[ids.length];
+            double[] highs = new double[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                lows[i] = searches[ids[i]].lows[r];
+                highs[i] = searches[ids[i]].highs[r];
+            }
+            trees[r] = new IntervalTree(ids, lows, highs);
+            pending[r].clear();
+        }
+    }
+
+    // Must hold the write lock
+    private void addSlot(Compiled search) {
+        if (slots == searches.length) {
+            searches = Arrays.copyOf(searches, slots + (slots >> 1));
+        }
+        int slot = slots++;
+        searches[slot] = search;
+        slotBySearchId.put(search.searchId, slot);
+        for (int i = 0; i < CATEGORICALS; i++) {
+            if (search.values[i] == null) {
+                anyValue[i].add(slot);
+            } else {
+                byValue.get(i).computeIfAbsent(search.values[i], v -> new RoaringBitmap()).add(slot);
+            }
+        }
+        for (int r = 0; r < RANGES; r++) {
+            (search.ranged[r] ? pending[r] : unbounded[r]).add(slot);
+        }
+    }
+
+    // Must hold the write lock
+    private void removeSlot(long searchId) {
+        Integer slot = slotBySearchId.remove(searchId);
+        if (slot == null) return;
+        Compiled search = searches[slot];
+        searches[slot] = null;
+        removedSinceRebuild++;
+        for (int i = 0; i < CATEGORICALS; i++) {
+            if (search.values[i] == null) {
+                anyValue[i].remove(slot);
+            } else {
+                RoaringBitmap bitmap = byValue.get(i).get(search.values[i]);
+                bitmap.remove(slot);
+                if (bitmap.isEmpty()) {
+                    byValue.get(i).remove(search.values[i]);
+                }
+            }
+        }
+        for (int r = 0; r < RANGES; r++) {
+            unbounded[r].remove(slot);
+            pending[r].remove(slot);
+        }
+    }
+
+    private static Compiled compile(long searchId, long userId, CarSearchRequest criteria) {
+        Compiled search = new Compiled(searchId, userId);
+        search.values[0] = valueOf(criteria.getMake());
+        search.values[1] = valueOf(criteria.getModel());
+        search.values[2] = valueOf(criteria.getLocation());
+        search.values[3] = valueOf(criteria.getFuelType());
+        search.values[4] = valueOf(criteria.getTransmission());
+        search.setRange(0, criteria.getYearFrom(), criteria.getYearTo());
+        search.setRange(1, criteria.getPriceFrom(), criteria.getPriceTo());
+        search.setRange(2, criteria.getMileageFrom(), criteria.getMileageTo());
+        return search;
+    }
+
+    // Blank strings count as not set, as in CarSpecifications
+    private static String valueOf(String value) {
+        return value == null || value.isBlank() ? null : value;
+    }
+
+    private static final class Compiled {
+        private final long searchId;
+        private final long userId;
+        private final String[] values = new String[CATEGORICALS];
+        private final boolean[] ranged = new boolean[RANGES];
+        private final double[] lows = new double[RANGES];
+        private final double[] highs = new double[RANGES];
+
+        Compiled(long searchId, long userId) {
+            this.searchId = searchId;
+            this.userId = userId;
+        }
+
+        void setRange(int range, Number from, Number to) {
+            ranged[range] = from != null || to != null;
+            lows[range] = from != null ? from.doubleValue() : Double.NEGATIVE_INFINITY;
+            highs[range] = to != null ? to.doubleValue() : Double.POSITIVE_INFINITY;
+            if (lows[range] > highs[range]) {
+                throw new IllegalArgumentException("Range starts after it ends");
+            }
+        }
+
+        boolean inRange(int range, double point) {
+            return point >= lows[range] && point <= highs[range];
+        }
+
+        boolean inRanges(double[] points) {
+            for (int r = 0; r < RANGES; r++) {
+                if (!inRange(r, points[r])) return false;
+            }
+            return true;
+        }
+    }
+
+    // A car that started matching a saved search
+    public static final class Match {
+        private final long sequence;
+        private final long searchId;
+        private final long carId;
+        private final String make;
+        private final String model;
+        private final int year;
+        private final String location;
+        private final double price;
+        private final String reason;
+        private final LocalDateTime matchedAt = LocalDateTime.now();
+
+        Match(long sequence, long searchId, CarState car, String reason) {
+            this.sequence = sequence;
+            this.searchId = searchId;
+            this.carId = car.getId();
+            this.make = car.getMake();
+            this.model = car.getModel();
+            this.year = car.getYear();
+            this.location = car.getLocation();
+            this.price = car.getPrice();
+            this.reason = reason;
+        }
+
+        // Increasing across all users; pass the last one seen to acknowledge
+        public long getSequence() {
+            return sequence;
+        }
+
+        public long getSearchId() {
+            return searchId;
+        }
+
+        public long getCarId() {
+            return carId;
+        }
+
+        public String getMake() {
+            return make;
+        }
+
+        public String getModel() {
+            return model;
+        }
+
+        public int getYear() {
+            return year;
+        }
+
+        public String getLocation() {
+            return location;
+        }
+
+        public double getPrice() {
+            return price;
+        }
+
+        // "new" for a new listing, "changed" for a listing whose change made it match
+        public String getReason() {
+            return reason;
+        }
+
+        public LocalDateTime getMatchedAt() {
+            return matchedAt;
+        }
+    }
+}
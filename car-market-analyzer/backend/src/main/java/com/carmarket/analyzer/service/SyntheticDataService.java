@@ -0,0 +1,200 @@
+package com.carmarket.analyzer.service;
+
+import com.carmarket.analyzer.model.Car;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Fills the database (or a CSV file for the listing importer) with synthetic market data
+// from MarketDataGenerator, for load and scale testing. Runs in the background and
+// reports progress like an import. Only the database target generates price history; the
+// importer gives each listing a single price history row, so a file holds listings only.
+@Service
+public class SyntheticDataService {
+
+    public enum Target { DATABASE, FILE }
+
+    public static final int DEFAULT_PRICE_POINTS = 5;
+    public static final int DEFAULT_HISTORY_DAYS = 365;
+
+    private static final int BATCH_SIZE = 2000;
+    private static final long HISTORY_SEED_SALT = 0x9E3779B97F4A7C15L;
+    private static final String CSV_HEADER =
+            "make,model,year,location,price,engineSpecs,fuelType,transmission,mileage,safetyRating";
+    private static final String NEXT_IDS_SQL = "SELECT nextval('cars_id_seq') FROM generate_series(1, ?)";
+    private static final String INSERT_CAR_SQL =
+            "INSERT INTO cars (id, make, model, year, location, price, engine_specs, fuel_type, transmission, " +
+            "mileage, safety_rating, created_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private List<CarChangeListener> carChangeListeners;
+
+    @Autowired
+    private DataVersion dataVersion;
+
+    // Generated files are written to the import directory so they can be imported directly
+    @Value("${carmarket.import.directory:imports}")
+    private String importDirectory;
+
+    private final Map<String, Map<String, Object>> runs = new ConcurrentHashMap<>();
+    private final ExecutorService runner = Executors.newSingleThreadExecutor();
+
+    // Start generating in the background; returns the run id. pricePoints and historyDays
+    // (null for the defaults) apply to the database target only and are rejected for files.
+    // The same seed yields the same listings for both targets.
+    public String start(Target target, long cars, Integer pricePoints, Integer historyDays, long seed, String fileName) {
+        if (target == Target.FILE && (pricePoints != null || historyDays != null)) {
+            throw new IllegalArgumentException("pricePoints and historyDays apply to target DATABASE only");
+        }
+        int points = pricePoints != null ? pricePoints : DEFAULT_PRICE_POINTS;
+        int days = historyDays != null ? historyDays : DEFAULT_HISTORY_DAYS;
+        if (cars <= 0 || points < 1 || days < 0) {
+            throw new IllegalArgumentException("cars and pricePoints must be positive");
+        }
+        Path file = null;
+        if (target == Target.FILE) {
+            Path root = Paths.get(importDirectory).toAbsolutePath().normalize();
+            file = root.resolve(fileName != null ? fileName : "synthetic-" + seed + "-" + cars + ".csv").normalize();
+            if (!file.startsWith(root)) {
+                throw new IllegalArgumentException("File must be inside the import directory");
+            }
+        }
+
+        String id = UUID.randomUUID().toString();
+        AtomicLong generated = new AtomicLong();
+        Map<String, Object> status = new ConcurrentHashMap<>();
+        status.put("id", id);
+        status.put("target", target);
+        status.put("requestedCars", cars);
+        if (target == Target.DATABASE) {
+            status.put("pricePoints", points);
+            status.put("historyDays", days);
+        }
+        status.put("seed", seed);
+        status.put("status", "RUNNING");
+        if (file != null) {
+            status.put("file", file.toString());
+        }
+        runs.put(id, status);
+
+        Path output = file;
+        long started = System.nanoTime();
+        runner.submit(() -> {
+            try {
+                if (target == Target.FILE) {
+                    writeCsv(output, cars, seed, generated, status);
+                } else {
+                    writeDatabase(cars, points, days, seed, generated, status);
+                }
+                status.put("status", "COMPLETED");
+            } catch (Exception e) {
+                status.put("status", "FAILED");
+                status.put("error", String.valueOf(e.getMessage()));
+            } finally {
+                // Batches committed before a failure are in the database too
+                if (target == Target.DATABASE) {
+                    carChangeListeners.forEach(CarChangeListener::onCarsReloaded);
+                    dataVersion.carsReloaded();
+                }
+                long elapsedMillis = (System.nanoTime() - started) / 1_000_000;
+                status.put("elapsedMillis", elapsedMillis);
+                status.put("carsPerSecond", elapsedMillis > 0 ? generated.get() * 1000.0 / elapsedMillis : 0.0);
+            }
+        });
+        return id;
+    }
+
+    public Optional<Map<String, Object>> getRun(String id) {
+        return Optional.ofNullable(runs.get(id));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        runner.shutdownNow();
+    }
+
+    private void writeCsv(Path file, long cars, long seed, AtomicLong generated, Map<String, Object> status)
+            throws IOException {
+        Files.createDirectories(file.getParent());
+        MarketDataGenerator generator = new MarketDataGenerator(seed, LocalDateTime.now().getYear());
+        try (BufferedWriter out = Files.newBufferedWriter(file)) {
+            out.write(CSV_HEADER);
+            out.newLine();
+            for (long i = 0; i < cars; i++) {
+                Car car = generator.nextCar();
+                out.write(String.join(",", quote(car.getMake()), quote(car.getModel()),
+                        Integer.toString(car.getYear()), quote(car.getLocation()), Double.toString(car.getPrice()),
+                        quote(car.getEngineSpecs()), quote(car.getFuelType()), quote(car.getTransmission()),
+                        Double.toString(car.getMileage()), Double.toString(car.getSafetyRating())));
+                out.newLine();
+                if (generated.incrementAndGet() % BATCH_SIZE == 0) {
+                    status.put("generatedCars", generated.get());
+                }
+            }
+        }
+        status.put("generatedCars", generated.get());
+    }
+
+    // Cars and their price history, one transaction and two JDBC batches per block of cars
+    private void writeDatabase(long cars, int pricePoints, int historyDays, long seed,
+                               AtomicLong generated, Map<String, Object> status) {
+        LocalDateTime now = LocalDateTime.now();
+        MarketDataGenerator listings = new MarketDataGenerator(seed, now.getYear());
+        MarketDataGenerator histories = new MarketDataGenerator(seed ^ HISTORY_SEED_SALT, now.getYear());
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+
+        while (generated.get() < cars) {
+            int batch = (int) Math.min(BATCH_SIZE, cars - generated.get());
+            List<Object[]> carRows = new ArrayList<>(batch);
+            List<Object[]> historyRows = new ArrayList<>(batch * pricePoints);
+            tx.executeWithoutResult(txStatus -> {
+                List<Long> ids = jdbcTemplate.queryForList(NEXT_IDS_SQL, Long.class, batch);
+                for (int i = 0; i < batch; i++) {
+                    Car car = listings.nextCar();
+                    MarketDataGenerator.PricePoint[] history =
+                            histories.nextPriceHistory(car.getPrice(), pricePoints, now, historyDays);
+                    Timestamp listedAt = Timestamp.valueOf(history[0].getRecordedAt());
+                    carRows.add(new Object[]{ids.get(i), car.getMake(), car.getModel(), car.getYear(),
+                            car.getLocation(), car.getPrice(), car.getEngineSpecs(), car.getFuelType(),
+                            car.getTransmission(), car.getMileage(), car.getSafetyRating(), listedAt});
+                    for (MarketDataGenerator.PricePoint point : history) {
+                        historyRows.add(new Object[]{ids.get(i), point.getPrice(),
+                                Timestamp.valueOf(point.getRecordedAt())});
+                    }
+                }
+                jdbcTemplate.batchUpdate(INSERT_CAR_SQL, carRows);
+                PriceHistoryInserts.insert(jdbcTemplate, historyRows);
+            });
+            status.put("generatedCars", generated.addAndGet(batch));
+        }
+    }
+
+    private static String quote(String value) {
+        if (value == null) return "";
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0) return value;
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
@@ -0,0 +1,296 @@
+package com.carmarket.analyzer.service;
+
+import com.carmarket.analyzer.model.User;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.Principal;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Signed access and refresh tokens, so a password is checked with BCrypt once per login and
+// each request only costs an HMAC. Tokens are JWTs (HS256) carrying the user id, name and
+// role, a type, issue and expiry times and a token id. Besides the standard iat in seconds,
+// a token carries its issue time in milliseconds (iat_ms) to compare against revocations. Access tokens are short-lived; a
+// refresh token is exchanged once for a new pair, issued with the user's role at that time.
+// Logout revokes token ids, and a password change or user
+// deletion revokes every token of the user issued until then. Revocations are held in memory
+// until the tokens would have expired anyway, so they do not survive a restart and are not
+// shared between instances.
+@Service
+public class TokenService {
+
+    private static final Logger log = LoggerFactory.getLogger(TokenService.class);
+
+    public static final String ACCESS = "access";
+    public static final String REFRESH = "refresh";
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int MIN_SECRET_BYTES = 32;
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+    // The only header issued; anything else (another alg in particular) is rejected
+    private static final String HEADER =
+            ENCODER.encodeToString("{\"alg\":\"HS256\",\"typ\":\"JWT\"}".getBytes(StandardCharsets.UTF_8));
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${carmarket.auth.secret:}")
+    private String secret;
+
+    @Value("${carmarket.auth.access-token-minutes:15}")
+    private long accessTokenMinutes;
+
+    @Value("${carmarket.auth.refresh-token-days:14}")
+    private long refreshTokenDays;
+
+    private SecretKeySpec key;
+    // Mac is not thread-safe; one initialized instance per thread
+    private final ThreadLocal<Mac> macs = ThreadLocal.withInitial(this::newMac);
+
+    // Revoked token id -> its expiry (epoch seconds)
+    private final ConcurrentHashMap<String, Long> revoked = new ConcurrentHashMap<>();
+    // User id -> tokens issued at or before this time (epoch milliseconds) are revoked
+    private final ConcurrentHashMap<Long, Long> revokedUntil = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        byte[] bytes;
+        if (secret == null || secret.isBlank()) {
+            log.warn("carmarket.auth.secret is not set; signing tokens with a random key, so they stop " +
+                    "working on restart and are not accepted by other instances");
+            bytes = new byte[MIN_SECRET_BYTES];
+            new SecureRandom().nextBytes(bytes);
+        } else {
+            bytes = secret.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length < MIN_SECRET_BYTES) {
+                throw new IllegalStateException("carmarket.auth.secret must be at least " + MIN_SECRET_BYTES + " bytes");
+            }
+        }
+        key = new SecretKeySpec(bytes, ALGORITHM);
+    }
+
+    // New access and refresh token for a user whose password (or refresh token) has just been checked
+    public TokenPair issue(long userId, String username, String role) {
+        long nowMillis = System.currentTimeMillis();
+        long now = nowMillis / 1000;
+        long accessSeconds = TimeUnit.MINUTES.toSeconds(accessTokenMinutes);
+        long refreshSeconds = TimeUnit.DAYS.toSeconds(refreshTokenDays);
+        return new TokenPair(
+                sign(userId, username, role, ACCESS, nowMillis, now + accessSeconds),
+                sign(userId, username, role, REFRESH, nowMillis, now + refreshSeconds),
+                accessSeconds, refreshSeconds);
+    }
+
+    // Claims of a valid, unexpired, unrevoked token of the given type; empty otherwise
+    public Optional<Claims> verify(String token, String type) {
+        if (token == null) return Optional.empty();
+        int payloadStart = token.indexOf('.');
+        int signatureStart = token.lastIndexOf('.');
+        if (payloadStart < 0 || signatureStart <= payloadStart
+                || !token.regionMatches(0, HEADER, 0, payloadStart) || payloadStart != HEADER.length()) {
+            return Optional.empty();
+        }
+        try {
+            byte[] expected = macs.get().doFinal(token.substring(0, signatureStart).getBytes(StandardCharsets.US_ASCII));
+            byte[] actual = DECODER.decode(token.substring(signatureStart + 1));
+            if (!MessageDigest.isEqual(expected, actual)) return Optional.empty();
+
+            JsonNode payload = objectMapper.readTree(DECODER.decode(token.substring(payloadStart + 1, signatureStart)));
+            Claims claims = new Claims(
+                    Long.parseLong(payload.path("sub").asText()),
+                    payload.path("name").asText(),
+                    payload.path("role").asText(),
+                    payload.path("typ").asText(),
+                    payload.path("jti").asText(),
+                    payload.path("iat").asLong(),
+                    // Tokens issued before iat_ms was added count from the start of their second
+                    payload.path("iat_ms").asLong(payload.path("iat").asLong() * 1000),
+                    payload.path("exp").asLong());
+            long now = System.currentTimeMillis() / 1000;
+            if (!claims.type.equals(type) || claims.expiresAt <= now || revoked.containsKey(claims.tokenId)) {
+                return Optional.empty();
+            }
+            Long until = revokedUntil.get(claims.userId);
+            if (until != null && claims.issuedAtMillis <= until) return Optional.empty();
+            return Optional.of(claims);
+        } catch (Exception e) {
+            // Malformed base64, JSON or claims
+            return Optional.empty();
+        }
+    }
+
+    // Use up a refresh token; each works once. The caller issues the new pair with the
+    // user's current role, so a role change takes effect at the next refresh.
+    public Optional<Claims> redeem(String refreshToken) {
+        Optional<Claims> claims = verify(refreshToken, REFRESH);
+        if (claims.isEmpty() || revoked.putIfAbsent(claims.get().tokenId, claims.get().expiresAt) != null) {
+            return Optional.empty();
+        }
+        return claims;
+    }
+
+    public void revoke(Claims claims) {
+        revoked.put(claims.tokenId, claims.expiresAt);
+    }
+
+    // Revoke every token of a user issued so far. Compared in milliseconds, so a login right
+    // after a password change gets working tokens unless it falls in the same millisecond.
+    public void revokeUser(long userId) {
+        revokedUntil.put(userId, System.currentTimeMillis());
+    }
+
+    @Scheduled(fixedDelayString = "${carmarket.auth.revocation-purge-ms:600000}")
+    public void purgeExpiredRevocations() {
+        long nowMillis = System.currentTimeMillis();
+        long now = nowMillis / 1000;
+        revoked.values().removeIf(expiresAt -> expiresAt <= now);
+        long longestLived = Math.max(TimeUnit.DAYS.toMillis(refreshTokenDays), TimeUnit.MINUTES.toMillis(accessTokenMinutes));
+        revokedUntil.values().removeIf(until -> until + longestLived < nowMillis);
+    }
+
+    private String sign(long userId, String username, String role, String type, long issuedAtMillis, long expiresAt) {
+        ObjectNode payload = objectMapper.createObjectNode();
+        payload.put("sub", Long.toString(userId));
+        payload.put("name", username);
+        payload.put("role", role);
+        payload.put("typ", type);
+        payload.put("iat", issuedAtMillis / 1000);
+        payload.put("iat_ms", issuedAtMillis);
+        payload.put("exp", expiresAt);
+        payload.put("jti", UUID.randomUUID().toString());
+        String unsigned;
+        try {
+            unsigned = HEADER + "." + ENCODER.encodeToString(objectMapper.writeValueAsBytes(payload));
+        } catch (Exception e) {
+            throw new IllegalStateException("Cannot write token payload", e);
+        }
+        return unsigned + "." + ENCODER.encodeToString(macs.get().doFinal(unsigned.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+    }
+
+    // What a verified token says; the principal of token-authenticated requests
+    public static final class Claims implements Principal {
+        private final long userId;
+        private final String username;
+        private final String role;
+        private final String type;
+        private final String tokenId;
+        private final long issuedAt;
+        private final long issuedAtMillis;
+        private final long expiresAt;
+
+        Claims(long userId, String username, String role, String type, String tokenId, long issuedAt,
+               long issuedAtMillis, long expiresAt) {
+            this.userId = userId;
+            this.username = username;
+            this.role = role;
+            this.type = type;
+            this.tokenId = tokenId;
+            this.issuedAt = issuedAt;
+            this.issuedAtMillis = issuedAtMillis;
+            this.expiresAt = expiresAt;
+        }
+
+        public long getUserId() {
+            return userId;
+        }
+
+        @Override
+        public String getName() {
+            return username;
+        }
+
+        public String getRole() {
+            return role;
+        }
+
+        public boolean isAdmin() {
+            return User.ROLE_ADMIN.equals(role);
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public String getTokenId() {
+            return tokenId;
+        }
+
+        // Epoch seconds
+        public long getIssuedAt() {
+            return issuedAt;
+        }
+
+        // Epoch milliseconds
+        public long getIssuedAtMillis() {
+            return issuedAtMillis;
+        }
+
+        public long getExpiresAt() {
+            return expiresAt;
+        }
+    }
+
+    public static final class TokenPair {
+        private final String accessToken;
+        private final String refreshToken;
+        private final long expiresIn;
+        private final long refreshExpiresIn;
+
+        TokenPair(String accessToken, String refreshToken, long expiresIn, long refreshExpiresIn) {
+            this.accessToken = accessToken;
+            this.refreshToken = refreshToken;
+            this.expiresIn = expiresIn;
+            this.refreshExpiresIn = refreshExpiresIn;
+        }
+
+        public String getAccessToken() {
+            return accessToken;
+        }
+
+        public String getRefreshToken() {
+            return refreshToken;
+        }
+
+        public String getTokenType() {
+            return "Bearer";
+        }
+
+        // Seconds until the access token expires
+        public long getExpiresIn() {
+            return expiresIn;
+        }
+
+        public long getRefreshExpiresIn() {
+            return refreshExpiresIn;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.carmarket.analyzer.service;
+
+// Largest-Triangle-Three-Buckets downsampling of a time series: keeps the first and last
+// points and, from each of threshold - 2 equal buckets in between, the point forming the
+// largest triangle with the point kept from the previous bucket and the average of the next
+// bucket. Peaks and dips survive, so a chart of the result looks like a chart of the input.
+final class TrendDownsampler {
+
+    private TrendDownsampler() {
+    }
+
+    // Indexes of the points to keep, ascending. x must be ascending; returns every index
+    // when there are no more points than the threshold.
+    static int[] lttb(double[] x, double[] y, int length, int threshold) {
+        if (threshold >= length || threshold < 3) {
+            int[] all = new int[length];
+            for (int i = 0; i < length; i++) {
+                all[i] = i;
+            }
+            return all;
+        }
+
+        int[] kept = new int[threshold];
+        double bucketSize = (double) (length - 2) / (threshold - 2);
+        int previous = 0;
+        kept[0] = 0;
+
+        for (int bucket = 0; bucket < threshold - 2; bucket++) {
+            // Average of the next bucket (the last point for the final bucket)
+            int nextFrom = (int) Math.floor((bucket + 1) * bucketSize) + 1;
+            int nextTo = Math.min((int) Math.floor((bucket + 2) * bucketSize) + 1, length);
+            double averageX = 0;
+            double averageY = 0;
+            for (int i = nextFrom; i < nextTo; i++) {
+                averageX += x[i];
+                averageY += y[i];
+            }
+            int nextCount = nextTo - nextFrom;
+            if (nextCount > 0) {
+                averageX /= nextCount;
+                averageY /= nextCount;
+            } else {
+                averageX = x[length - 1];
+                averageY = y[length - 1];
+            }
+
+            // Point of this bucket with the largest triangle area
+            int from = (int) Math.floor(bucket * bucketSize) + 1;
+            int to = (int) Math.floor((bucket + 1) * bucketSize) + 1;
+            double maxArea = -1;
+            int chosen = from;
+            for (int i = from; i < to; i++) {
+                double area = Math.abs((x[previous] - averageX) * (y[i] - y[previous])
+                        - (x[previous] - x[i]) * (averageY - y[previous]));
+                if (area > maxArea) {
+                    maxArea = area;
+                    chosen = i;
+                }
+            }
+            kept[bucket + 1] = chosen;
+            previous = chosen;
+        }
+
+        kept[threshold - 1] = length - 1;
+        return kept;
+    }
+}
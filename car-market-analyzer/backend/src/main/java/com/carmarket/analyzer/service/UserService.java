@@ -94,14 +94,13 @@ public class UserService {
     
     // Authenticate user
     public boolean authenticateUser(String username, String password) {
-        Optional<User> userOpt = userRepository.findByUsername(username);
-        
-        if (userOpt.isPresent()) {
-            User user = userOpt.get();
-            return passwordEncoder.matches(password, user.getPassword());
-        }
-        
-        return false;
+        return authenticate(username, password).isPresent();
+    }
+    
+    // The user, if the password matches; the one BCrypt check per login
+    public Optional<User> authenticate(String username, String password) {
+        return userRepository.findByUsername(username)
+                .filter(user -> passwordEncoder.matches(password, user.getPassword()));
     }
     
     // Check if username exists
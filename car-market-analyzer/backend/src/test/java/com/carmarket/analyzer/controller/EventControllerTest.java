@@ -0,0 +1,128 @@
+package com.carmarket.analyzer.controller;
+
+import com.carmarket.analyzer.service.CarState;
+import com.carmarket.analyzer.service.PriceEventBroadcaster;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+// Streams through the controller into mock responses; flushes are run by hand
+class EventControllerTest {
+
+    private PriceEventBroadcaster broadcaster;
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        broadcaster = new PriceEventBroadcaster();
+        ReflectionTestUtils.setField(broadcaster, "maxSubscribers", 2);
+        ReflectionTestUtils.setField(broadcaster, "defaultBufferSize", 100);
+        ReflectionTestUtils.setField(broadcaster, "flushIntervalMillis", TimeUnit.HOURS.toMillis(1));
+        ReflectionTestUtils.setField(broadcaster, "marketIntervalMillis", 2000L);
+        ReflectionTestUtils.setField(broadcaster, "heartbeatMillis", TimeUnit.HOURS.toMillis(1));
+        ReflectionTestUtils.setField(broadcaster, "timeoutMillis", 60000L);
+        ReflectionTestUtils.setField(broadcaster, "writerThreads", 2);
+        ReflectionTestUtils.setField(broadcaster, "writeTimeoutMillis", 10000L);
+        broadcaster.start();
+        flush();
+
+        EventController controller = new EventController();
+        ReflectionTestUtils.setField(controller, "priceEventBroadcaster", broadcaster);
+        mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        broadcaster.shutdown();
+    }
+
+    @Test
+    void carAndMakeStreams() throws Exception {
+        MockHttpServletResponse carStream = open("/api/events?car=1&car=2");
+        MockHttpServletResponse makeStream = open("/api/events?make=BMW&model=320&policy=coalesce&buffer=10");
+        assertEquals(2, broadcaster.getSubscriberCount());
+
+        broadcaster.onCarChanged(car(1, "Audi", 30000), car(1, "Audi", 29000));
+        broadcaster.onCarChanged(null, car(3, "BMW", 40000));
+        broadcaster.onCarChanged(null, car(4, "Audi", 20000));
+        flush();
+
+        String cars = awaitContent(carStream, "event:price");
+        assertTrue(cars.startsWith(":subscribed"));
+        assertTrue(cars.contains("\"carId\":1"));
+        assertTrue(cars.contains("\"previousPrice\":30000.0"));
+        assertFalse(cars.contains("\"carId\":3"));
+        assertFalse(cars.contains("\"carId\":4"));
+
+        String bmw = awaitContent(makeStream, "event:listing");
+        assertTrue(bmw.contains("\"carId\":3"));
+        assertFalse(bmw.contains("\"carId\":1"));
+        assertFalse(bmw.contains("\"carId\":4"));
+    }
+
+    @Test
+    void invalidSubscriptionsAreRejected() throws Exception {
+        mockMvc.perform(get("/api/events")).andExpect(status().isBadRequest());
+        mockMvc.perform(get("/api/events?model=320")).andExpect(status().isBadRequest());
+        mockMvc.perform(get("/api/events?car=1&policy=newest")).andExpect(status().isBadRequest());
+        mockMvc.perform(get("/api/events?car=1&buffer=0")).andExpect(status().isBadRequest());
+        mockMvc.perform(get("/api/events?car=1&buffer=" + (PriceEventBroadcaster.MAX_BUFFER_SIZE + 1)))
+                .andExpect(status().isBadRequest());
+        StringBuilder tooMany = new StringBuilder("/api/events?car=0");
+        for (int i = 1; i <= PriceEventBroadcaster.MAX_CARS; i++) {
+            tooMany.append("&car=").append(i);
+        }
+        mockMvc.perform(get(tooMany.toString())).andExpect(status().isBadRequest());
+        assertEquals(0, broadcaster.getSubscriberCount());
+    }
+
+    @Test
+    void fullServerAnswers503() throws Exception {
+        open("/api/events?car=1");
+        open("/api/events?make=Audi");
+        mockMvc.perform(get("/api/events?car=2")).andExpect(status().isServiceUnavailable());
+        assertEquals(2, broadcaster.getSubscriberCount());
+    }
+
+    private MockHttpServletResponse open(String url) throws Exception {
+        MvcResult result = mockMvc.perform(get(url).accept(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        assertEquals(200, result.getResponse().getStatus());
+        return result.getResponse();
+    }
+
+    // Waits until the stream holds the expected text and ends with a complete event
+    private static String awaitContent(MockHttpServletResponse response, String expected) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        String content = response.getContentAsString();
+        while (!content.contains(expected) || !content.endsWith("\n\n")) {
+            if (System.currentTimeMillis() > deadline) fail("No " + expected + " in " + content);
+            Thread.sleep(20);
+            content = response.getContentAsString();
+        }
+        return content;
+    }
+
+    private void flush() {
+        ReflectionTestUtils.invokeMethod(broadcaster, "flush");
+    }
+
+    private static CarState car(long id, String make, double price) {
+        String model = make.equals("BMW") ? "320" : "A4";
+        return new CarState(id, make, model, 2020, "Berlin", price, "2.0L", "Petrol", "Manual", 30000, 4.5, null);
+    }
+}
@@ -0,0 +1,109 @@
+package com.carmarket.analyzer.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IntervalTreeTest {
+
+    private static final double INF = Double.POSITIVE_INFINITY;
+
+    @Test
+    void stabsAtCentersAndEndpoints() {
+        int[] ids = {10, 11, 12, 13, 14};
+        double[] lows = {0, 2, 4, 4, 8};
+        double[] highs = {4, 6, 4, 9, 8};
+        IntervalTree tree = new IntervalTree(ids, lows, highs);
+
+        assertEquals(5, tree.size());
+        assertEquals(Set.of(10), stab(tree, 0));
+        assertEquals(Set.of(10, 11), stab(tree, 2));
+        // Point intervals and shared endpoints are closed on both sides
+        assertEquals(Set.of(10, 11, 12, 13), stab(tree, 4));
+        assertEquals(Set.of(11, 13), stab(tree, 6));
+        assertEquals(Set.of(13, 14), stab(tree, 8));
+        assertEquals(Set.of(13), stab(tree, 9));
+        assertEquals(Set.of(), stab(tree, -0.5));
+        assertEquals(Set.of(), stab(tree, 9.5));
+    }
+
+    @Test
+    void infiniteBounds() {
+        int[] ids = {1, 2, 3, 4};
+        double[] lows = {-INF, 100, -INF, 50};
+        double[] highs = {10, INF, INF, 60};
+        IntervalTree tree = new IntervalTree(ids, lows, highs);
+
+        assertEquals(Set.of(1, 3), stab(tree, -1e12));
+        assertEquals(Set.of(1, 3), stab(tree, 10));
+        assertEquals(Set.of(3, 4), stab(tree, 50));
+        assertEquals(Set.of(2, 3), stab(tree, 100));
+        assertEquals(Set.of(2, 3), stab(tree, 1e12));
+    }
+
+    @Test
+    void emptyTree() {
+        IntervalTree tree = new IntervalTree(new int[0], new double[0], new double[0]);
+
+        assertEquals(0, tree.size());
+        assertEquals(Set.of(), stab(tree, 1));
+    }
+
+    @Test
+    void matchesLinearScan() {
+        Random random = new Random(42);
+        int n = 2000;
+        int[] ids = new int[n];
+        double[] lows = new double[n];
+        double[] highs = new double[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = i;
+            double a = random.nextInt(1000);
+            double b = a + random.nextInt(100);
+            lows[i] = random.nextInt(20) == 0 ? -INF : a;
+            highs[i] = random.nextInt(20) == 0 ? INF : b;
+        }
+        IntervalTree tree = new IntervalTree(ids, lows, highs);
+
+        // Every endpoint (so every node center) and the points between them
+        for (double point = -5; point <= 1105; point += 0.5) {
+            Set<Integer> expected = new HashSet<>();
+            for (int i = 0; i < n; i++) {
+                if (lows[i] <= point && point <= highs[i]) {
+                    expected.add(ids[i]);
+                }
+            }
+            assertEquals(expected, stab(tree, point), "point " + point);
+        }
+    }
+
+    @Test
+    void reportsEachIntervalOnce() {
+        int n = 500;
+        int[] ids = new int[n];
+        double[] lows = new double[n];
+        double[] highs = new double[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = i;
+            lows[i] = i % 7;
+            highs[i] = 20 + i % 11;
+        }
+        IntervalTree tree = new IntervalTree(ids, lows, highs);
+
+        for (double point : new double[]{6, 10, 20}) {
+            List<Integer> reported = new ArrayList<>();
+            tree.stab(point, reported::add);
+            assertEquals(new HashSet<>(reported).size(), reported.size(), "point " + point);
+            assertTrue(reported.size() > 0);
+        }
+    }
+
+    private static Set<Integer> stab(IntervalTree tree, double point) {
+        Set<Integer> reported = new HashSet<>();
+        tree.stab(point, reported::add);
+        return reported;
+    }
+}
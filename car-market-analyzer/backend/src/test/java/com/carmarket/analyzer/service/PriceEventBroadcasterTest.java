@@ -0,0 +1,314 @@
+package com.carmarket.analyzer.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Flushes are run by hand (the scheduled flush is an hour away) and the emitters write to
+// recording clients instead of a servlet response
+class PriceEventBroadcasterTest {
+
+    private static final long WRITE_TIMEOUT_MS = 200;
+
+    private PriceEventBroadcaster broadcaster;
+    private final List<Client> clients = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        broadcaster = new PriceEventBroadcaster();
+        ReflectionTestUtils.setField(broadcaster, "maxSubscribers", 100);
+        ReflectionTestUtils.setField(broadcaster, "defaultBufferSize", 100);
+        ReflectionTestUtils.setField(broadcaster, "flushIntervalMillis", TimeUnit.HOURS.toMillis(1));
+        ReflectionTestUtils.setField(broadcaster, "marketIntervalMillis", 2000L);
+        ReflectionTestUtils.setField(broadcaster, "heartbeatMillis", TimeUnit.HOURS.toMillis(1));
+        ReflectionTestUtils.setField(broadcaster, "timeoutMillis", 60000L);
+        ReflectionTestUtils.setField(broadcaster, "writerThreads", 4);
+        ReflectionTestUtils.setField(broadcaster, "writeTimeoutMillis", WRITE_TIMEOUT_MS);
+        broadcaster.start();
+        // The first flush is due for a heartbeat; run it before any client is watched
+        flush();
+    }
+
+    @AfterEach
+    void tearDown() {
+        // A write still blocked would hold its emitter, and shutdown would wait on it
+        clients.forEach(client -> client.release.countDown());
+        broadcaster.shutdown();
+    }
+
+    @Test
+    void carStreamGetsOnlyItsCars() throws Exception {
+        Client client = subscribe(List.of(1L), null, null, PriceEventBroadcaster.Policy.DROP_OLDEST, null);
+
+        broadcaster.onCarChanged(null, car(1, "Audi", "A4", 30000));
+        broadcaster.onCarChanged(car(2, "Audi", "A4", 20000), car(2, "Audi", "A4", 19000));
+        broadcaster.onCarChanged(car(1, "Audi", "A4", 30000), car(1, "Audi", "A4", 29000));
+        // Not a price change: not sent
+        broadcaster.onCarChanged(car(1, "Audi", "A4", 29000), car(1, "Audi", "A4", 29000));
+        flush();
+
+        client.await(2);
+        assertEquals(List.of("listing", "price"), client.names());
+        PriceEventBroadcaster.CarEvent price = client.event(1);
+        assertEquals(1, price.getCarId());
+        assertEquals(29000, price.getPrice());
+        assertEquals(30000.0, price.getPreviousPrice());
+    }
+
+    @Test
+    void makeAndModelStreams() throws Exception {
+        Client make = subscribe(null, "Audi", null, PriceEventBroadcaster.Policy.DROP_OLDEST, null);
+        Client model = subscribe(null, "Audi", "A4", PriceEventBroadcaster.Policy.DROP_OLDEST, null);
+        // Subscribed to a car and its make: each event once
+        Client both = subscribe(List.of(1L), "Audi", null, PriceEventBroadcaster.Policy.DROP_OLDEST, null);
+
+        broadcaster.onCarChanged(null, car(1, "Audi", "A4", 30000));
+        broadcaster.onCarChanged(null, car(2, "Audi", "A6", 50000));
+        broadcaster.onCarChanged(null, car(3, "BMW", "320", 40000));
+        flush();
+
+        make.await(2);
+        model.await(1);
+        both.await(2);
+        Thread.sleep(100);
+        assertEquals(List.of(1L, 2L), make.carIds());
+        assertEquals(List.of(1L), model.carIds());
+        assertEquals(List.of(1L, 2L), both.carIds());
+    }
+
+    @Test
+    void coalesceKeepsLatestEventPerCar() throws Exception {
+        Client client = subscribe(List.of(1L, 2L), null, null, PriceEventBroadcaster.Policy.COALESCE, null);
+
+        broadcaster.onCarChanged(car(1, "Audi", "A4", 30000), car(1, "Audi", "A4", 29000));
+        broadcaster.onCarChanged(null, car(2, "Audi", "A4", 20000));
+        broadcaster.onCarChanged(car(1, "Audi", "A4", 29000), car(1, "Audi", "A4", 28000));
+        broadcaster.onCarChanged(car(2, "Audi", "A4", 20000), car(2, "Audi", "A4", 19000));
+        flush();
+
+        client.await(2);
+        Thread.sleep(100);
+        assertEquals(List.of("price", "listing"), client.names());
+        PriceEventBroadcaster.CarEvent first = client.event(0);
+        assertEquals(1, first.getCarId());
+        assertEquals(28000, first.getPrice());
+        assertEquals(30000.0, first.getPreviousPrice());
+        // A listing changed before it was sent is still announced as a listing, at its latest price
+        PriceEventBroadcaster.CarEvent second = client.event(1);
+        assertEquals(2, second.getCarId());
+        assertEquals(19000, second.getPrice());
+        assertNull(second.getPreviousPrice());
+    }
+
+    @Test
+    void overflowAnnouncesDroppedEvents() throws Exception {
+        Client dropOldest = subscribe(List.of(1L), null, null, PriceEventBroadcaster.Policy.DROP_OLDEST, 2);
+        Client coalesce = subscribe(List.of(1L, 2L, 3L), null, null, PriceEventBroadcaster.Policy.COALESCE, 2);
+
+        CarState car = car(1, "Audi", "A4", 30000);
+        for (int i = 1; i <= 5; i++) {
+            CarState next = car.withPrice(30000 - i);
+            broadcaster.onCarChanged(car, next);
+            car = next;
+        }
+        broadcaster.onCarChanged(null, car(2, "Audi", "A4", 20000));
+        broadcaster.onCarChanged(null, car(3, "Audi", "A4", 10000));
+        flush();
+
+        dropOldest.await(3);
+        coalesce.await(3);
+        Thread.sleep(100);
+        assertEquals(List.of("overflow", "price", "price"), dropOldest.names());
+        assertEquals(Map.of("dropped", 3), dropOldest.data(0));
+        assertEquals(29996, dropOldest.event(1).getPrice());
+        assertEquals(29995, dropOldest.event(2).getPrice());
+
+        // Three cars in a buffer of two: the oldest car is dropped
+        assertEquals(List.of("overflow", "listing", "listing"), coalesce.names());
+        assertEquals(Map.of("dropped", 1), coalesce.data(0));
+        assertEquals(2, coalesce.event(1).getCarId());
+        assertEquals(3, coalesce.event(2).getCarId());
+    }
+
+    @Test
+    void stalledClientsAreEvictedWithoutHoldingUpOthers() throws Exception {
+        Client fast = subscribe(List.of(1L), null, null, PriceEventBroadcaster.Policy.DROP_OLDEST, null);
+        Client interruptible = subscribe(List.of(1L), null, null, PriceEventBroadcaster.Policy.DROP_OLDEST, null);
+        Client stuck = subscribe(List.of(1L), null, null, PriceEventBroadcaster.Policy.DROP_OLDEST, null);
+        interruptible.block(true);
+        stuck.block(false);
+        assertEquals(3, broadcaster.getSubscriberCount());
+
+        CarState car = car(1, "Audi", "A4", 30000);
+        broadcaster.onCarChanged(car, car.withPrice(29000));
+        flush();
+
+        fast.await(1);
+        assertTrue(interruptible.blocked.await(2, TimeUnit.SECONDS));
+        assertTrue(stuck.blocked.await(2, TimeUnit.SECONDS));
+
+        Thread.sleep(WRITE_TIMEOUT_MS + 100);
+        flush();
+        assertEquals(1, broadcaster.getSubscriberCount());
+        // The interrupt frees the writer of a client that honours it
+        assertTrue(interruptible.interrupted.await(2, TimeUnit.SECONDS));
+
+        // The fast client keeps getting events while the stuck write still holds a writer
+        broadcaster.onCarChanged(car.withPrice(29000), car.withPrice(28000));
+        flush();
+        fast.await(2);
+        assertEquals(28000, fast.event(1).getPrice());
+
+        // Once the stuck write returns, its writer completes the stream with an error
+        stuck.release.countDown();
+        assertTrue(stuck.completedWithError.await(2, TimeUnit.SECONDS));
+        assertEquals(0, interruptible.count());
+        assertEquals(1, stuck.count());
+    }
+
+    private Client subscribe(List<Long> cars, String make, String model, PriceEventBroadcaster.Policy policy,
+                             Integer buffer) throws Exception {
+        SseEmitter emitter = broadcaster.subscribe(cars, make, model, false, policy, buffer);
+        Client client = new Client();
+        client.attach(emitter);
+        clients.add(client);
+        return client;
+    }
+
+    private void flush() {
+        ReflectionTestUtils.invokeMethod(broadcaster, "flush");
+    }
+
+    private static CarState car(long id, String make, String model, double price) {
+        return new CarState(id, make, model, 2020, "Berlin", price, "2.0L", "Petrol", "Manual", 30000, 4.5, null);
+    }
+
+    // Stands in for the servlet response: records the events sent to one emitter, and can
+    // block its writes like a client that stopped reading
+    private static final class Client implements InvocationHandler {
+        private final List<String> names = new ArrayList<>();
+        private final List<Object> events = new ArrayList<>();
+        private String name;
+        private volatile boolean blocking;
+        private volatile boolean interruptible;
+        private final CountDownLatch blocked = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final CountDownLatch interrupted = new CountDownLatch(1);
+        private final CountDownLatch completedWithError = new CountDownLatch(1);
+
+        // The emitter's handler type is package-private; a proxy implements it from here
+        void attach(SseEmitter emitter) throws Exception {
+            Class<?> handlerType = Class.forName(ResponseBodyEmitter.class.getName() + "$Handler");
+            Object handler = Proxy.newProxyInstance(handlerType.getClassLoader(), new Class<?>[]{handlerType}, this);
+            Method initialize = ResponseBodyEmitter.class.getDeclaredMethod("initialize", handlerType);
+            initialize.setAccessible(true);
+            initialize.invoke(emitter, handler);
+        }
+
+        void block(boolean honourInterrupt) {
+            interruptible = honourInterrupt;
+            blocking = true;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "send":
+                    send(args[0]);
+                    break;
+                case "completeWithError":
+                    completedWithError.countDown();
+                    break;
+                default:
+                    break;
+            }
+            return null;
+        }
+
+        private void send(Object data) throws IOException {
+            if (data instanceof String) {
+                String text = (String) data;
+                int start = text.indexOf("event:");
+                if (start >= 0) {
+                    name = text.substring(start + "event:".length(), text.indexOf('\n', start));
+                }
+                return;
+            }
+            if (blocking) {
+                blocked.countDown();
+                awaitRelease();
+            }
+            synchronized (this) {
+                names.add(name);
+                events.add(data);
+                notifyAll();
+            }
+        }
+
+        private void awaitRelease() throws IOException {
+            boolean wasInterrupted = false;
+            while (true) {
+                try {
+                    release.await();
+                    break;
+                } catch (InterruptedException e) {
+                    wasInterrupted = true;
+                    interrupted.countDown();
+                    if (interruptible) throw new IOException("Interrupted");
+                }
+            }
+            if (wasInterrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        synchronized void await(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (events.size() < count) {
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0) fail("Expected " + count + " events, got " + names);
+                wait(left);
+            }
+        }
+
+        synchronized int count() {
+            return events.size();
+        }
+
+        synchronized List<String> names() {
+            return new ArrayList<>(names);
+        }
+
+        synchronized Object data(int index) {
+            return events.get(index);
+        }
+
+        synchronized PriceEventBroadcaster.CarEvent event(int index) {
+            return (PriceEventBroadcaster.CarEvent) events.get(index);
+        }
+
+        synchronized List<Long> carIds() {
+            List<Long> ids = new ArrayList<>();
+            for (Object event : events) {
+                ids.add(((PriceEventBroadcaster.CarEvent) event).getCarId());
+            }
+            return ids;
+        }
+    }
+}
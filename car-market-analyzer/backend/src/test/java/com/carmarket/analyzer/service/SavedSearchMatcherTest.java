@@ -0,0 +1,165 @@
+package com.carmarket.analyzer.service;
+
+import com.carmarket.analyzer.dto.CarSearchRequest;
+import com.carmarket.analyzer.repository.FavoriteSearchRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class SavedSearchMatcherTest {
+
+    private static final long USER = 7;
+    // More than the direct check limit, so matching goes through the interval trees
+    private static final int MANY = 5000;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void matchesCategoricalValuesAndRanges() throws Exception {
+        SavedSearchMatcher matcher = matcher(List.of(
+                row(1, search("Toyota", null, null, null)),
+                row(2, search("Toyota", "Corolla", 10000.0, 20000.0)),
+                row(3, search(null, null, null, 15000.0)),
+                row(4, search("Honda", null, null, null))));
+
+        assertEquals(Set.of(1L, 2L, 3L), ids(matcher, car("Toyota", "Corolla", 15000)));
+        assertEquals(Set.of(1L), ids(matcher, car("Toyota", "Corolla", 25000)));
+        assertEquals(Set.of(3L, 4L), ids(matcher, car("Honda", "Civic", 9000)));
+        assertEquals(Set.of(), ids(matcher, car("Ford", "Focus", 15001)));
+    }
+
+    @Test
+    void stabsTreesAtRangeEndpointsAndOpenEnds() throws Exception {
+        List<Object[]> rows = new ArrayList<>();
+        for (int i = 0; i < MANY; i++) {
+            // [i * 10, i * 10 + 100], with open-ended ranges mixed in
+            Double from = i % 100 == 0 ? null : i * 10.0;
+            Double to = i % 100 == 50 ? null : i * 10.0 + 100;
+            rows.add(row(i + 1, search(null, null, from, to)));
+        }
+        SavedSearchMatcher matcher = matcher(rows);
+
+        for (double price : new double[]{0, 100, 105, 1000, 1010, 25000, 49990, 50090, 1e9}) {
+            assertEquals(expected(rows, price), ids(matcher, car("Toyota", "Corolla", price)), "price " + price);
+        }
+    }
+
+    @Test
+    void searchesAddedOrRemovedAfterRebuild() throws Exception {
+        List<Object[]> rows = new ArrayList<>();
+        for (int i = 0; i < MANY; i++) {
+            rows.add(row(i + 1, search(null, null, i * 10.0, i * 10.0 + 100)));
+        }
+        SavedSearchMatcher matcher = matcher(rows);
+        CarState car = car("Toyota", "Corolla", 20000);
+        Set<Long> loaded = expected(rows, 20000);
+        assertEquals(loaded, ids(matcher, car));
+
+        // Added after the trees were built: pending until the next rebuild
+        matcher.put(100001, USER, search(null, null, 19000.0, 21000.0));
+        matcher.put(100002, USER, search(null, null, 30000.0, null));
+        // Removed: still in the trees until the next rebuild
+        long removed = loaded.iterator().next();
+        matcher.remove(removed);
+        Set<Long> expected = new HashSet<>(loaded);
+        expected.add(100001L);
+        expected.remove(removed);
+        assertEquals(expected, ids(matcher, car));
+
+        // Replacing a search moves it out of range
+        matcher.put(100001, USER, search(null, null, 50000.0, null));
+        expected.remove(100001L);
+        assertEquals(expected, ids(matcher, car));
+
+        // Enough new searches to rebuild the trees; all changes survive the rebuild
+        for (int i = 0; i < 1100; i++) {
+            matcher.put(200000 + i, USER, search(null, null, 19000.0 + i, null));
+        }
+        for (int i = 0; i < 1100; i++) {
+            if (19000.0 + i <= 20000) {
+                expected.add(200000L + i);
+            }
+        }
+        assertEquals(expected, ids(matcher, car));
+        assertEquals(Set.of(100001L, 100002L), ids(matcher, car("Toyota", "Corolla", 1e9)).stream()
+                .filter(id -> id >= 100000 && id < 200000).collect(HashSet::new, Set::add, Set::addAll));
+    }
+
+    @Test
+    void queuesCarsThatStartMatching() throws Exception {
+        SavedSearchMatcher matcher = matcher(List.<Object[]>of(row(1, search("Toyota", null, null, 20000.0))));
+
+        CarState listed = car("Toyota", "Corolla", 25000);
+        matcher.onCarChanged(null, listed);
+        assertTrue(matcher.pendingMatches(USER).isEmpty());
+
+        CarState reduced = car("Toyota", "Corolla", 19000);
+        matcher.onCarChanged(listed, reduced);
+        // Still matching after a further change: not queued again
+        matcher.onCarChanged(reduced, car("Toyota", "Corolla", 18000));
+        matcher.onCarChanged(null, car("Toyota", "Yaris", 12000));
+
+        List<SavedSearchMatcher.Match> matches = matcher.pendingMatches(USER);
+        assertEquals(2, matches.size());
+        assertEquals("changed", matches.get(0).getReason());
+        assertEquals(19000, matches.get(0).getPrice());
+        assertEquals("new", matches.get(1).getReason());
+        assertEquals("Yaris", matches.get(1).getModel());
+
+        assertEquals(1, matcher.acknowledge(USER, matches.get(0).getSequence()));
+        assertEquals(1, matcher.pendingMatches(USER).size());
+    }
+
+    private SavedSearchMatcher matcher(List<Object[]> rows) {
+        FavoriteSearchRepository repository = mock(FavoriteSearchRepository.class);
+        when(repository.findAllCriteria()).thenReturn(rows);
+        SavedSearchMatcher matcher = new SavedSearchMatcher();
+        ReflectionTestUtils.setField(matcher, "favoriteSearchRepository", repository);
+        ReflectionTestUtils.setField(matcher, "objectMapper", objectMapper);
+        ReflectionTestUtils.setField(matcher, "queueCapacity", 200);
+        return matcher;
+    }
+
+    private Object[] row(long searchId, CarSearchRequest criteria) throws Exception {
+        return new Object[]{searchId, USER, objectMapper.writeValueAsString(criteria)};
+    }
+
+    private static CarSearchRequest search(String make, String model, Double priceFrom, Double priceTo) {
+        CarSearchRequest criteria = new CarSearchRequest();
+        criteria.setMake(make);
+        criteria.setModel(model);
+        criteria.setPriceFrom(priceFrom);
+        criteria.setPriceTo(priceTo);
+        return criteria;
+    }
+
+    private static CarState car(String make, String model, double price) {
+        return new CarState(1L, make, model, 2020, "Berlin", price, "2.0L", "Petrol", "Manual",
+                30000, 4.5, LocalDateTime.now());
+    }
+
+    private static Set<Long> ids(SavedSearchMatcher matcher, CarState car) {
+        return new HashSet<>(matcher.matchingSearchIds(car));
+    }
+
+    // Searches whose price range (the only criterion set) contains the price
+    private Set<Long> expected(List<Object[]> rows, double price) throws Exception {
+        Set<Long> ids = new HashSet<>();
+        for (Object[] row : rows) {
+            CarSearchRequest criteria = objectMapper.readValue((String) row[2], CarSearchRequest.class);
+            if ((criteria.getPriceFrom() == null || criteria.getPriceFrom() <= price)
+                    && (criteria.getPriceTo() == null || price <= criteria.getPriceTo())) {
+                ids.add((Long) row[0]);
+            }
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,79 @@
+-- Car search latency benchmark at 1M rows.
+--
+-- Compares the old single-statement search ("(:x IS NULL OR c.x = :x)" for every filter)
+-- with the statements the dynamic predicate builder now emits, before and after the
+-- search indexes from schema.sql are created. Works on its own scratch table, so it can
+-- be run against any PostgreSQL 12+ database:
+--
+--   psql -d car_market_analyzer -f database/benchmarks/search_benchmark.sql
+--
+-- Compare the "Execution Time" lines of each EXPLAIN ANALYZE.
+
+\timing on
+
+DROP TABLE IF EXISTS cars_bench;
+CREATE TABLE cars_bench (LIKE cars INCLUDING DEFAULTS);
+
+-- g is an integer; the pseudo-random price and mileage products are taken in bigint,
+-- as they pass 2^31 long before the last row
+INSERT INTO cars_bench (id, make, model, year, location, price, fuel_type, transmission, mileage, safety_rating)
+SELECT g,
+       (ARRAY['Toyota','Honda','Ford','Chevrolet','BMW','Mercedes-Benz','Tesla','Nissan','Hyundai'])[1 + g % 9],
+       'Model ' || (g % 40),
+       2005 + (g % 19),
+       'City ' || (g % 250),
+       5000 + (g::bigint * 7919) % 95000,
+       (ARRAY['Gasoline','Diesel','Electric','Hybrid'])[1 + g % 4],
+       (ARRAY['Automatic','Manual','CVT'])[1 + g % 3],
+       (g::bigint * 104729) % 250000,
+       3 + g % 3
+FROM generate_series(1, 1000000) AS g;
+ANALYZE cars_bench;
+
+-- The repository used to send one prepared statement for every search, so PostgreSQL
+-- ends up on a generic plan. Force that here to reproduce it.
+SET plan_cache_mode = force_generic_plan;
+
+PREPARE old_search(text, text, int, int, text, float8, float8, text, text, float8, float8) AS
+SELECT * FROM cars_bench c WHERE
+    ($1 IS NULL OR c.make = $1) AND
+    ($2 IS NULL OR c.model = $2) AND
+    ($3 IS NULL OR c.year >= $3) AND
+    ($4 IS NULL OR c.year <= $4) AND
+    ($5 IS NULL OR c.location = $5) AND
+    ($6 IS NULL OR c.price >= $6) AND
+    ($7 IS NULL OR c.price <= $7) AND
+    ($8 IS NULL OR c.fuel_type = $8) AND
+    ($9 IS NULL OR c.transmission = $9) AND
+    ($10 IS NULL OR c.mileage >= $10) AND
+    ($11 IS NULL OR c.mileage <= $11);
+
+-- Before: no indexes, generic predicate
+EXPLAIN ANALYZE EXECUTE old_search('Toyota', 'Model 9', 2015, NULL, NULL, NULL, NULL, NULL, NULL, NULL, NULL);
+EXPLAIN ANALYZE EXECUTE old_search(NULL, NULL, NULL, NULL, 'City 42', NULL, NULL, NULL, NULL, NULL, NULL);
+EXPLAIN ANALYZE EXECUTE old_search(NULL, NULL, NULL, NULL, NULL, 20000, 21000, NULL, NULL, NULL, NULL);
+
+CREATE INDEX idx_cars_bench_make_model_year ON cars_bench (make, model, year);
+CREATE INDEX idx_cars_bench_location ON cars_bench (location);
+CREATE INDEX idx_cars_bench_price ON cars_bench (price);
+CREATE INDEX idx_cars_bench_fuel_type_transmission ON cars_bench (fuel_type, transmission);
+ANALYZE cars_bench;
+
+-- Indexes alone do not help the generic predicate
+EXPLAIN ANALYZE EXECUTE old_search('Toyota', 'Model 9', 2015, NULL, NULL, NULL, NULL, NULL, NULL, NULL, NULL);
+
+-- After: statements as emitted by CarSpecifications for the same three searches
+PREPARE new_make_model_year(text, text, int) AS
+SELECT * FROM cars_bench c WHERE c.make = $1 AND c.model = $2 AND c.year >= $3;
+PREPARE new_location(text) AS
+SELECT * FROM cars_bench c WHERE c.location = $1;
+PREPARE new_price(float8, float8) AS
+SELECT * FROM cars_bench c WHERE c.price >= $1 AND c.price <= $2;
+
+EXPLAIN ANALYZE EXECUTE new_make_model_year('Toyota', 'Model 9', 2015);
+EXPLAIN ANALYZE EXECUTE new_location('City 42');
+EXPLAIN ANALYZE EXECUTE new_price(20000, 21000);
+
+DEALLOCATE ALL;
+RESET plan_cache_mode;
+DROP TABLE cars_bench;
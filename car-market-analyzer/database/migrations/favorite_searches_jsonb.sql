@@ -0,0 +1,19 @@
+-- Converts favorite_searches created by Hibernate (criteria as TEXT) to the layout of
+-- schema.sql: criteria as JSONB with a GIN index, plus the incremental run columns.
+-- Safe to run more than once: psql -f favorite_searches_jsonb.sql
+
+BEGIN;
+
+ALTER TABLE favorite_searches
+    ALTER COLUMN search_criteria TYPE JSONB USING search_criteria::jsonb;
+
+ALTER TABLE favorite_searches ADD COLUMN IF NOT EXISTS last_txid BIGINT;
+ALTER TABLE favorite_searches ADD COLUMN IF NOT EXISTS last_run_at TIMESTAMP;
+ALTER TABLE favorite_searches ADD COLUMN IF NOT EXISTS result_count BIGINT;
+ALTER TABLE favorite_searches ADD COLUMN IF NOT EXISTS counted_at TIMESTAMP;
+
+CREATE INDEX IF NOT EXISTS idx_favorite_searches_criteria
+    ON favorite_searches USING GIN (search_criteria jsonb_path_ops);
+CREATE INDEX IF NOT EXISTS idx_favorite_searches_user ON favorite_searches (user_id);
+
+COMMIT;
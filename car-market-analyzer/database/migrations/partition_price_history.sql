@@ -0,0 +1,53 @@
+-- Converts an existing unpartitioned price_history table to the monthly partitioned layout
+-- of schema.sql. Rows are copied into partitions covering every month that has data; the
+-- old table is kept as price_history_unpartitioned until it is dropped by hand.
+-- Run with the backend stopped: psql -f partition_price_history.sql
+
+BEGIN;
+
+ALTER TABLE price_history RENAME TO price_history_unpartitioned;
+ALTER INDEX IF EXISTS idx_price_history_car_recorded_at RENAME TO idx_price_history_unpartitioned_car_recorded_at;
+ALTER INDEX IF EXISTS idx_price_history_txid RENAME TO idx_price_history_unpartitioned_txid;
+
+ALTER TABLE price_history_unpartitioned ADD COLUMN IF NOT EXISTS txid BIGINT;
+
+CREATE TABLE price_history (
+    id BIGINT NOT NULL DEFAULT nextval('price_history_id_seq'),
+    car_id INT REFERENCES cars(id),
+    price DECIMAL(10, 2),
+    recorded_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    txid BIGINT DEFAULT txid_current(),
+    PRIMARY KEY (id, recorded_at)
+) PARTITION BY RANGE (recorded_at);
+
+-- Ids are allocated in blocks of 50 (see price_history_bigint_ids.sql)
+ALTER SEQUENCE price_history_id_seq AS BIGINT INCREMENT BY 50 OWNED BY price_history.id;
+
+CREATE TABLE price_history_default PARTITION OF price_history DEFAULT;
+
+DO $$
+DECLARE
+    month DATE;
+BEGIN
+    FOR month IN
+        SELECT generate_series(date_trunc('month', min(recorded_at)),
+                               date_trunc('month', greatest(max(recorded_at), now())) + INTERVAL '3 months',
+                               INTERVAL '1 month')::DATE
+        FROM price_history_unpartitioned
+    LOOP
+        EXECUTE format('CREATE TABLE %I PARTITION OF price_history FOR VALUES FROM (%L) TO (%L)',
+                       'price_history_' || to_char(month, 'YYYY_MM'), month, month + INTERVAL '1 month');
+    END LOOP;
+END $$;
+
+-- Rows without a timestamp cannot be placed in a month; they are dated at the epoch
+INSERT INTO price_history (id, car_id, price, recorded_at, txid)
+SELECT id, car_id, price, COALESCE(recorded_at, TIMESTAMP '1970-01-01'), txid
+FROM price_history_unpartitioned;
+
+CREATE INDEX idx_price_history_car_recorded_at ON price_history (car_id, recorded_at);
+CREATE INDEX idx_price_history_txid ON price_history (txid);
+
+COMMIT;
+
+ANALYZE price_history;
@@ -0,0 +1,15 @@
+-- Widens price_history ids to BIGINT and makes price_history_id_seq hand out blocks of 50
+-- ids, the allocation size of the PriceHistory entity. Hibernate refuses to start while the
+-- sequence still increments by 1. Works on the partitioned and the unpartitioned table, and
+-- can be run again. Existing ids are kept; the next block starts after the last id issued.
+-- Run with the backend stopped: psql -f price_history_bigint_ids.sql
+
+BEGIN;
+
+ALTER TABLE price_history ALTER COLUMN id TYPE BIGINT;
+ALTER SEQUENCE price_history_id_seq AS BIGINT INCREMENT BY 50;
+-- Each nextval reserves the 50 ids ending at it; an unused sequence starts at the first full block
+SELECT setval('price_history_id_seq', 50, false)
+FROM price_history_id_seq WHERE NOT is_called;
+
+COMMIT;
@@ -0,0 +1,9 @@
+-- Adds users.role (USER or ADMIN) to a users table created before roles existed. Every
+-- existing user becomes USER; grant ADMIN by hand afterwards.
+-- Safe to run more than once: psql -f users_role.sql
+
+BEGIN;
+
+ALTER TABLE users ADD COLUMN IF NOT EXISTS role VARCHAR(20) NOT NULL DEFAULT 'USER';
+
+COMMIT;
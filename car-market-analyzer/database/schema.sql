@@ -3,7 +3,9 @@ CREATE TABLE users (
     username VARCHAR(50) NOT NULL UNIQUE,
     password VARCHAR(255) NOT NULL,
     email VARCHAR(100) NOT NULL UNIQUE,
-    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    -- USER or ADMIN; admins are only made here: UPDATE users SET role = 'ADMIN' WHERE ...
+    role VARCHAR(20) NOT NULL DEFAULT 'USER'
 );
 
 CREATE TABLE cars (
@@ -21,16 +23,98 @@ CREATE TABLE cars (
     created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
 );
 
+-- Indexes for /api/cars/search; the search query only contains the filters that are set
+CREATE INDEX idx_cars_make_model_year ON cars (make, model, year);
+CREATE INDEX idx_cars_location ON cars (location);
+CREATE INDEX idx_cars_price ON cars (price);
+CREATE INDEX idx_cars_fuel_type_transmission ON cars (fuel_type, transmission);
+
+-- Partitioned by month on recorded_at (the partition key must be part of the primary key).
+-- txid is the inserting transaction of each row: the rollup job's high-water mark.
+-- The backend creates upcoming monthly partitions and archives expired ones; the default
+-- partition only catches rows outside every monthly partition.
 CREATE TABLE price_history (
-    id SERIAL PRIMARY KEY,
+    id BIGSERIAL,
     car_id INT REFERENCES cars(id),
     price DECIMAL(10, 2),
-    recorded_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+    recorded_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    txid BIGINT DEFAULT txid_current(),
+    PRIMARY KEY (id, recorded_at)
+) PARTITION BY RANGE (recorded_at);
+
+CREATE TABLE price_history_default PARTITION OF price_history DEFAULT;
+
+-- PriceHistory allocates ids 50 at a time (pooled sequence) so inserts can be batched;
+-- the backend's JDBC inserts take their ids from the same blocks. Each nextval reserves the
+-- 50 ids ending at it, so the first value is 50.
+ALTER SEQUENCE price_history_id_seq INCREMENT BY 50 START WITH 50 RESTART;
+
+-- Created on every partition: price trends read one car's history in date order
+CREATE INDEX idx_price_history_car_recorded_at ON price_history (car_id, recorded_at);
+CREATE INDEX idx_price_history_txid ON price_history (txid);
+
+-- Daily and weekly OHLC rollups of price_history (resolution is DAY or WEEK).
+-- The backend creates these tables itself if they are missing.
+CREATE TABLE price_rollups_car (
+    car_id BIGINT NOT NULL,
+    resolution VARCHAR(8) NOT NULL,
+    bucket_start TIMESTAMP NOT NULL,
+    open_price DOUBLE PRECISION NOT NULL,
+    high_price DOUBLE PRECISION NOT NULL,
+    low_price DOUBLE PRECISION NOT NULL,
+    close_price DOUBLE PRECISION NOT NULL,
+    open_at TIMESTAMP NOT NULL,
+    close_at TIMESTAMP NOT NULL,
+    price_count BIGINT NOT NULL,
+    price_sum DOUBLE PRECISION NOT NULL,
+    price_sum_squares DOUBLE PRECISION NOT NULL,
+    PRIMARY KEY (car_id, resolution, bucket_start)
+);
+
+CREATE INDEX idx_price_rollups_car_bucket ON price_rollups_car (resolution, bucket_start);
+
+CREATE TABLE price_rollups_model (
+    make VARCHAR(255) NOT NULL,
+    model VARCHAR(255) NOT NULL,
+    resolution VARCHAR(8) NOT NULL,
+    bucket_start TIMESTAMP NOT NULL,
+    open_price DOUBLE PRECISION NOT NULL,
+    high_price DOUBLE PRECISION NOT NULL,
+    low_price DOUBLE PRECISION NOT NULL,
+    close_price DOUBLE PRECISION NOT NULL,
+    open_at TIMESTAMP NOT NULL,
+    close_at TIMESTAMP NOT NULL,
+    price_count BIGINT NOT NULL,
+    price_sum DOUBLE PRECISION NOT NULL,
+    price_sum_squares DOUBLE PRECISION NOT NULL,
+    PRIMARY KEY (make, model, resolution, bucket_start)
+);
+
+CREATE TABLE price_rollup_state (
+    name VARCHAR(64) PRIMARY KEY,
+    high_water BIGINT NOT NULL,
+    updated_at TIMESTAMP NOT NULL
+);
+
+-- Blocks of listing import files (by start byte offset) whose rows are committed, written
+-- in the same transaction as the rows; lets an interrupted import resume without duplicates.
+CREATE TABLE listing_import_blocks (
+    file_path TEXT NOT NULL,
+    start_offset BIGINT NOT NULL,
+    PRIMARY KEY (file_path, start_offset)
 );
 
 CREATE TABLE favorite_searches (
     id SERIAL PRIMARY KEY,
     user_id INT REFERENCES users(id),
     search_criteria JSONB,
-    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
-);
\ No newline at end of file
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    last_txid BIGINT,
+    last_run_at TIMESTAMP,
+    result_count BIGINT,
+    counted_at TIMESTAMP
+);
+
+-- Saved searches are looked up by criteria with containment (search_criteria @> '{...}')
+CREATE INDEX idx_favorite_searches_criteria ON favorite_searches USING GIN (search_criteria jsonb_path_ops);
+CREATE INDEX idx_favorite_searches_user ON favorite_searches (user_id);
\ No newline at end of file
@@ -1,10 +1,28 @@
-import React from 'react';
+import React, { useState } from 'react';
 import { motion } from 'framer-motion';
 import { X } from 'lucide-react';
+import axios from 'axios';
 
 const SearchFilters = ({ filters, onFilterChange }) => {
+  const [suggestions, setSuggestions] = useState({ make: [], model: [], location: [] });
+
+  // Typeahead for make, model and location; models are limited to the chosen make
+  const fetchSuggestions = async (field, value) => {
+    try {
+      const response = await axios.get('http://localhost:8081/api/cars/autocomplete', {
+        params: { field, q: value, make: field === 'model' ? filters.make || undefined : undefined, limit: 8 }
+      });
+      setSuggestions(current => ({ ...current, [field]: response.data.map(suggestion => suggestion.value) }));
+    } catch (error) {
+      console.error('Error fetching suggestions:', error);
+    }
+  };
+
   const handleInputChange = (field, value) => {
     onFilterChange({ ...filters, [field]: value });
+    if (field in suggestions) {
+      fetchSuggestions(field, value);
+    }
   };
 
   const clearFilters = () => {
@@ -48,9 +66,14 @@ const SearchFilters = ({ filters, onFilterChange }) => {
           type="text"
           value={filters.make}
           onChange={(e) => handleInputChange('make', e.target.value)}
+          onFocus={() => fetchSuggestions('make', filters.make)}
+          list="make-suggestions"
           placeholder="e.g., Toyota"
           className="w-full px-3 py-2 border border-gray-300 rounded-lg focus:ring-2 focus:ring-primary-500 focus:border-primary-500 transition-colors"
         />
+        <datalist id="make-suggestions">
+          {suggestions.make.map(value => <option key={value} value={value} />)}
+        </datalist>
       </div>
 
       {/* Model */}
@@ -62,9 +85,14 @@ const SearchFilters = ({ filters, onFilterChange }) => {
           type="text"
           value={filters.model}
           onChange={(e) => handleInputChange('model', e.target.value)}
+          onFocus={() => fetchSuggestions('model', filters.model)}
+          list="model-suggestions"
           placeholder="e.g., Camry"
           className="w-full px-3 py-2 border border-gray-300 rounded-lg focus:ring-2 focus:ring-primary-500 focus:border-primary-500 transition-colors"
         />
+        <datalist id="model-suggestions">
+          {suggestions.model.map(value => <option key={value} value={value} />)}
+        </datalist>
       </div>
 
       {/* Year Range */}
@@ -103,9 +131,14 @@ const SearchFilters = ({ filters, onFilterChange }) => {
           type="text"
           value={filters.location}
           onChange={(e) => handleInputChange('location', e.target.value)}
+          onFocus={() => fetchSuggestions('location', filters.location)}
+          list="location-suggestions"
           placeholder="e.g., New York"
           className="w-full px-3 py-2 border border-gray-300 rounded-lg focus:ring-2 focus:ring-primary-500 focus:border-primary-500 transition-colors"
         />
+        <datalist id="location-suggestions">
+          {suggestions.location.map(value => <option key={value} value={value} />)}
+        </datalist>
       </div>
 
       {/* Price Range */}
@@ -31,19 +31,25 @@ const CarDetailsPage = () => {
     fetchCarDetails();
   }, [id]);
 
+  // Live price changes for this car, pushed by the backend instead of reloading
+  useEffect(() => {
+    const events = new EventSource(`http://localhost:8081/api/events?car=${id}&policy=coalesce&buffer=1`);
+    events.addEventListener('price', (message) => {
+      const change = JSON.parse(message.data);
+      setCar((current) => (current ? { ...current, price: change.price } : current));
+      setPriceHistory((history) => [...history, { date: change.at, price: change.price }]);
+    });
+    events.addEventListener('overflow', () => fetchCarDetails());
+    return () => events.close();
+  }, [id]);
+
   const fetchCarDetails = async () => {
     try {
-      // Fetch car details
-      const carResponse = await axios.get(`http://localhost:8081/api/cars/${id}`);
-      setCar(carResponse.data);
-
-      // Fetch price history
-      const historyResponse = await axios.get(`http://localhost:8081/api/analytics/price-trends/${id}?days=90`);
-      setPriceHistory(historyResponse.data.trendData || []);
-
-      // Fetch related cars
-      const relatedResponse = await axios.get(`http://localhost:8081/api/cars/make/${carResponse.data.make}/model/${carResponse.data.model}`);
-      setRelatedCars(relatedResponse.data.slice(0, 3));
+      // Fetch the car, its 90-day price history and similar cars in one request
+      const response = await axios.get(`http://localhost:8081/api/cars/${id}/details?related=3`);
+      setCar(response.data.car);
+      setPriceHistory(response.data.priceTrends?.trendData || []);
+      setRelatedCars(response.data.relatedCars || []);
     } catch (error) {
       console.error('Error fetching car details:', error);
       // Set empty state if backend fails
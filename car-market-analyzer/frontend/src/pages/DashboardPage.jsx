@@ -39,12 +39,39 @@ ChartJS.register(
 
 const DashboardPage = () => {
   const [marketData, setMarketData] = useState(null);
+  const [priceHistogram, setPriceHistogram] = useState(null);
   const [loading, setLoading] = useState(true);
 
   useEffect(() => {
     fetchMarketData();
+    fetchPriceHistogram();
   }, []);
 
+  // Market summary updates pushed by the backend, instead of reloading the overview
+  useEffect(() => {
+    const events = new EventSource('http://localhost:8081/api/events?market=true');
+    events.addEventListener('market', (message) => {
+      const summary = JSON.parse(message.data);
+      setMarketData((current) => (current ? {
+        ...current,
+        totalCars: summary.totalCars,
+        averagePrice: summary.averagePrice,
+      } : current));
+    });
+    return () => events.close();
+  }, []);
+
+  const fetchPriceHistogram = async () => {
+    try {
+      const response = await axios.get('http://localhost:8081/api/analytics/price-histogram', {
+        params: { buckets: 12 }
+      });
+      setPriceHistogram(response.data);
+    } catch (error) {
+      console.error('Error fetching price histogram:', error);
+    }
+  };
+
   const fetchMarketData = async () => {
     try {
       const response = await axios.get('http://localhost:8081/api/analytics/overview');
@@ -126,7 +153,22 @@ const DashboardPage = () => {
       ],
     };
 
-    return { priceTrendData, makeDistributionData, locationPriceData };
+    // Price distribution across the whole market
+    const priceDistributionData = priceHistogram?.counts ? {
+      labels: priceHistogram.counts.map((_, i) =>
+        `$${Math.round(priceHistogram.edges[i] / 1000)}k-${Math.round(priceHistogram.edges[i + 1] / 1000)}k`),
+      datasets: [
+        {
+          label: 'Listings',
+          data: priceHistogram.counts,
+          backgroundColor: 'rgba(16, 185, 129, 0.8)',
+          borderColor: 'rgb(16, 185, 129)',
+          borderWidth: 1,
+        },
+      ],
+    } : null;
+
+    return { priceTrendData, makeDistributionData, locationPriceData, priceDistributionData };
   };
 
   if (loading) {
@@ -329,6 +371,36 @@ const DashboardPage = () => {
           )}
         </motion.div>
 
+        {/* Price Distribution */}
+        <motion.div
+          initial={{ opacity: 0, y: 20 }}
+          animate={{ opacity: 1, y: 0 }}
+          transition={{ delay: 0.75 }}
+          className="bg-white rounded-xl shadow-lg p-6 mb-8"
+        >
+          <h3 className="text-lg font-semibold text-gray-900 mb-4">Market Price Distribution</h3>
+          {chartData.priceDistributionData ? (
+            <Bar 
+              data={chartData.priceDistributionData} 
+              options={{
+                responsive: true,
+                plugins: {
+                  legend: {
+                    display: false,
+                  },
+                },
+                scales: {
+                  y: {
+                    beginAtZero: true,
+                  }
+                }
+              }}
+            />
+          ) : (
+            <div className="text-center py-8 text-gray-500">No price distribution data available</div>
+          )}
+        </motion.div>
+
         {/* Popular Makes and Locations */}
         <div className="grid grid-cols-1 lg:grid-cols-2 gap-8">
           {/* Popular Makes */}
@@ -32,7 +32,7 @@ const SearchPage = () => {
       // If search fails, try to get all cars as fallback
       try {
         const allCarsResponse = await axios.get('http://localhost:8081/api/cars');
-        setCars(allCarsResponse.data);
+        setCars(allCarsResponse.data.items);
       } catch (fallbackError) {
         console.error('Fallback also failed:', fallbackError);
         setCars([]);
@@ -47,7 +47,7 @@ const SearchPage = () => {
     const loadInitialCars = async () => {
       try {
         const response = await axios.get('http://localhost:8081/api/cars');
-        setCars(response.data);
+        setCars(response.data.items);
       } catch (error) {
         console.error('Error loading initial cars:', error);
         setCars([]);